@@ -0,0 +1,58 @@
+package bench;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import restaurant.RestaurantManager;
+
+/**
+ * Cost of RestaurantManager.getInstance() after the singleton is
+ * created, with one thread and with many threads calling it at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetInstanceBenchmark {
+	private File dir;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Managers.useTempData("NONE");
+		RestaurantManager.getInstance();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		RestaurantManager.getInstance().shutdown();
+		Managers.delete(dir);
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public RestaurantManager oneThread() {
+		return RestaurantManager.getInstance();
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public RestaurantManager threads16() {
+		return RestaurantManager.getInstance();
+	}
+	
+	@Benchmark
+	@Threads(64)
+	public RestaurantManager threads64() {
+		return RestaurantManager.getInstance();
+	}
+}
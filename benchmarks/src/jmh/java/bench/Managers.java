@@ -0,0 +1,33 @@
+package bench;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Settings so that benchmarks don't write orders in the project's data directory. */
+class Managers {
+	
+	/**
+	 * Put the orders, journal, and checkpoints in a new temporary directory.
+	 * Call this before creating a RestaurantManager.
+	 * @param durability journal durability: NONE, BATCH, or ORDER
+	 * @return the temporary directory
+	 */
+	static File useTempData(String durability) throws IOException {
+		File dir = Files.createTempDirectory("ske-bench").toFile();
+		System.setProperty("orders.dir", new File(dir, "orders").getPath());
+		System.setProperty("orders.log", new File(dir, "orders.log").getPath());
+		System.setProperty("orders.sequence", new File(dir, "orders.seq").getPath());
+		System.setProperty("checkpoint.dir", new File(dir, "checkpoints").getPath());
+		System.setProperty("orders.segmentSize", String.valueOf(16*1024*1024));
+		System.setProperty("journal.durability", durability);
+		System.setProperty("manager", "file");
+		return dir;
+	}
+	
+	/** Delete a directory made by useTempData. */
+	static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) for(File f: files) delete(f);
+		dir.delete();
+	}
+}
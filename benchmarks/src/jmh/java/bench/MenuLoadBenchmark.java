@@ -0,0 +1,80 @@
+package bench;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import menu.MenuReader;
+import menu.MenuSnapshot;
+
+/**
+ * Time to load a generated menu file the same way the
+ * FileBackedRestaurantManager does: read and parse the file,
+ * create a snapshot, and build its search index.
+ * readMenu and readMenuFromCache compare parsing the file with
+ * reading the binary menu cache, without the search index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MenuLoadBenchmark {
+	/** Number of lines in the menu file. */
+	@Param({"12", "10000", "200000"})
+	public int lines;
+	@Param({"false", "true"})
+	public boolean parallel;
+	
+	private File file;
+	
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("menu", ".txt");
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("# generated menu");
+			for(int k=1; k<=lines; k++) {
+				out.printf("Menu item %d; %d.%02d; %s\n", k, 10 + k % 400, k % 100, 
+						(k % 3 == 0) ? "drinks" : "grill");
+			}
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".cache").delete();
+	}
+	
+	@Benchmark
+	public MenuSnapshot loadMenu() {
+		MenuReader reader = new MenuReader(file.getPath()).setParallel(parallel);
+		reader.read();
+		MenuSnapshot menu = reader.toSnapshot(1L);
+		menu.getSearchIndex();
+		return menu;
+	}
+	
+	@Benchmark
+	public MenuSnapshot readMenu() {
+		MenuReader reader = new MenuReader(file.getPath()).setParallel(parallel);
+		reader.read();
+		return reader.toSnapshot(1L);
+	}
+	
+	/** The first call writes the cache, and later calls read it. */
+	@Benchmark
+	public MenuSnapshot readMenuFromCache() {
+		MenuReader reader = new MenuReader(file.getPath()).setParallel(parallel).setCache(true);
+		reader.read();
+		return reader.toSnapshot(1L);
+	}
+}
@@ -0,0 +1,78 @@
+package bench;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import menu.MenuSnapshot;
+import order.Order;
+
+/**
+ * Cost of the Order methods used for every order, for menus of
+ * different sizes.  A typical order has a few lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrderBenchmark {
+	/** Number of items on the menu. */
+	@Param({"12", "1000", "100000"})
+	public int menuSize;
+	/** Number of lines in the order. */
+	static final int LINES = 5;
+	
+	private MenuSnapshot menu;
+	private int[] ids;
+	private Order order;
+	
+	@Setup
+	public void setup() {
+		menu = createMenu(menuSize);
+		// items from all over the menu
+		ids = new int[LINES];
+		for(int k=0; k<LINES; k++) ids[k] = 1 + (int)((long) k * (menuSize - 1) / (LINES - 1));
+		order = new Order(menu);
+		for(int id: ids) order.addItem(id, 2);
+	}
+	
+	/** Create a menu with n items. Item 0 is not used. */
+	static MenuSnapshot createMenu(int n) {
+		String[] names = new String[n + 1];
+		long[] prices = new long[n + 1];
+		names[0] = "No item";
+		for(int k=1; k<=n; k++) {
+			names[k] = "Menu item " + k;
+			prices[k] = 1000 + 25*(k % 400);
+		}
+		return new MenuSnapshot(1L, names, prices);
+	}
+	
+	/** Create an order and add its lines. */
+	@Benchmark
+	public Order addItem() {
+		Order o = new Order(menu);
+		for(int id: ids) o.addItem(id, 1);
+		return o;
+	}
+	
+	@Benchmark
+	public long getTotal() {
+		return order.getTotal();
+	}
+	
+	@Benchmark
+	public int[] getItems() {
+		return order.getItems();
+	}
+	
+	@Benchmark
+	public boolean isEmpty() {
+		return order.isEmpty();
+	}
+}
@@ -0,0 +1,95 @@
+package bench;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import menu.MenuSnapshot;
+import order.Order;
+import promo.ComboPromotion;
+import promo.CouponPromotion;
+import promo.HappyHourPromotion;
+import promo.Promotion;
+import promo.PromotionIndex;
+
+/**
+ * Cost of pricing an order with many active promotions: combos,
+ * happy hours (all active) and coupons, spread over the menu.
+ * priceOrder creates an order with a few lines and a coupon and
+ * computes its total, so it includes the discount.  Compare with
+ * promotions=0 for the cost of the promotions.
+ * compile is the time to compile the promotions when a menu is loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PromotionBenchmark {
+	/** Number of items on the menu. */
+	@Param({"100", "1000"})
+	public int menuSize;
+	/** Number of promotions. */
+	@Param({"0", "1000"})
+	public int promotions;
+	/** Number of lines in the order. */
+	static final int LINES = 5;
+
+	private MenuSnapshot menu;
+	private List<Promotion> list;
+	private int[] ids;
+	private final LocalDateTime time = LocalDateTime.of(2024, 1, 15, 16, 0);
+
+	@Setup
+	public void setup() {
+		MenuSnapshot plain = OrderBenchmark.createMenu(menuSize);
+		list = createPromotions(plain, promotions, new Random(42));
+		menu = plain.withPromotions(list);
+		ids = new int[LINES];
+		for(int k=0; k<LINES; k++) ids[k] = 1 + (int)((long) k * (menuSize - 1) / (LINES - 1));
+	}
+
+	/**
+	 * Create promotions for random items: half combos of 2 items,
+	 * 30% happy hours for 3 items, and the rest coupons.
+	 */
+	static List<Promotion> createPromotions(MenuSnapshot menu, int count, Random random) {
+		List<Promotion> result = new ArrayList<>(count);
+		for(int k=0; k<count; k++) {
+			String a = menu.getName(1 + random.nextInt(menu.size() - 1));
+			String b = menu.getName(1 + random.nextInt(menu.size() - 1));
+			String c = menu.getName(1 + random.nextInt(menu.size() - 1));
+			if (k % 10 < 5) result.add(new ComboPromotion("Combo "+k, Arrays.asList(a, b), 1500));
+			else if (k % 10 < 8) result.add(new HappyHourPromotion("Happy hour "+k, Arrays.asList(a, b, c),
+					LocalTime.of(15, 0), LocalTime.of(17, 0), 500 + 100*(k % 10)));
+			else if (k % 10 < 9) result.add(new CouponPromotion("ITEM"+k, Arrays.asList(a), 1000));
+			else result.add(new CouponPromotion("ORDER"+k, Arrays.asList(), 500));
+		}
+		return result;
+	}
+
+	/** Create an order with a coupon, as a terminal would, and get its total. */
+	@Benchmark
+	public long priceOrder() {
+		Order order = new Order(menu);
+		for(int id: ids) order.addItem(id, 2);
+		order.addCoupon("ORDER9");
+		order.setTimeStamp(time);
+		return order.getTotal();
+	}
+
+	@Benchmark
+	public PromotionIndex compile() {
+		return PromotionIndex.compile(list, menu);
+	}
+}
@@ -0,0 +1,90 @@
+package bench;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import order.Order;
+import restaurant.FileBackedRestaurantManager;
+import restaurant.RestaurantManager;
+
+/**
+ * Throughput of FileBackedRestaurantManager.recordOrder with 1 to 64 
+ * threads (terminals) recording orders at the same time.
+ * Orders are saved in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RecordOrderBenchmark {
+	/** Journal durability. ORDER is one fsync per order, so it is much slower. */
+	@Param({"NONE", "BATCH"})
+	public String durability;
+	
+	private File dir;
+	private RestaurantManager manager;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Managers.useTempData(durability);
+		// the constructor is protected, so use a subclass
+		manager = new FileBackedRestaurantManager() { };
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		manager.shutdown();
+		Managers.delete(dir);
+	}
+	
+	private Order newOrder() {
+		Order order = new Order(manager.getMenu());
+		order.addItem(1, 2);
+		order.addItem(8, 1);
+		order.addItem(11, 3);
+		return order;
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public long threads01() {
+		Order order = newOrder();
+		manager.recordOrder(order);
+		return order.getOrderNumber();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public long threads04() {
+		Order order = newOrder();
+		manager.recordOrder(order);
+		return order.getOrderNumber();
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public long threads16() {
+		Order order = newOrder();
+		manager.recordOrder(order);
+		return order.getOrderNumber();
+	}
+	
+	@Benchmark
+	@Threads(64)
+	public long threads64() {
+		Order order = newOrder();
+		manager.recordOrder(order);
+		return order.getOrderNumber();
+	}
+}
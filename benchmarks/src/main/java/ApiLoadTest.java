@@ -0,0 +1,126 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import api.OrderApiServer;
+import restaurant.RestaurantManager;
+
+/**
+ * Load test for the order API.  Each client thread sends requests 
+ * as fast as it can: half GET /menu, 40% POST /orders, and 10% GET /orders/{n}.
+ * Prints requests per second and latency percentiles.
+ * <pre>
+ * gradle :benchmarks:apiload --args="[clients [seconds [url]]]"
+ * </pre>
+ * Each client sends its orders as a different terminal.
+ * If no url is given, an OrderApiServer is started in this JVM
+ * using RestaurantManager.getInstance().
+ */
+public class ApiLoadTest {
+	/** Most latencies each client remembers, in microseconds. */
+	static final int MAX_SAMPLES = 1_000_000;
+	
+	private final HttpClient client;
+	private final String baseUrl;
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong lastOrder = new AtomicLong();
+	
+	public ApiLoadTest(String baseUrl) {
+		this.baseUrl = baseUrl;
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofSeconds(5))
+				.build();
+	}
+	
+	/** Send requests until the deadline, return latencies in microseconds. */
+	private long[] runClient(String terminal, long deadline) {
+		long[] samples = new long[1024];
+		int count = 0;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while(System.nanoTime() < deadline) {
+			int kind = random.nextInt(10);
+			HttpRequest request;
+			if (kind < 5) {
+				request = HttpRequest.newBuilder(URI.create(baseUrl+"/menu")).GET().build();
+			}
+			else if (kind < 9) {
+				String body = String.format("{\"items\":[{\"id\":%d,\"quantity\":%d},{\"id\":%d}]}", 
+						1+random.nextInt(5), 1+random.nextInt(3), 6+random.nextInt(5));
+				request = HttpRequest.newBuilder(URI.create(baseUrl+"/orders"))
+						.header("Content-Type", "application/json")
+						.header("Terminal", terminal)
+						.POST(HttpRequest.BodyPublishers.ofString(body)).build();
+			}
+			else {
+				request = HttpRequest.newBuilder(URI.create(baseUrl+"/orders/"+lastOrder.get())).GET().build();
+			}
+			long start = System.nanoTime();
+			try {
+				HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+				if (response.statusCode() == 201) {
+					// remember an order number to look up
+					String json = response.body();
+					int k = json.indexOf(':');
+					lastOrder.set(Long.parseLong(json.substring(k+1, json.indexOf(',', k))));
+				}
+				else if (response.statusCode() != 200) errors.incrementAndGet();
+			} catch (Exception ex) {
+				errors.incrementAndGet();
+			}
+			if (count == samples.length && count < MAX_SAMPLES) samples = Arrays.copyOf(samples, 2*count);
+			if (count < samples.length) samples[count++] = (System.nanoTime() - start)/1000;
+		}
+		return Arrays.copyOf(samples, count);
+	}
+	
+	/** Run clients in parallel and print the results. */
+	public void run(int clients, int seconds) throws InterruptedException {
+		long[][] results = new long[clients][];
+		Thread[] threads = new Thread[clients];
+		long start = System.nanoTime();
+		long deadline = start + seconds * 1_000_000_000L;
+		for(int k=0; k<clients; k++) {
+			final int n = k;
+			threads[k] = new Thread( () -> results[n] = runClient("client-"+n, deadline), "client-"+k );
+			threads[k].start();
+		}
+		for(Thread t: threads) t.join();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		long[] all = Arrays.stream(results).flatMapToLong(Arrays::stream).toArray();
+		Arrays.sort(all);
+		System.out.printf("%d clients, %d requests in %.1f sec = %.0f requests/sec, %d errors\n",
+				clients, all.length, elapsed, all.length/elapsed, errors.get());
+		if (all.length == 0) return;
+		System.out.printf("latency (usec) p50 %d  p90 %d  p99 %d  p99.9 %d  max %d\n",
+				all[all.length/2], all[(int)(all.length*0.9)], all[(int)(all.length*0.99)],
+				all[(int)(all.length*0.999)], all[all.length-1]);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		OrderApiServer server = null;
+		String url;
+		if (args.length > 2) url = args[2];
+		else {
+			server = new OrderApiServer(RestaurantManager.getInstance(), 0);
+			server.start();
+			url = "http://localhost:"+server.getPort();
+		}
+		ApiLoadTest test = new ApiLoadTest(url);
+		// warm up
+		test.run(clients, 2);
+		test.errors.set(0);
+		test.run(clients, seconds);
+		if (server != null) {
+			server.stop();
+			RestaurantManager.getInstance().shutdown();
+		}
+	}
+}
@@ -0,0 +1,326 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import menu.MenuSnapshot;
+import order.Order;
+import restaurant.RestaurantManager;
+import restaurant.SessionThreads;
+
+/**
+ * Replays scripted POS terminal sessions against RestaurantUI, to
+ * reproduce rush-hour load.  Each session is a real RestaurantUI 
+ * reading from a queue of scripts, and orders arrive at a fixed rate (an
+ * open system), so a slow manager makes orders wait just like real customers.
+ * Queueing a script never blocks, so a slow session doesn't delay the
+ * orders sent to other sessions.
+ * 
+ * Latency is measured for each stage of an order, in microseconds:
+ * <pre>
+ * entry    from the time the order should arrive until it is submitted
+ *          (includes waiting for a busy terminal)
+ * record   RestaurantManager.recordOrder
+ * receipt  printing the receipt
+ * total    from arrival until the receipt is printed
+ * </pre>
+ * Histograms are saved in HdrHistogram percentile format (*.hgrm) so
+ * runs can be plotted and compared.
+ * 
+ * Usage:
+ * <pre>
+ * java LoadGenerator [--sessions 32] [--rate 500] [--seconds 30] [--items 1-5] 
+ *                    [--byName 0.2] [--mix 1=5,8=3,11=2] [--out build/loadgen]
+ * </pre>
+ * --rate is orders per second for all sessions, --items is the range of items
+ * per order, --byName is the fraction of items entered by name instead of number,
+ * and --mix gives item numbers and weights (default is all menu items equally).
+ * Orders are saved in a temporary directory. The journal durability can be 
+ * set using -Djournal.durability.
+ */
+public class LoadGenerator {
+	/** Largest latency recorded, in microseconds. */
+	static final long MAX_LATENCY = TimeUnit.MINUTES.toMicros(10);
+	static final String[] STAGES = { "entry", "record", "receipt", "total" };
+	
+	private int sessions = 32;
+	private double rate = 500;
+	private int seconds = 30;
+	private int minItems = 1;
+	private int maxItems = 5;
+	private double byName = 0.2;
+	private String mix = null;
+	private File outDir = new File("build/loadgen");
+	
+	private final Recorder[] recorders = new Recorder[STAGES.length];
+	private final AtomicLong completed = new AtomicLong();
+	private RestaurantManager rm;
+	/** Item numbers to order, and cumulative weights for choosing them. */
+	private int[] mixItems;
+	private long[] mixWeights;
+	
+	/** A RestaurantUI that records the time of each stage of an order. */
+	class TimedUI extends RestaurantUI {
+		/** Times (System.nanoTime) when the next orders should arrive. */
+		final Queue<Long> arrivals = new ConcurrentLinkedQueue<>();
+		private long arrival;
+		private long start;
+		
+		TimedUI(InputStream in, String terminal) {
+			super(rm, in, new PrintStream(OutputStream.nullOutputStream()), terminal, false);
+		}
+		
+		@Override
+		protected Order acceptOrder() {
+			Order order = super.acceptOrder();
+			if (order == null) return null;
+			Long time = arrivals.poll();
+			arrival = (time != null) ? time : System.nanoTime();
+			record(0, arrival);
+			return order;
+		}
+		
+		@Override
+		protected boolean submitOrder(Order order) {
+			start = System.nanoTime();
+			boolean recorded = super.submitOrder(order);
+			record(1, start);
+			return recorded;
+		}
+		
+		@Override
+		public void printReceipt(Order order) {
+			start = System.nanoTime();
+			super.printReceipt(order);
+			record(2, start);
+			record(3, arrival);
+			completed.incrementAndGet();
+		}
+	}
+	
+	/** Record the time from start until now for a stage. */
+	private void record(int stage, long start) {
+		long micros = (System.nanoTime() - start) / 1000;
+		recorders[stage].recordValue(Math.min(Math.max(micros, 0), MAX_LATENCY));
+	}
+	
+	/** 
+	 * Input of a session: scripts queued by the scheduler thread, read
+	 * by the session's RestaurantUI.  Adding a script never blocks.
+	 */
+	private static class ScriptInput extends InputStream {
+		/** Marker for the end of the input. */
+		private static final byte[] EOF = new byte[0];
+		private final BlockingQueue<byte[]> scripts = new LinkedBlockingQueue<>();
+		/** The script being read, and the position in it. */
+		private byte[] current = new byte[0];
+		private int pos = 0;
+		
+		void add(String script) {
+			scripts.add(script.getBytes(StandardCharsets.UTF_8));
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xFF;
+		}
+		
+		/** Read from the current script, waiting for the next script if it is used up. */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			while(pos >= current.length) {
+				if (current == EOF) return -1;
+				try {
+					current = scripts.take();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				pos = 0;
+			}
+			int n = Math.min(len, current.length - pos);
+			System.arraycopy(current, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return current.length - pos;
+		}
+		
+		/** End the input after the scripts already queued. */
+		@Override
+		public void close() {
+			scripts.add(EOF);
+		}
+	}
+	
+	/** A simulated terminal: a TimedUI and its input. */
+	private class Session {
+		final TimedUI ui;
+		final ScriptInput input = new ScriptInput();
+		
+		Session(String name) {
+			ui = new TimedUI(input, name);
+		}
+		
+		/** Queue the input for one order. */
+		void send(String script, long arrival) {
+			ui.arrivals.add(arrival);
+			input.add(script);
+		}
+	}
+	
+	/** Create the input for one random order: item numbers or names, then "s". */
+	private String script(Random random, MenuSnapshot menu) {
+		StringBuilder sb = new StringBuilder();
+		int items = minItems + random.nextInt(maxItems - minItems + 1);
+		for(int k=0; k<items; k++) {
+			int id = chooseItem(random, menu);
+			if (random.nextDouble() < byName) sb.append(menu.getName(id));
+			else sb.append(id);
+			sb.append('\n');
+		}
+		return sb.append("s\n").toString();
+	}
+	
+	private int chooseItem(Random random, MenuSnapshot menu) {
+		if (mixItems == null) return 1 + random.nextInt(menu.size() - 1);
+		long r = (long)(random.nextDouble() * mixWeights[mixWeights.length-1]);
+		int k = 0;
+		while(mixWeights[k] <= r) k++;
+		return mixItems[k];
+	}
+	
+	/** Parse a mix like "1=5,8=3,11=2" into items and cumulative weights. */
+	private void parseMix(MenuSnapshot menu) {
+		if (mix == null) return;
+		String[] parts = mix.split(",");
+		mixItems = new int[parts.length];
+		mixWeights = new long[parts.length];
+		long sum = 0;
+		for(int k=0; k<parts.length; k++) {
+			String[] pair = parts[k].split("=");
+			mixItems[k] = Integer.parseInt(pair[0].trim());
+			if (mixItems[k] < 1 || mixItems[k] >= menu.size()) throw new IllegalArgumentException("No menu item "+mixItems[k]);
+			sum += (pair.length > 1) ? Long.parseLong(pair[1].trim()) : 1;
+			mixWeights[k] = sum;
+		}
+	}
+	
+	/** Run the sessions and report the results. */
+	public void run() throws IOException, InterruptedException {
+		for(int k=0; k<recorders.length; k++) recorders[k] = new Recorder(MAX_LATENCY, 3);
+		rm = RestaurantManager.getInstance();
+		MenuSnapshot menu = rm.getMenu();
+		if (menu.size() < 2) throw new IllegalStateException("The menu is empty");
+		parseMix(menu);
+		List<Session> list = new ArrayList<>(sessions);
+		ExecutorService executor = SessionThreads.newExecutor("session");
+		for(int k=0; k<sessions; k++) {
+			Session session = new Session("load-"+k);
+			list.add(session);
+			executor.execute(session.ui::consoleUI);
+		}
+		System.out.printf("%d sessions, %.0f orders/sec for %d sec, %d-%d items per order\n",
+				sessions, rate, seconds, minItems, maxItems);
+		Random random = new Random(42);
+		long interval = (long)(1e9 / rate);
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long sent = 0;
+		// send orders on schedule, even if the sessions are behind
+		for(long next = start; next < end; next += interval) {
+			long wait = next - System.nanoTime();
+			if (wait > 0) LockSupport.parkNanos(wait);
+			list.get((int)(sent % sessions)).send(script(random, menu), next);
+			sent++;
+		}
+		for(Session session: list) {
+			session.send("Q\n", System.nanoTime());
+			session.input.close();
+		}
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.MINUTES);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		rm.shutdown();
+		report(sent, elapsed);
+	}
+	
+	private void report(long sent, double elapsed) throws FileNotFoundException {
+		System.out.printf("%d orders sent, %d completed in %.1f sec = %.0f orders/sec\n", 
+				sent, completed.get(), elapsed, completed.get() / elapsed);
+		System.out.printf("%-8s %10s %10s %10s %10s  (microseconds)\n", "stage", "p50", "p99", "p99.9", "max");
+		outDir.mkdirs();
+		for(int k=0; k<STAGES.length; k++) {
+			Histogram h = recorders[k].getIntervalHistogram();
+			System.out.printf("%-8s %10d %10d %10d %10d\n", STAGES[k], 
+					h.getValueAtPercentile(50), h.getValueAtPercentile(99), 
+					h.getValueAtPercentile(99.9), h.getMaxValue());
+			try (PrintStream out = new PrintStream(new File(outDir, STAGES[k] + ".hgrm"))) {
+				// values in milliseconds
+				h.outputPercentileDistribution(out, 1000.0);
+			}
+		}
+		System.out.println("Histograms saved in "+outDir);
+	}
+	
+	/** Put orders in a temporary directory, so the load test doesn't change real data. */
+	private static void useTempData() throws IOException {
+		File dir = Files.createTempDirectory("ske-load").toFile();
+		dir.deleteOnExit();
+		System.setProperty("orders.dir", new File(dir, "orders").getPath());
+		System.setProperty("orders.log", new File(dir, "orders.log").getPath());
+		System.setProperty("orders.sequence", new File(dir, "orders.seq").getPath());
+		System.setProperty("checkpoint.dir", new File(dir, "checkpoints").getPath());
+		System.setProperty("orders.segmentSize", String.valueOf(16*1024*1024));
+		if (System.getProperty("manager") == null) System.setProperty("manager", "file");
+		System.out.println("Orders are saved in "+dir);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		LoadGenerator gen = new LoadGenerator();
+		for(int k=0; k<args.length-1; k+=2) {
+			String value = args[k+1];
+			switch(args[k]) {
+			case "--sessions": gen.sessions = Integer.parseInt(value); break;
+			case "--rate": gen.rate = Double.parseDouble(value); break;
+			case "--seconds": gen.seconds = Integer.parseInt(value); break;
+			case "--byName": gen.byName = Double.parseDouble(value); break;
+			case "--mix": gen.mix = value; break;
+			case "--out": gen.outDir = new File(value); break;
+			case "--items":
+				String[] range = value.split("-");
+				gen.minItems = Integer.parseInt(range[0]);
+				gen.maxItems = Integer.parseInt(range[range.length-1]);
+				break;
+			default:
+				System.err.println("Unknown option "+args[k]);
+				return;
+			}
+		}
+		useTempData();
+		gen.run();
+	}
+}
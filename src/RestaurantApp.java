@@ -1,3 +1,13 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import api.OrderApiServer;
+import importer.OrderImporter;
+import kitchen.KitchenRouter;
+import receipt.ReceiptSpool;
+import restaurant.Location;
+import restaurant.LocationRegistry;
+import restaurant.RestaurantConfig;
 import restaurant.RestaurantManager;
 
 /**
@@ -5,13 +15,139 @@ import restaurant.RestaurantManager;
  * This call just initializes other objects and invokes a
  * method to start UI.
  * 
+ * To let other POS terminals connect using local sockets, give
+ * a port number: java RestaurantApp --port 7070
+ * (or set terminal.port in restaurant.properties).
+ * 
+ * To let tablets and kiosks order using HTTP/JSON, give an
+ * HTTP port: java RestaurantApp --http 8080 (or set http.port).
+ * If kitchen.enabled is true, orders are also sent to kitchen stations,
+ * which get their tickets from the HTTP API. Live sales figures
+ * are also available from the HTTP API.
+ * 
+ * To print receipts from the console and terminals, set receipt.spool
+ * to a file or printer device.
+ * 
+ * To import orders from a CSV or JSON lines file (e.g. orders taken
+ * while a terminal was offline) and exit, use:
+ * java RestaurantApp --import orders.csv   (see importer.OrderImporter)
+ * 
+ * To host several restaurant locations, list them in the locations
+ * setting (see restaurant.Location).  Each location with a
+ * location.{id}.port setting accepts its own terminals, and the console
+ * takes orders for the location given by --location id.
+ * 
  * @author Fatalai Jon
  */
 public class RestaurantApp {
 
 	public static void main(String[] args) {
-		RestaurantManager rm = RestaurantManager.getInstance();
+		int port = RestaurantConfig.getInt("terminal.port", 0);
+		int httpPort = RestaurantConfig.getInt("http.port", 0);
+		String importFile = null;
+		String locationId = null;
+		for(int k=0; k<args.length-1; k++) {
+			if (args[k].equals("--port")) port = Integer.parseInt(args[k+1]);
+			if (args[k].equals("--http")) httpPort = Integer.parseInt(args[k+1]);
+			if (args[k].equals("--import")) importFile = args[k+1];
+			if (args[k].equals("--location")) locationId = args[k+1];
+		}
+		RestaurantManager rm;
+		if (locationId == null) rm = RestaurantManager.getInstance();
+		else {
+			LocationRegistry locations = startLocations();
+			rm = locations.get(locationId);
+			if (rm == null) {
+				System.err.println("No location "+locationId+" in the locations setting");
+				System.exit(1);
+			}
+		}
+		if (importFile != null) {
+			importOrders(rm, importFile);
+			return;
+		}
+		if (httpPort > 0) {
+			OrderApiServer api = new OrderApiServer(rm, httpPort);
+			api.setSales(rm.getSales());
+			// kitchen stations take tickets using the API, so only send them if the API is running
+			if (Boolean.parseBoolean(RestaurantConfig.get("kitchen.enabled", "false"))) {
+				KitchenRouter kitchen = new KitchenRouter();
+				rm.addOrderListener(kitchen);
+				api.setKitchen(kitchen);
+			}
+			try {
+				api.start();
+			} catch (IOException ex) {
+				System.err.println("Could not start order API on port "+httpPort+": "+ex.getMessage());
+			}
+		}
+		ReceiptSpool spool = openReceiptSpool();
 		RestaurantUI restaurant = new RestaurantUI( rm );
+		restaurant.setReceiptSpool(spool);
+		if (port <= 0) {
+			restaurant.consoleUI();
+			return;
+		}
+		TerminalServer server = new TerminalServer(rm, port);
+		server.setReceiptSpool(spool);
+		try {
+			server.start();
+		} catch (IOException ex) {
+			System.err.println("Could not accept terminals on port "+port+": "+ex.getMessage());
+		}
+		// the console is a terminal too. Quitting the console exits the application.
 		restaurant.consoleUI();
 	}
+	
+	/** 
+	 * Open the receipt spool named by receipt.spool, if there is one.
+	 * Receipts still in the spool are written when the application exits.
+	 */
+	private static ReceiptSpool openReceiptSpool() {
+		String filename = RestaurantConfig.get("receipt.spool", "");
+		if (filename.trim().isEmpty()) return null;
+		try {
+			ReceiptSpool spool = new ReceiptSpool(filename.trim());
+			Runtime.getRuntime().addShutdownHook(new Thread(spool::close, "ReceiptSpool-close"));
+			return spool;
+		} catch (IOException ex) {
+			System.err.println("Could not open receipt spool "+filename+": "+ex.getMessage());
+			return null;
+		}
+	}
+	
+	/** Import orders from a file, then shutdown and exit. */
+	private static void importOrders(RestaurantManager rm, String filename) {
+		int status = 0;
+		try {
+			new OrderImporter(rm).importFile(Paths.get(filename));
+		} catch (IOException ex) {
+			System.err.println("Could not import orders from "+filename+": "+ex.getMessage());
+			status = 1;
+		} finally {
+			rm.shutdown();
+		}
+		System.exit(status);
+	}
+	
+	/**
+	 * Create the registry of locations, and accept terminals for
+	 * each location that has a port.  All the locations are shutdown
+	 * when the application exits.
+	 */
+	private static LocationRegistry startLocations() {
+		LocationRegistry locations = LocationRegistry.fromConfig();
+		Runtime.getRuntime().addShutdownHook(new Thread(locations::shutdown, "Locations-shutdown"));
+		for(Location location: locations.getLocations()) {
+			int port = RestaurantConfig.getInt("location."+location.getId()+".port", 0);
+			if (port <= 0) continue;
+			TerminalServer server = new TerminalServer(locations.get(location.getId()), port);
+			try {
+				server.start();
+			} catch (IOException ex) {
+				System.err.println("Could not accept terminals for "+location.getId()+" on port "+port+": "+ex.getMessage());
+			}
+		}
+		return locations;
+	}
 }
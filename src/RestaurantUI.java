@@ -1,23 +1,54 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
+import menu.MenuSearchIndex;
+import menu.MenuSnapshot;
+import order.Money;
 import order.Order;
+import receipt.ReceiptRenderer;
+import receipt.ReceiptSpool;
 import restaurant.RestaurantManager;
 
 /**
  * A console based interface for placing an order
  * at a restaurant.
  * 
+ * The UI reads from an InputStream and writes to a PrintStream, so the
+ * same UI can be used for the console or for a terminal connected
+ * by a socket.  Each terminal has its own RestaurantUI.
+ * 
  * @author Fatalai Jon
  */
 public class RestaurantUI {
-	/** Names of items on the menu. */
-	private String[] items = null;
-	/** Prices of the items, in same order as item names. */
-	private double[] prices = null;
-	/** Parse input from console. */
-	static final Scanner console = new Scanner(System.in);
+	/** The menu: names and prices (in minor units) of items. */
+	private MenuSnapshot menu = null;
+	/** Parse input from console or terminal. */
+	private final Scanner console;
+	/** Where to write output. */
+	private final PrintStream out;
+	/** Name of this terminal, to identify where orders come from. */
+	private final String terminal;
+	/** If true, quit() exits the application. Otherwise it only ends this session. */
+	private final boolean exitOnQuit;
+	/** Set to false to end the consoleUI loop. */
+	private volatile boolean running = true;
+	/** False until the menu is shown the first time, by any terminal. */
+	private static final AtomicBoolean menuShown = new AtomicBoolean(false);
+	/** Max number of items to show when searching by name. */
+	static final int MAX_MATCHES = 10;
 	/** The RestaurantManager, for getting menu info and submitting order. */
 	private final RestaurantManager rm;
+	/** Renders the menu, orders and receipts for this terminal. */
+	private final ReceiptRenderer renderer;
+	/** Where receipts are also printed, or null. */
+	private ReceiptSpool spool;
 
 	// **Dependency Injection**
 	// RestaurantUI depends on RestaurantManager.
@@ -32,47 +63,102 @@ public class RestaurantUI {
 	 * @param rm a reference to the RestaurantManager.
 	 */
 	public RestaurantUI(RestaurantManager rm) {
+		this(rm, System.in, System.out, consoleCharset(), "console", true);
+	}
+	
+	/**
+	 * Initialize (but don't start) a UI for a terminal.
+	 * @param rm a reference to the RestaurantManager.
+	 * @param in input from the terminal
+	 * @param out output to the terminal
+	 * @param terminal name of the terminal
+	 * @param exitOnQuit true if quitting should exit the application,
+	 *    false to end only this terminal session
+	 */
+	public RestaurantUI(RestaurantManager rm, InputStream in, PrintStream out, String terminal, boolean exitOnQuit) {
+		this(rm, in, out, Charset.defaultCharset(), terminal, exitOnQuit);
+	}
+	
+	/**
+	 * Initialize (but don't start) a UI for a terminal.
+	 * @param rm a reference to the RestaurantManager.
+	 * @param in input from the terminal
+	 * @param out output to the terminal
+	 * @param charset charset used by out
+	 * @param terminal name of the terminal
+	 * @param exitOnQuit true if quitting should exit the application,
+	 *    false to end only this terminal session
+	 */
+	public RestaurantUI(RestaurantManager rm, InputStream in, PrintStream out, Charset charset, String terminal, boolean exitOnQuit) {
 		this.rm = rm;
-		// items and prices initialized in consoleUI method.
+		this.renderer = new ReceiptRenderer(charset);
+		this.console = new Scanner(in);
+		this.out = out;
+		this.terminal = terminal;
+		this.exitOnQuit = exitOnQuit;
+		// menu initialized in acceptOrder method.
+	}
+	
+	/** Charset of System.out, which may differ from the default charset on a console. */
+	private static Charset consoleCharset() {
+		String name = System.getProperty("sun.stdout.encoding");
+		try {
+			if (name != null) return Charset.forName(name);
+		} catch (IllegalArgumentException ex) {
+			// use the default
+		}
+		return Charset.defaultCharset();
+	}
+	
+	/**
+	 * Also print receipts using a spool, e.g. to a receipt printer.
+	 * @param spool the spool for receipts, or null for no printing
+	 */
+	public void setReceiptSpool(ReceiptSpool spool) {
+		this.spool = spool;
 	}
 	
 	/**
-	 * Accept orders at console, in a loop.
+	 * Accept orders at console, in a loop, until the user quits.
 	 */
 	public void consoleUI() {
-		while(true) {
+		while(running) {
 			Order order = acceptOrder();	
 			if (order == null || order.isEmpty()) continue;
 			// pay and submit
 			acceptPayment(order);
-			submitOrder(order);
-			printReceipt(order);
+			if (submitOrder(order)) printReceipt(order);
 		}
 	}
 	
 	/** Display the menu. */
 	public void printMenu() {
-		if (items == null) initMenu();
-		// format used for printf of menu
-		String format = "[%2d] %-24.24s %,6.2f%n";
-		// Item 0 is not used so that item numbers start at 1.
-		for(int k=1; k<items.length; k++) {
-			System.out.printf(format, k, items[k], prices[k]);
+		if (menu == null) initMenu();
+		// the menu is only formatted when it changes
+		try {
+			renderer.writeMenu(menu, out);
+		} catch (IOException ex) {
+			// PrintStream doesn't throw IOException
+		}
+		// report the cold start time, from starting the JVM to showing the menu
+		if (! menuShown.getAndSet(true)) {
+			Logger.getLogger("RestaurantManager").info(String.format("First menu shown %d ms after start",
+					ManagementFactory.getRuntimeMXBean().getUptime()));
 		}
-		// add a blank line for readability
-		System.out.println();
 	}
 	
 	/** Display other commands. */
 	public void printCommands() {
-		int itemcount = items.length - 1; // don't use element [0]
+		int itemcount = menu.size() - 1; // don't use element [0]
 		String choiceformat = "%-6.6s %s%n";
-		System.out.printf(choiceformat, "1-"+itemcount, "Add item# to order");
-		System.out.printf(choiceformat, "m", "Display menu");
-		System.out.printf(choiceformat, "p", "Print contents of order");
-		System.out.printf(choiceformat, "s", "checkout and Submit Order");
-		System.out.printf(choiceformat, "x", "Cancel order");
-		System.out.printf(choiceformat, "Q", "Quit (capital 'Q')");
+		out.printf(choiceformat, "1-"+itemcount, "Add item# to order");
+		out.printf(choiceformat, "name", "Add item by name, or list items that match");
+		out.printf(choiceformat, "m", "Display menu");
+		out.printf(choiceformat, "p", "Print contents of order");
+		out.printf(choiceformat, "c", "Enter a coupon code");
+		out.printf(choiceformat, "s", "checkout and Submit Order");
+		out.printf(choiceformat, "x", "Cancel order");
+		out.printf(choiceformat, "Q", "Quit (capital 'Q')");
 	}
 	
 	
@@ -82,10 +168,11 @@ public class RestaurantUI {
 	 * @return a completed order or null if order is cancelled.
 	 */
 	protected Order acceptOrder( ) {
-		// make sure we have the menu data
-		if (items == null) initMenu();
-		// create an array for customer's order.
-		Order order = new Order(items, prices);
+		// get the current menu, in case it has changed.
+		// The order keeps using this menu until it is submitted.
+		initMenu();
+		Order order = new Order(menu);
+		order.setTerminal(terminal);
 		
 		while(true) {
 			String choice = getReply("Enter item# to order or command (? for help): ");
@@ -104,10 +191,15 @@ public class RestaurantUI {
 			case "x":
 			case "X":
 				if ( cancelOrder(order) ) {
-					System.out.println("Order cancelled.");
+					out.println("Order cancelled.");
 					return null;
 				}
 				break;
+			case "c":
+			case "C":
+				String code = getReply("Coupon code: ");
+				if (! code.isEmpty()) order.addCoupon(code);
+				break;
 			case "s":
 			case "S":
 				// return the order.  The caller will submit it.
@@ -116,46 +208,61 @@ public class RestaurantUI {
 				quit();
 				return null;
 			default:
-				// anything else should be an item number
+				// anything else should be an item number or name
 				int itemNumber = 0;
 				try {
 					itemNumber = Integer.parseInt(choice);
-					if (itemNumber >= 0 && itemNumber < items.length) {
-						
-						if (order.addItem(itemNumber, 1)) {
-							System.out.printf("Added %s.  Total quantity: %d\n", items[itemNumber], order.getQuantityOfItem(itemNumber));
-						}
-						else {
-							System.out.printf("Failed to add item %d (%s)\n", itemNumber, items[itemNumber]);
-						}
-					}
-					else System.out.println("Invalid choice "+choice);
+					if (menu.contains(itemNumber)) addItem(order, itemNumber);
+					else out.println("Invalid choice "+choice);
 				} catch(NumberFormatException nfe) {
-					System.out.println("Invalid choice "+choice);
+					addItemByName(order, choice);
 				}
 			}
 		}
 	}
+	
+	/** Add one unit of an item to the order. */
+	private void addItem(Order order, int itemNumber) {
+		if (order.addItem(itemNumber, 1)) {
+			out.printf("Added %s.  Total quantity: %d\n", menu.getName(itemNumber), order.getQuantityOfItem(itemNumber));
+		}
+		else {
+			out.printf("Failed to add item %d (%s)\n", itemNumber, menu.getName(itemNumber));
+		}
+	}
+	
+	/** 
+	 * Add an item by name.  If the name or the start of a word matches
+	 * only one item, add it.  Otherwise show the items that match, or
+	 * items with a similar name, so the customer can choose.
+	 * A misspelled name is never added without asking.
+	 */
+	private void addItemByName(Order order, String name) {
+		MenuSearchIndex index = menu.getSearchIndex();
+		int[] matches = index.find(name, MAX_MATCHES);
+		// find only returns similar names if no name starts with the query
+		boolean similar = matches.length > 0 && index.prefix(name, 1).length == 0;
+		if (matches.length == 0) {
+			out.println("Invalid choice "+name);
+		}
+		else if (matches.length == 1 && ! similar) {
+			addItem(order, matches[0]);
+		}
+		else {
+			StringBuilder sb = new StringBuilder(similar ? "Did you mean one of these?" : "Which item did you mean?")
+					.append(System.lineSeparator());
+			for(int id: matches) ReceiptRenderer.appendMenuItem(sb, id, menu.getName(id), menu.getPrice(id));
+			out.print(sb);
+		}
+	}
 
 	/** Show contents of customer's order. */
 	private void displayOrder(Order order) {
-		boolean hasItems = false;
-		System.out.printf("Item# %-24.24s %4s   %5s%n","Description", "Qnty", "Price");
-		for(int k=0; k<items.length; k++) {
-			int qnty = order.getQuantityOfItem(k);
-			if (qnty != 0) {
-				double itemPrice = qnty*prices[k]; 
-				hasItems = true;
-				System.out.printf("%3d   %-24.24s  %3d  %,7.2f%n", k, items[k], qnty, itemPrice);
-			}
+		try {
+			renderer.writeOrder(order, out);
+		} catch (IOException ex) {
+			// PrintStream doesn't throw IOException
 		}
-		if (hasItems) {
-			double total = order.getTotal();
-			System.out.printf("      %-24.24s       %,7.2f%n", "Total Price", total);
-			System.out.println();
-		}
-		else
-			System.out.println("No items in order");
 	}
 	
 	/**
@@ -164,14 +271,24 @@ public class RestaurantUI {
 	 * @precondition the order is not null
 	 */
 	protected void acceptPayment(Order order) {
-		System.out.printf("Total amount %,.2f\n", order.getTotal());
+		out.printf("Total amount %s\n", Money.format(order.getTotal()));
 	}
 	
-	protected void submitOrder(Order order) {
-		rm.recordOrder( order );
-		System.out.println("Order Submitted.  Your order number is "+order.getOrderNumber());
-		System.out.println("Thank you for your order.\n");
-		
+	/**
+	 * Record an order and tell the customer its number.
+	 * @param order the paid order
+	 * @return true if the order was recorded
+	 */
+	protected boolean submitOrder(Order order) {
+		try {
+			rm.recordOrder( order );
+		} catch (IllegalStateException ex) {
+			out.println("Sorry, your order could not be recorded: "+ex.getMessage());
+			return false;
+		}
+		out.println("Order Submitted.  Your order number is "+order.getOrderNumber());
+		out.println("Thank you for your order.\n");
+		return true;
 	}
 	/**
 	 * Confirm action to cancel an order,
@@ -181,8 +298,7 @@ public class RestaurantUI {
 	 */
 	private boolean cancelOrder(Order order) {
 		if (order == null || order.isEmpty()) return true;
-		int itemCount = 0;
-		for(int id : order.getItems()) itemCount += order.getQuantityOfItem(id);
+		int itemCount = order.getItemCount();
 		String confirm = getReply(String.format("Order contains %d items.  Really cancel (y/n)? ", itemCount) );
 		if (confirm.equalsIgnoreCase("yes") || confirm.equalsIgnoreCase("y")) return true;
 		return false;
@@ -190,24 +306,34 @@ public class RestaurantUI {
 	
 	/** Initialize the menu data, using RestaurantManager. */
 	private void initMenu() {
-		items = rm.getMenuItems();
-		prices = rm.getPrices();
+		menu = rm.getMenu();
 	}
 	
 	private String getReply(String prompt) {
-		System.out.print(prompt);
-		return console.nextLine().trim();
+		out.print(prompt);
+		try {
+			return console.nextLine().trim();
+		} catch (NoSuchElementException|IllegalStateException ex) {
+			// end of input, e.g. terminal disconnected
+			return "Q";
+		}
 	}
 	
+	/** Show the receipt for a recorded order, and print it if there is a receipt spool. */
 	public void printReceipt(Order order) {
-		System.out.println(rm.getRestaurantName());
-		System.out.printf("Order No:   %d\n", order.getOrderNumber());
-		System.out.printf("Date/Time:  %tT\n", order.getTimeStamp());
-		System.out.println();
-		displayOrder(order);
+		CharSequence receipt;
+		try {
+			receipt = renderer.writeReceipt(rm.getRestaurantName(), order, out);
+		} catch (IOException ex) {
+			// PrintStream doesn't throw IOException
+			receipt = renderer.renderReceipt(rm.getRestaurantName(), order);
+		}
+		if (spool != null) spool.print(receipt);
 	}
 	
 	public void quit() {
+		running = false;
+		if (! exitOnQuit) return; // only end this session
 		if (rm != null) rm.shutdown();
 		System.exit(0);
 	}
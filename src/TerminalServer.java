@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import receipt.ReceiptSpool;
+import restaurant.RestaurantManager;
+import restaurant.SessionThreads;
+
+/**
+ * Accepts POS terminals that connect using a local socket, 
+ * e.g. "telnet localhost 7070" or "nc localhost 7070", and runs
+ * a RestaurantUI session for each one.
+ * 
+ * Every session runs in its own thread (a virtual thread on Java 21+)
+ * and all sessions share the same RestaurantManager.  The manager records
+ * orders from each terminal in turn, so a slow terminal doesn't stall 
+ * the others.
+ */
+public class TerminalServer {
+	private final RestaurantManager rm;
+	private final int port;
+	private final ExecutorService sessions = SessionThreads.newExecutor("terminal");
+	private final AtomicInteger terminalCount = new AtomicInteger();
+	private ServerSocket serverSocket;
+	/** Where receipts are printed, or null. */
+	private volatile ReceiptSpool spool;
+	
+	/**
+	 * Create a server (but don't start it).
+	 * @param rm the RestaurantManager shared by all terminals
+	 * @param port the port to accept connections on
+	 */
+	public TerminalServer(RestaurantManager rm, int port) {
+		this.rm = rm;
+		this.port = port;
+	}
+	
+	/**
+	 * Print receipts from all terminals using a spool.
+	 * @param spool the receipt spool, or null for no printing
+	 */
+	public void setReceiptSpool(ReceiptSpool spool) {
+		this.spool = spool;
+	}
+	
+	/**
+	 * Start accepting terminals, in a background thread.
+	 * Only connections from the local computer are accepted.
+	 * @throws IOException if the port cannot be opened
+	 */
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(this::acceptLoop, "TerminalServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		System.out.println("Accepting terminals on port "+serverSocket.getLocalPort());
+	}
+	
+	private void acceptLoop() {
+		while(! serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				String terminal = "tcp-" + terminalCount.incrementAndGet();
+				sessions.execute( () -> runSession(socket, terminal) );
+			} catch (IOException ex) {
+				if (! serverSocket.isClosed()) System.err.println("Error accepting terminal: "+ex.getMessage());
+			}
+		}
+	}
+	
+	private void runSession(Socket socket, String terminal) {
+		try (Socket s = socket) {
+			PrintStream out = new PrintStream(s.getOutputStream(), true, "UTF-8");
+			RestaurantUI ui = new RestaurantUI(rm, s.getInputStream(), out, StandardCharsets.UTF_8, terminal, false);
+			ui.setReceiptSpool(spool);
+			ui.consoleUI();
+		} catch (IOException ex) {
+			System.err.println("Terminal "+terminal+" error: "+ex.getMessage());
+		} catch (RuntimeException ex) {
+			System.err.println("Terminal "+terminal+" stopped: "+ex);
+		} finally {
+			// each session has a new name, so release what was kept for this one
+			rm.terminalClosed(terminal);
+		}
+	}
+	
+	/** Stop accepting terminals. Sessions already running are not stopped. */
+	public void stop() {
+		try {
+			if (serverSocket != null) serverSocket.close();
+		} catch (IOException ex) {
+			// ignore
+		}
+		sessions.shutdown();
+	}
+}
@@ -0,0 +1,184 @@
+package api;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON parser for request bodies.
+ * Objects are returned as Map, arrays as List, numbers as Long 
+ * (or Double if they have a fraction or exponent), and strings, 
+ * booleans and null as String, Boolean and null.
+ */
+public class JsonReader {
+	/** Max nesting of objects and arrays, so deep input can't overflow the stack. */
+	static final int MAX_DEPTH = 32;
+	
+	private final String text;
+	private int pos = 0;
+	/** Number of objects and arrays being read. */
+	private int depth = 0;
+	
+	private JsonReader(String text) {
+		this.text = text;
+	}
+	
+	/**
+	 * Parse JSON text.
+	 * @param text the JSON to parse
+	 * @return the value
+	 * @throws IllegalArgumentException if the text is not valid JSON
+	 */
+	public static Object parse(String text) {
+		JsonReader reader = new JsonReader(text);
+		Object value = reader.readValue();
+		reader.skipSpace();
+		if (reader.pos < text.length()) throw reader.error("Extra text after JSON value");
+		return value;
+	}
+	
+	private Object readValue() {
+		skipSpace();
+		if (pos >= text.length()) throw error("Unexpected end of JSON");
+		char c = text.charAt(pos);
+		switch(c) {
+		case '{': return readObject();
+		case '[': return readArray();
+		case '"': return readString();
+		case 't': return literal("true", Boolean.TRUE);
+		case 'f': return literal("false", Boolean.FALSE);
+		case 'n': return literal("null", null);
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) return readNumber();
+			throw error("Unexpected character '"+c+"'");
+		}
+	}
+	
+	private Map<String,Object> readObject() {
+		Map<String,Object> map = new LinkedHashMap<>();
+		enter();
+		pos++; // skip '{'
+		skipSpace();
+		if (peek() == '}') {
+			pos++;
+			depth--;
+			return map;
+		}
+		while(true) {
+			skipSpace();
+			if (peek() != '"') throw error("Expected name");
+			String name = readString();
+			skipSpace();
+			expect(':');
+			map.put(name, readValue());
+			skipSpace();
+			if (peek() == ',') pos++;
+			else {
+				expect('}');
+				depth--;
+				return map;
+			}
+		}
+	}
+	
+	private List<Object> readArray() {
+		List<Object> list = new ArrayList<>();
+		enter();
+		pos++; // skip '['
+		skipSpace();
+		if (peek() == ']') {
+			pos++;
+			depth--;
+			return list;
+		}
+		while(true) {
+			list.add(readValue());
+			skipSpace();
+			if (peek() == ',') pos++;
+			else {
+				expect(']');
+				depth--;
+				return list;
+			}
+		}
+	}
+	
+	private String readString() {
+		pos++; // skip '"'
+		StringBuilder sb = new StringBuilder();
+		while(pos < text.length()) {
+			char c = text.charAt(pos++);
+			if (c == '"') return sb.toString();
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= text.length()) break;
+			char e = text.charAt(pos++);
+			switch(e) {
+			case 'n': sb.append('\n'); break;
+			case 'r': sb.append('\r'); break;
+			case 't': sb.append('\t'); break;
+			case 'b': sb.append('\b'); break;
+			case 'f': sb.append('\f'); break;
+			case 'u':
+				if (pos + 4 > text.length()) throw error("Invalid \\u escape");
+				try {
+					sb.append((char) Integer.parseInt(text.substring(pos, pos+4), 16));
+				} catch (NumberFormatException nfe) {
+					throw error("Invalid \\u escape");
+				}
+				pos += 4;
+				break;
+			default: sb.append(e);
+			}
+		}
+		throw error("Unterminated string");
+	}
+	
+	private Object readNumber() {
+		int start = pos;
+		boolean decimal = false;
+		while(pos < text.length()) {
+			char c = text.charAt(pos);
+			if (c == '.' || c == 'e' || c == 'E') decimal = true;
+			else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) break;
+			pos++;
+		}
+		String number = text.substring(start, pos);
+		try {
+			if (decimal) return Double.valueOf(number);
+			return Long.valueOf(number);
+		} catch (NumberFormatException nfe) {
+			throw error("Invalid number "+number);
+		}
+	}
+	
+	private Object literal(String word, Object value) {
+		if (! text.startsWith(word, pos)) throw error("Unexpected value");
+		pos += word.length();
+		return value;
+	}
+	
+	/** Start reading an object or array. */
+	private void enter() {
+		if (++depth > MAX_DEPTH) throw error("JSON nested more than "+MAX_DEPTH+" levels");
+	}
+	
+	private void skipSpace() {
+		while(pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+	}
+	
+	private char peek() {
+		return (pos < text.length()) ? text.charAt(pos) : 0;
+	}
+	
+	private void expect(char c) {
+		if (peek() != c) throw error("Expected '"+c+"'");
+		pos++;
+	}
+	
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + pos);
+	}
+}
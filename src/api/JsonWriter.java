@@ -0,0 +1,141 @@
+package api;
+
+import order.Money;
+
+/**
+ * Write JSON text one token at a time, without reflection.
+ * Commas between values are added automatically.
+ * Example:
+ * <pre>
+ * JsonWriter json = new JsonWriter(sb);
+ * json.beginObject().name("id").value(1).name("name").value("Pad Thai").endObject();
+ * </pre>
+ * The writer appends to a StringBuilder, which can be reused
+ * for many documents by calling reset().
+ */
+public class JsonWriter {
+	/** Max nesting depth of objects and arrays. */
+	static final int MAX_DEPTH = 32;
+	
+	private final StringBuilder out;
+	/** For each nesting level, true if a value has been written at that level. */
+	private final boolean[] hasValue = new boolean[MAX_DEPTH];
+	private int depth = 0;
+	/** True if a name was just written, so the next value doesn't need a comma. */
+	private boolean afterName = false;
+	
+	/**
+	 * Create a writer that appends to a StringBuilder.
+	 * @param out where to write JSON text
+	 */
+	public JsonWriter(StringBuilder out) {
+		this.out = out;
+	}
+	
+	/** Clear the StringBuilder and start a new document. */
+	public JsonWriter reset() {
+		out.setLength(0);
+		depth = 0;
+		hasValue[0] = false;
+		afterName = false;
+		return this;
+	}
+	
+	/** Write a comma if needed before a value. */
+	private void beforeValue() {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (hasValue[depth]) out.append(',');
+		hasValue[depth] = true;
+	}
+	
+	public JsonWriter beginObject() {
+		beforeValue();
+		out.append('{');
+		hasValue[++depth] = false;
+		return this;
+	}
+	
+	public JsonWriter endObject() {
+		depth--;
+		out.append('}');
+		return this;
+	}
+	
+	public JsonWriter beginArray() {
+		beforeValue();
+		out.append('[');
+		hasValue[++depth] = false;
+		return this;
+	}
+	
+	public JsonWriter endArray() {
+		depth--;
+		out.append(']');
+		return this;
+	}
+	
+	/** Write the name of the next value in an object. */
+	public JsonWriter name(String name) {
+		beforeValue();
+		string(name);
+		out.append(':');
+		afterName = true;
+		return this;
+	}
+	
+	public JsonWriter value(String value) {
+		beforeValue();
+		if (value == null) out.append("null");
+		else string(value);
+		return this;
+	}
+	
+	public JsonWriter value(long value) {
+		beforeValue();
+		out.append(value);
+		return this;
+	}
+	
+	public JsonWriter value(boolean value) {
+		beforeValue();
+		out.append(value);
+		return this;
+	}
+	
+	/**
+	 * Write an amount of money as a number with Money.DECIMALS decimal places, e.g. 30.50.
+	 * @param amount the amount in minor units
+	 */
+	public JsonWriter money(long amount) {
+		beforeValue();
+		Money.appendPlain(out, amount);
+		return this;
+	}
+	
+	/** Write a quoted string with JSON escapes. */
+	private void string(String s) {
+		out.append('"');
+		for(int k=0; k<s.length(); k++) {
+			char c = s.charAt(k);
+			switch(c) {
+			case '"': out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+				else out.append(c);
+			}
+		}
+		out.append('"');
+	}
+	
+	@Override
+	public String toString() {
+		return out.toString();
+	}
+}
@@ -0,0 +1,466 @@
+package api;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import kitchen.KitchenRouter;
+import kitchen.KitchenStation;
+import kitchen.KitchenTicket;
+
+import menu.MenuSnapshot;
+import order.Order;
+import order.OrderItem;
+import restaurant.RestaurantManager;
+import restaurant.SessionThreads;
+import sales.ItemSales;
+import sales.SalesAggregator;
+
+/**
+ * HTTP/JSON API for tablets and kiosks, in front of a RestaurantManager.
+ * <pre>
+ * GET  /menu         the current menu
+ * POST /orders       record an order, e.g. {"items":[{"id":3,"quantity":2}], "coupons":["SAVE10"]}
+ * GET  /orders/{n}   a recorded order
+ * </pre>
+ * If a KitchenRouter is set, kitchen stations can use:
+ * <pre>
+ * GET  /kitchen                      all stations
+ * POST /kitchen/{station}/next       take the next ticket and start preparing it
+ * POST /kitchen/{station}/{n}/ready  the ticket for order n is ready
+ * </pre>
+ * If a SalesAggregator is set, a dashboard can use:
+ * <pre>
+ * GET  /sales?window=15m&amp;top=10  sales in the last 15m, 1h or day, with best sellers
+ * </pre>
+ * Items in an order can be given by "id" or by "name".  A name must
+ * match one menu item exactly, ignoring case.
+ * Orders are recorded for the terminal named in a Terminal header,
+ * or else for the client's address, e.g. "http-10.0.0.12".
+ * A client that may send an order again, e.g. after a timeout, should
+ * send an Idempotency-Key header with a new key (e.g. a UUID) for each
+ * order.  If an order with the same key was recorded recently, the response
+ * has the earlier order's number and the order isn't recorded again.
+ * Prices are written as numbers with 2 decimal places.
+ * 
+ * Each request is handled in its own thread (a virtual thread on Java 21+).
+ * The menu JSON is created once for each version of the menu.
+ */
+public class OrderApiServer {
+	/** Largest request body accepted, in bytes. */
+	static final int MAX_BODY = 64*1024;
+	/** Longest Idempotency-Key header accepted. */
+	static final int MAX_KEY = 255;
+	/** Longest Terminal header accepted. */
+	static final int MAX_TERMINAL = 64;
+	static final String JSON = "application/json; charset=utf-8";
+	
+	private final RestaurantManager rm;
+	private final int port;
+	private HttpServer server;
+	private ExecutorService executor;
+	/** Kitchen stations, or null if orders aren't sent to the kitchen. */
+	private KitchenRouter kitchen;
+	/** Live sales figures, or null. */
+	private SalesAggregator sales;
+	/** JSON of the menu, and the menu it was made from. */
+	private volatile MenuJson menuJson;
+	/** Each handler thread reuses its own StringBuilder for writing JSON. */
+	private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial( () -> new StringBuilder(1024) );
+	
+	private static class MenuJson {
+		final MenuSnapshot menu;
+		final byte[] json;
+		MenuJson(MenuSnapshot menu, byte[] json) {
+			this.menu = menu;
+			this.json = json;
+		}
+	}
+	
+	/**
+	 * Create a server (but don't start it).
+	 * @param rm the RestaurantManager to take orders
+	 * @param port the port to listen on. 0 means any free port.
+	 */
+	public OrderApiServer(RestaurantManager rm, int port) {
+		this.rm = rm;
+		this.port = port;
+	}
+	
+	/**
+	 * Let kitchen stations get tickets using this API.  Call before start().
+	 * @param kitchen the router that sends orders to the kitchen
+	 */
+	public void setKitchen(KitchenRouter kitchen) {
+		this.kitchen = kitchen;
+	}
+	
+	/**
+	 * Let dashboards get sales figures using this API.  Call before start().
+	 * @param sales the sales figures
+	 */
+	public void setSales(SalesAggregator sales) {
+		this.sales = sales;
+	}
+	
+	/**
+	 * Start accepting requests.
+	 * @throws IOException if the port cannot be opened
+	 */
+	public void start() throws IOException {
+		// send small responses at once, instead of waiting for the client's delayed ACK
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		server = HttpServer.create(new InetSocketAddress(port), 200);
+		executor = SessionThreads.newExecutor("http");
+		server.setExecutor(executor);
+		server.createContext("/menu", handler(this::handleMenu));
+		server.createContext("/orders", handler(this::handleOrders));
+		if (kitchen != null) server.createContext("/kitchen", handler(this::handleKitchen));
+		if (sales != null) server.createContext("/sales", handler(this::handleSales));
+		server.start();
+		System.out.println("Order API listening on port "+getPort());
+	}
+	
+	/** 
+	 * Wrap a handler so the exchange is always closed, and an unexpected
+	 * exception gets a 500 response before the exchange is closed.
+	 */
+	private HttpHandler handler(HttpHandler handler) {
+		return exchange -> {
+			try (HttpExchange ex = exchange) {
+				try {
+					handler.handle(ex);
+				} catch (RuntimeException e) {
+					System.err.println("Error handling "+ex.getRequestURI()+": "+e);
+					// can only send an error if the response hasn't started
+					if (ex.getResponseCode() < 0) sendError(ex, 500, "Internal error");
+				}
+			}
+		};
+	}
+	
+	/** @return the port the server is listening on */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/** Stop the server, waiting at most 1 second for requests in progress. */
+	public void stop() {
+		if (server != null) server.stop(1);
+		if (executor != null) executor.shutdown();
+	}
+	
+	private void handleMenu(HttpExchange ex) throws IOException {
+		if (! ex.getRequestMethod().equals("GET")) {
+			sendError(ex, 405, "Use GET");
+			return;
+		}
+		if (! ex.getRequestURI().getPath().equals("/menu")) {
+			sendError(ex, 404, "Not found");
+			return;
+		}
+		send(ex, 200, getMenuJson());
+	}
+	
+	/** Get the JSON for the current menu, creating it if the menu has changed. */
+	private byte[] getMenuJson() {
+		MenuSnapshot menu = rm.getMenu();
+		MenuJson cached = menuJson;
+		if (cached != null && cached.menu == menu) return cached.json;
+		JsonWriter json = new JsonWriter(new StringBuilder(64*menu.size()+32));
+		json.beginObject().name("version").value(menu.getVersion());
+		json.name("items").beginArray();
+		// item 0 is "No item"
+		for(int id=1; id<menu.size(); id++) {
+			json.beginObject().name("id").value(id)
+			    .name("name").value(menu.getName(id))
+			    .name("price").money(menu.getPrice(id))
+			    .endObject();
+		}
+		json.endArray().endObject();
+		cached = new MenuJson(menu, json.toString().getBytes(StandardCharsets.UTF_8));
+		menuJson = cached;
+		return cached.json;
+	}
+	
+	private void handleOrders(HttpExchange ex) throws IOException {
+		String path = ex.getRequestURI().getPath();
+		String method = ex.getRequestMethod();
+		if (path.equals("/orders") || path.equals("/orders/")) {
+			if (method.equals("POST")) postOrder(ex);
+			else sendError(ex, 405, "Use POST");
+		}
+		else if (method.equals("GET")) {
+			getOrder(ex, path.substring("/orders/".length()));
+		}
+		else sendError(ex, 405, "Use GET");
+	}
+	
+	private void getOrder(HttpExchange ex, String number) throws IOException {
+		long orderNumber;
+		try {
+			orderNumber = Long.parseLong(number);
+		} catch (NumberFormatException nfe) {
+			sendError(ex, 404, "Not found");
+			return;
+		}
+		Order order = rm.findOrder(orderNumber);
+		if (order == null) sendError(ex, 404, "No order "+orderNumber);
+		else send(ex, 200, writeOrder(order));
+	}
+	
+	private void postOrder(HttpExchange ex) throws IOException {
+		Order order;
+		try {
+			order = parseOrder(readBody(ex));
+		} catch (IllegalArgumentException iae) {
+			sendError(ex, 400, iae.getMessage());
+			return;
+		}
+		String key = ex.getRequestHeaders().getFirst("Idempotency-Key");
+		if (key != null) {
+			if (key.isEmpty() || key.length() > MAX_KEY) {
+				sendError(ex, 400, "Idempotency-Key must be 1 to "+MAX_KEY+" characters");
+				return;
+			}
+			order.setIdempotencyKey(key);
+		}
+		String terminal = ex.getRequestHeaders().getFirst("Terminal");
+		if (terminal != null) {
+			if (terminal.isEmpty() || terminal.length() > MAX_TERMINAL) {
+				sendError(ex, 400, "Terminal must be 1 to "+MAX_TERMINAL+" characters");
+				return;
+			}
+		}
+		else terminal = "http-" + ex.getRemoteAddress().getAddress().getHostAddress();
+		order.setTerminal(terminal);
+		try {
+			rm.recordOrder(order);
+		} catch (IllegalStateException ise) {
+			// e.g. shutting down, or the database didn't save the order
+			sendError(ex, 503, ise.getMessage());
+			return;
+		} finally {
+			// HTTP has no sessions, so release the terminal's queue after each order
+			rm.terminalClosed(terminal);
+		}
+		ex.getResponseHeaders().set("Location", "/orders/"+order.getOrderNumber());
+		send(ex, 201, writeOrder(order));
+	}
+	
+	private void handleKitchen(HttpExchange ex) throws IOException {
+		String[] path = ex.getRequestURI().getPath().substring(1).split("/");
+		String method = ex.getRequestMethod();
+		if (path.length == 1) {
+			if (method.equals("GET")) send(ex, 200, writeStations());
+			else sendError(ex, 405, "Use GET");
+			return;
+		}
+		KitchenStation station = kitchen.findStation(path[1]);
+		if (station == null) {
+			sendError(ex, 404, "No station "+path[1]);
+			return;
+		}
+		if (! method.equals("POST")) {
+			sendError(ex, 405, "Use POST");
+			return;
+		}
+		KitchenTicket ticket = null;
+		if (path.length == 3 && path[2].equals("next")) {
+			ticket = station.next();
+			if (ticket == null) {
+				ex.sendResponseHeaders(204, -1);
+				return;
+			}
+		}
+		else if (path.length == 4 && path[3].equals("ready")) {
+			try {
+				ticket = station.ready(Long.parseLong(path[2]));
+			} catch (NumberFormatException nfe) {
+				// handled below
+			}
+			if (ticket == null) {
+				sendError(ex, 404, "Order "+path[2]+" is not being prepared at "+station.getName());
+				return;
+			}
+		}
+		else {
+			sendError(ex, 404, "Not found");
+			return;
+		}
+		send(ex, 200, writeTicket(ticket));
+	}
+	
+	private void handleSales(HttpExchange ex) throws IOException {
+		if (! ex.getRequestMethod().equals("GET")) {
+			sendError(ex, 405, "Use GET");
+			return;
+		}
+		SalesAggregator.Window window = SalesAggregator.Window.LAST_DAY;
+		int top = 10;
+		String query = ex.getRequestURI().getQuery();
+		if (query != null) for(String param: query.split("&")) {
+			if (param.equals("window=15m")) window = SalesAggregator.Window.LAST_15_MINUTES;
+			else if (param.equals("window=1h")) window = SalesAggregator.Window.LAST_HOUR;
+			else if (param.startsWith("top=")) {
+				try {
+					top = Integer.parseInt(param.substring(4));
+				} catch (NumberFormatException nfe) {
+					// use the default
+				}
+			}
+		}
+		JsonWriter json = new JsonWriter(buffers.get()).reset();
+		json.beginObject()
+		    .name("window").value(window.getMinutes())
+		    .name("orders").value(sales.getOrderCount(window))
+		    .name("revenue").money(sales.getRevenue(window))
+		    .name("topSellers").beginArray();
+		for(ItemSales item: sales.topSellers(window, Math.min(top, 100))) {
+			json.beginObject().name("name").value(item.getName())
+			    .name("quantity").value(item.getQuantity())
+			    .name("revenue").money(item.getRevenue())
+			    .endObject();
+		}
+		json.endArray().endObject();
+		send(ex, 200, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private byte[] writeStations() {
+		JsonWriter json = new JsonWriter(buffers.get()).reset();
+		json.beginObject().name("stations").beginArray();
+		for(KitchenStation station: kitchen.getStations()) {
+			json.beginObject().name("name").value(station.getName())
+			    .name("waiting").value(station.getBacklog())
+			    .name("preparing").value(station.getPreparing().size())
+			    .endObject();
+		}
+		json.endArray().endObject();
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private byte[] writeTicket(KitchenTicket ticket) {
+		JsonWriter json = new JsonWriter(buffers.get()).reset();
+		json.beginObject()
+		    .name("orderNumber").value(ticket.getOrderNumber())
+		    .name("station").value(ticket.getStation())
+		    .name("state").value(ticket.getStateName())
+		    .name("ageMillis").value(ticket.getAgeMillis())
+		    .name("items").beginArray();
+		for(OrderItem item: ticket.getItems()) {
+			json.beginObject().name("name").value(item.getName())
+			    .name("quantity").value(item.getQuantity())
+			    .endObject();
+		}
+		json.endArray().endObject();
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Create an order from a JSON request body.
+	 * @throws IllegalArgumentException if the body is not a valid order
+	 */
+	private Order parseOrder(String body) {
+		Object value = JsonReader.parse(body);
+		if (!(value instanceof Map)) throw new IllegalArgumentException("Order must be a JSON object");
+		Object items = ((Map<?,?>) value).get("items");
+		if (!(items instanceof List) || ((List<?>) items).isEmpty()) throw new IllegalArgumentException("Order has no items");
+		MenuSnapshot menu = rm.getMenu();
+		Order order = new Order(menu);
+		for(Object item: (List<?>) items) {
+			if (!(item instanceof Map)) throw new IllegalArgumentException("Item must be a JSON object");
+			Map<?,?> map = (Map<?,?>) item;
+			int id = itemId(map, menu);
+			Object qty = map.containsKey("quantity") ? map.get("quantity") : Long.valueOf(1);
+			if (!(qty instanceof Long) || (Long) qty <= 0 || (Long) qty > 1000) 
+				throw new IllegalArgumentException("Invalid quantity "+qty);
+			order.addItem(id, ((Long) qty).intValue());
+		}
+		Object coupons = ((Map<?,?>) value).get("coupons");
+		if (coupons instanceof List) {
+			for(Object code: (List<?>) coupons) {
+				if (!(code instanceof String)) throw new IllegalArgumentException("Coupon must be a string");
+				order.addCoupon((String) code);
+			}
+		}
+		else if (coupons != null) throw new IllegalArgumentException("Coupons must be a list");
+		return order;
+	}
+	
+	/** Get the menu id of an item in a request, using its "id" or "name". */
+	private static int itemId(Map<?,?> item, MenuSnapshot menu) {
+		Object id = item.get("id");
+		if (id instanceof Long) {
+			long n = (Long) id;
+			if (n <= 0 || n >= menu.size()) throw new IllegalArgumentException("No menu item "+n);
+			return (int) n;
+		}
+		Object name = item.get("name");
+		if (name instanceof String) {
+			int n = menu.findItem((String) name);
+			if (n == MenuSnapshot.AMBIGUOUS) throw new IllegalArgumentException("More than one menu item named "+name+", use the id");
+			if (n == 0) throw new IllegalArgumentException("No menu item named "+name);
+			return n;
+		}
+		throw new IllegalArgumentException("Item needs an id or name");
+	}
+	
+	/** Write an order as JSON. */
+	private byte[] writeOrder(Order order) {
+		JsonWriter json = new JsonWriter(buffers.get()).reset();
+		json.beginObject()
+		    .name("orderNumber").value(order.getOrderNumber())
+		    .name("timestamp").value(String.valueOf(order.getTimeStamp()))
+		    .name("items").beginArray();
+		for(OrderItem item: order.getOrderItems()) {
+			json.beginObject().name("id").value(item.getId())
+			    .name("name").value(item.getName())
+			    .name("quantity").value(item.getQuantity())
+			    .name("price").money(item.getPrice())
+			    .endObject();
+		}
+		json.endArray();
+		long discount = order.getDiscount();
+		if (discount != 0) json.name("subtotal").money(order.getSubtotal()).name("discount").money(discount);
+		json.name("total").money(order.getTotal())
+		    .endObject();
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private static String readBody(HttpExchange ex) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+		InputStream in = ex.getRequestBody();
+		byte[] buff = new byte[4096];
+		int count;
+		while((count = in.read(buff)) > 0) {
+			body.write(buff, 0, count);
+			if (body.size() > MAX_BODY) throw new IllegalArgumentException("Request is too large");
+		}
+		return body.toString(StandardCharsets.UTF_8);
+	}
+	
+	private void sendError(HttpExchange ex, int status, String message) throws IOException {
+		JsonWriter json = new JsonWriter(buffers.get()).reset();
+		json.beginObject().name("error").value(message).endObject();
+		send(ex, status, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static void send(HttpExchange ex, int status, byte[] body) throws IOException {
+		ex.getResponseHeaders().set("Content-Type", JSON);
+		ex.sendResponseHeaders(status, body.length);
+		try (OutputStream out = ex.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
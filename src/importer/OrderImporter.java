@@ -0,0 +1,272 @@
+package importer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import api.JsonReader;
+import menu.MenuSnapshot;
+import order.Order;
+import restaurant.RestaurantManager;
+
+/**
+ * Imports orders from a file, e.g. orders that were written on paper or
+ * saved by a terminal while it was offline.  Each line of the file is one
+ * order, either CSV or JSON (a line that starts with '{' is JSON):
+ * <pre>
+ * 2024-05-01T12:30:05,pos-2,1,2,Cheese Pizza,1
+ * {"timestamp":"2024-05-01T12:31:40","terminal":"pos-2","items":[{"id":3,"quantity":2},{"name":"Ice Tea"}]}
+ * </pre>
+ * CSV fields are the timestamp, the terminal, then pairs of item and quantity.
+ * An item is a menu item number or the exact name of a menu item (ignoring case).
+ * Empty lines, lines starting with '#', and a header line are skipped.
+ * Orders keep the timestamp from the file, and get new order numbers.
+ *
+ * The file is read in chunks of lines.  The lines in a chunk are parsed,
+ * checked against the menu and priced in parallel using fork/join, while
+ * the previous chunks are being recorded.  Each chunk is recorded using
+ * RestaurantManager.recordOrders, in the same order as the file.
+ * A line that is not a valid order is reported and skipped.
+ */
+public class OrderImporter {
+	/** Number of lines in a chunk. */
+	static final int CHUNK_SIZE = 4096;
+	/** Lines per fork/join task, below which a chunk isn't split. */
+	static final int TASK_SIZE = 256;
+	/** Max number of errors to print. The rest are only counted. */
+	static final int MAX_ERRORS_SHOWN = 20;
+	/** Terminal name of imported orders that don't have one. */
+	static final String DEFAULT_TERMINAL = "import";
+
+	private final RestaurantManager rm;
+	private final MenuSnapshot menu;
+	/** Menu item ids by lowercase name. */
+	private final Map<String,Integer> ids;
+	private final ForkJoinPool pool;
+	/** Max number of chunks being parsed or waiting to be recorded. */
+	private final int maxChunks;
+
+	private long imported;
+	private long rejected;
+
+	/** A chunk of lines, and the orders parsed from them. */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final long firstLine;
+		final String[] lines;
+		final Order[] orders;
+		final String[] errors;
+		final int from;
+		final int to;
+
+		Chunk(long firstLine, String[] lines) {
+			this(firstLine, lines, new Order[lines.length], new String[lines.length], 0, lines.length);
+		}
+
+		private Chunk(long firstLine, String[] lines, Order[] orders, String[] errors, int from, int to) {
+			this.firstLine = firstLine;
+			this.lines = lines;
+			this.orders = orders;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Chunk(firstLine, lines, orders, errors, from, mid),
+						new Chunk(firstLine, lines, orders, errors, mid, to));
+				return;
+			}
+			for(int k=from; k<to; k++) {
+				try {
+					orders[k] = parseLine(lines[k]);
+				} catch (IllegalArgumentException|DateTimeParseException ex) {
+					errors[k] = ex.getMessage();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create an importer that uses the current menu of a RestaurantManager.
+	 * @param rm the manager that records the orders
+	 */
+	public OrderImporter(RestaurantManager rm) {
+		this(rm, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create an importer.
+	 * @param rm the manager that records the orders
+	 * @param pool the pool used to parse and price orders
+	 */
+	public OrderImporter(RestaurantManager rm, ForkJoinPool pool) {
+		this.rm = rm;
+		this.menu = rm.getMenu();
+		this.pool = pool;
+		this.maxChunks = pool.getParallelism() + 1;
+		ids = new HashMap<>(2*menu.size());
+		for(int k=1; k<menu.size(); k++) ids.putIfAbsent(menu.getName(k).toLowerCase(), k);
+	}
+
+	/**
+	 * Import all the orders in a file.
+	 * @param file the file of orders, in UTF-8
+	 * @return number of orders recorded
+	 * @throws IOException if the file cannot be read
+	 */
+	public long importFile(Path file) throws IOException {
+		long start = System.nanoTime();
+		Deque<ForkJoinTask<Void>> pending = new ArrayDeque<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String[] lines = new String[CHUNK_SIZE];
+			int count = 0;
+			long lineNumber = 0;
+			String line;
+			while((line = reader.readLine()) != null) {
+				lines[count++] = line;
+				lineNumber++;
+				if (count == CHUNK_SIZE) {
+					pending.add(pool.submit(new Chunk(lineNumber-count+1, lines)));
+					lines = new String[CHUNK_SIZE];
+					count = 0;
+					// record the oldest chunk while later chunks are parsed
+					if (pending.size() >= maxChunks) record(pending.remove());
+				}
+			}
+			if (count > 0) pending.add(pool.submit(new Chunk(lineNumber-count+1, Arrays.copyOf(lines, count))));
+			while(! pending.isEmpty()) record(pending.remove());
+		} finally {
+			// don't leave tasks running if reading the file failed
+			for(ForkJoinTask<Void> task: pending) task.cancel(false);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		System.out.printf("Imported %d orders from %s in %.1f sec (%d orders/sec), %d lines rejected%n",
+				imported, file, millis/1000.0, (millis > 0) ? imported*1000/millis : imported, rejected);
+		return imported;
+	}
+
+	/** @return number of orders recorded so far */
+	public long getImported() {
+		return imported;
+	}
+
+	/** @return number of lines that were not valid orders */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/** Wait for a chunk to be parsed, report its errors, and record its orders. */
+	private void record(ForkJoinTask<Void> task) {
+		Chunk chunk = (Chunk) task;
+		chunk.join();
+		List<Order> orders = new ArrayList<>(chunk.lines.length);
+		for(int k=0; k<chunk.lines.length; k++) {
+			if (chunk.errors[k] != null) {
+				rejected++;
+				if (rejected <= MAX_ERRORS_SHOWN) System.err.println("Line "+(chunk.firstLine+k)+": "+chunk.errors[k]);
+			}
+			else if (chunk.orders[k] != null) orders.add(chunk.orders[k]);
+		}
+		if (orders.isEmpty()) return;
+		rm.recordOrders(orders);
+		imported += orders.size();
+	}
+
+	/**
+	 * Parse one line of the file.
+	 * @return the order, or null if the line is not an order (empty, comment or header)
+	 * @throws IllegalArgumentException if the line is not a valid order
+	 */
+	Order parseLine(String line) {
+		line = line.trim();
+		if (line.isEmpty() || line.startsWith("#")) return null;
+		if (line.startsWith("{")) return parseJson(line);
+		String[] fields = line.split(",", -1);
+		if (fields[0].trim().equalsIgnoreCase("timestamp")) return null; // header
+		if (fields.length < 4 || fields.length % 2 != 0)
+			throw new IllegalArgumentException("Expected timestamp,terminal,item,quantity[,item,quantity...]");
+		Order order = newOrder(fields[0].trim(), fields[1].trim());
+		for(int k=2; k<fields.length; k+=2) {
+			int quantity;
+			try {
+				quantity = Integer.parseInt(fields[k+1].trim());
+			} catch (NumberFormatException nfe) {
+				throw new IllegalArgumentException("Invalid quantity "+fields[k+1]);
+			}
+			addItem(order, itemId(fields[k].trim()), quantity);
+		}
+		return order;
+	}
+
+	/** Parse an order in the same JSON format as the order API, with a timestamp and terminal. */
+	private Order parseJson(String line) {
+		Object value = JsonReader.parse(line);
+		if (!(value instanceof Map)) throw new IllegalArgumentException("Order must be a JSON object");
+		Map<?,?> map = (Map<?,?>) value;
+		Object items = map.get("items");
+		if (!(items instanceof List) || ((List<?>) items).isEmpty()) throw new IllegalArgumentException("Order has no items");
+		Object time = map.get("timestamp");
+		Object terminal = map.get("terminal");
+		Order order = newOrder((time != null) ? time.toString() : "", (terminal != null) ? terminal.toString() : "");
+		for(Object item: (List<?>) items) {
+			if (!(item instanceof Map)) throw new IllegalArgumentException("Item must be a JSON object");
+			Map<?,?> fields = (Map<?,?>) item;
+			int id;
+			if (fields.get("id") instanceof Long) id = itemId(fields.get("id").toString());
+			else if (fields.get("name") instanceof String) id = itemId((String) fields.get("name"));
+			else throw new IllegalArgumentException("Item needs an id or name");
+			Object qty = fields.containsKey("quantity") ? fields.get("quantity") : Long.valueOf(1);
+			// check the range before narrowing, so a huge quantity can't wrap to a valid one
+			if (!(qty instanceof Long) || (Long) qty != ((Long) qty).intValue()) throw new IllegalArgumentException("Invalid quantity "+qty);
+			addItem(order, id, ((Long) qty).intValue());
+		}
+		return order;
+	}
+
+	private Order newOrder(String time, String terminal) {
+		Order order = new Order(menu);
+		order.setTerminal(terminal.isEmpty() ? DEFAULT_TERMINAL : terminal);
+		// an order without a timestamp is recorded with the current time
+		if (! time.isEmpty()) order.setTimeStamp(LocalDateTime.parse(time.replace(' ', 'T')));
+		return order;
+	}
+
+	/** Add an item at the menu price. */
+	private static void addItem(Order order, int id, int quantity) {
+		if (quantity <= 0 || quantity > 1000) throw new IllegalArgumentException("Invalid quantity "+quantity);
+		order.addItem(id, quantity);
+	}
+
+	/** Get the menu id of an item number or name. */
+	private int itemId(String item) {
+		if (! item.isEmpty() && Character.isDigit(item.charAt(0))) {
+			try {
+				int id = Integer.parseInt(item);
+				if (menu.contains(id) && id > 0) return id;
+			} catch (NumberFormatException nfe) {
+				// may be a name that starts with a digit
+			}
+		}
+		Integer id = ids.get(item.toLowerCase());
+		if (id == null) throw new IllegalArgumentException("No menu item "+item);
+		return id;
+	}
+}
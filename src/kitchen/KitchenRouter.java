@@ -0,0 +1,179 @@
+package kitchen;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import menu.MenuSnapshot;
+import order.Order;
+import order.OrderItem;
+import restaurant.OrderListener;
+import restaurant.RestaurantConfig;
+
+/**
+ * Sends recorded orders to the kitchen.  Each order is split into one
+ * KitchenTicket per station, using the station of each item in the
+ * order's menu, and each ticket is published to its station.
+ * Items without a station go to the default station.
+ * 
+ * The router is an OrderListener, so it is called by one thread
+ * and is the single producer for every station's ring buffer.
+ * Publishing never blocks, so a backed-up station doesn't delay 
+ * tickets for the other stations or the recording of orders.
+ * 
+ * Settings in restaurant.properties:
+ * kitchen.stations (stations to create at start, e.g. "drinks,grill,cold"),
+ * kitchen.defaultStation (default "kitchen"), and 
+ * kitchen.ringSize (tickets in each ring buffer, default 1024).
+ */
+public class KitchenRouter implements OrderListener {
+	static final int DEFAULT_RING_SIZE = 1024;
+	static final String DEFAULT_STATION = "kitchen";
+	
+	private final Map<String,KitchenStation> stations = new ConcurrentHashMap<>();
+	private final String defaultStation;
+	private final int ringSize;
+	/** Time to split and publish the last order, and the longest time, in nanoseconds. */
+	private volatile long lastFanoutNanos;
+	private volatile long maxFanoutNanos;
+	
+	/** Create a router using the kitchen settings. */
+	public KitchenRouter() {
+		this(RestaurantConfig.get("kitchen.defaultStation", DEFAULT_STATION),
+				RestaurantConfig.getInt("kitchen.ringSize", DEFAULT_RING_SIZE));
+		String names = RestaurantConfig.get("kitchen.stations", "");
+		for(String name: names.split(",")) {
+			if (! name.trim().isEmpty()) getStation(name.trim().toLowerCase());
+		}
+	}
+	
+	/**
+	 * Create a router.
+	 * @param defaultStation station for items that don't have one
+	 * @param ringSize number of tickets in each station's ring buffer
+	 */
+	public KitchenRouter(String defaultStation, int ringSize) {
+		this.defaultStation = defaultStation;
+		this.ringSize = ringSize;
+	}
+	
+	/**
+	 * Split an order into tickets and send them to the stations.
+	 * @see OrderListener#orderRecorded(Order)
+	 */
+	@Override
+	public void orderRecorded(Order order) {
+		long start = System.nanoTime();
+		MenuSnapshot menu = order.getMenu();
+		List<OrderItem> items = order.getOrderItems();
+		// an order has only a few stations, so a linear search is fastest
+		String[] names = new String[items.size()];
+		List<List<OrderItem>> lists = new ArrayList<>(items.size());
+		int count = 0;
+		for(OrderItem item: items) {
+			int id = (int) item.getId();
+			String station = menu.contains(id) ? menu.getStation(id) : null;
+			if (station == null) station = defaultStation;
+			int k = 0;
+			while(k < count && ! names[k].equals(station)) k++;
+			if (k == count) {
+				names[count++] = station;
+				lists.add(new ArrayList<>(items.size()));
+			}
+			lists.get(k).add(item);
+		}
+		for(int k=0; k<count; k++) {
+			getStation(names[k]).publish( new KitchenTicket(order.getOrderNumber(), names[k], lists.get(k)) );
+		}
+		long elapsed = System.nanoTime() - start;
+		lastFanoutNanos = elapsed;
+		if (elapsed > maxFanoutNanos) maxFanoutNanos = elapsed;
+	}
+	
+	/**
+	 * Get a station, creating it if it doesn't exist.
+	 * @param name name of the station
+	 * @return the station
+	 */
+	public KitchenStation getStation(String name) {
+		KitchenStation station = stations.get(name);
+		if (station != null) return station;
+		return stations.computeIfAbsent(name, n -> new KitchenStation(n, ringSize));
+	}
+	
+	/**
+	 * Find a station.
+	 * @param name name of the station
+	 * @return the station, or null if there is no station with that name
+	 */
+	public KitchenStation findStation(String name) {
+		return stations.get(name);
+	}
+	
+	/** Get all the stations. */
+	public Collection<KitchenStation> getStations() {
+		return stations.values();
+	}
+	
+	/** Get the time to split and send the most recent order, in microseconds. */
+	public long getLastFanoutMicros() {
+		return lastFanoutNanos / 1000;
+	}
+	
+	/** Get the longest time to split and send an order, in microseconds. */
+	public long getMaxFanoutMicros() {
+		return maxFanoutNanos / 1000;
+	}
+	
+	/** 
+	 * For testing. Send many orders while the "grill" station is stalled
+	 * and a cook takes tickets from the other stations, and show that the 
+	 * time to send an order stays the same as the grill backs up.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int orders = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+		MenuSnapshot menu = new MenuSnapshot(1L, 
+				new String[] { "No item", "Pad Thai", "Fresh salad", "Ice Tea" },
+				new long[] { 0, 3000, 3000, 2000 },
+				new String[] { null, "grill", "cold", "drinks" });
+		KitchenRouter router = new KitchenRouter(DEFAULT_STATION, DEFAULT_RING_SIZE);
+		Thread cook = new Thread( () -> {
+			KitchenStation cold = router.getStation("cold");
+			KitchenStation drinks = router.getStation("drinks");
+			while(! Thread.currentThread().isInterrupted()) {
+				KitchenTicket t = cold.next();
+				if (t != null) cold.ready(t.getOrderNumber());
+				t = drinks.next();
+				if (t != null) drinks.ready(t.getOrderNumber());
+				if (t == null) Thread.onSpinWait();
+			}
+		}, "cook");
+		cook.setDaemon(true);
+		cook.start();
+		long[] nanos = new long[orders];
+		for(int k=0; k<orders; k++) {
+			Order order = new Order(menu);
+			order.addItem(1, 1);
+			order.addItem(2, 1);
+			order.addItem(3, 2);
+			order.setOrderNumber(k+1);
+			long start = System.nanoTime();
+			router.orderRecorded(order);
+			nanos[k] = System.nanoTime() - start;
+		}
+		cook.interrupt();
+		// compare the first and last quarter, after the grill ring is full
+		int quarter = orders / 4;
+		long[] first = Arrays.copyOfRange(nanos, quarter, 2*quarter);
+		long[] last = Arrays.copyOfRange(nanos, 3*quarter, orders);
+		Arrays.sort(first);
+		Arrays.sort(last);
+		System.out.printf("%d orders, grill backlog %d (%d overflowed)\n", orders, 
+				router.getStation("grill").getBacklog(), router.getStation("grill").getOverflowCount());
+		System.out.printf("fan-out usec  p50 %.2f / %.2f   p99 %.2f / %.2f  (2nd quarter / last quarter)\n",
+				first[first.length/2]/1e3, last[last.length/2]/1e3, 
+				first[(int)(first.length*0.99)]/1e3, last[(int)(last.length*0.99)]/1e3);
+	}
+}
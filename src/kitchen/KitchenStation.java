@@ -0,0 +1,108 @@
+package kitchen;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A kitchen station, such as "drinks" or "grill", and its queue of tickets.
+ * 
+ * Tickets are published by one thread (the KitchenRouter) and taken 
+ * by any number of cooks or display screens.  New tickets go into a 
+ * preallocated TicketRing.  If the station is so backed up that its
+ * ring is full, tickets go into an unbounded overflow queue instead,
+ * so publishing never waits for a slow station. Tickets only go into 
+ * the ring when the overflow queue is empty, so tickets in the ring
+ * are always older than tickets in overflow, and cooks take them first.
+ */
+public class KitchenStation {
+	private final String name;
+	private final TicketRing<KitchenTicket> ring;
+	private final Queue<KitchenTicket> overflow = new ConcurrentLinkedQueue<>();
+	/** Tickets being prepared, by order number. */
+	private final Map<Long,KitchenTicket> preparing = new ConcurrentHashMap<>();
+	/** Counts are only changed by the publishing thread. */
+	private volatile long publishedCount = 0;
+	private volatile long overflowCount = 0;
+	
+	/**
+	 * Create a station.
+	 * @param name name of the station
+	 * @param capacity number of tickets in the ring buffer
+	 */
+	KitchenStation(String name, int capacity) {
+		this.name = name;
+		this.ring = new TicketRing<>(capacity);
+	}
+	
+	/** 
+	 * Add a new ticket. Never blocks. 
+	 * Only called by the KitchenRouter's publishing thread.
+	 */
+	void publish(KitchenTicket ticket) {
+		if (! overflow.isEmpty() || ! ring.offer(ticket)) {
+			overflow.add(ticket);
+			overflowCount++;
+		}
+		publishedCount++;
+	}
+	
+	/**
+	 * Take the oldest waiting ticket and start preparing it.
+	 * @return the ticket, now PREPARING, or null if no tickets are waiting
+	 */
+	public KitchenTicket next() {
+		while(true) {
+			KitchenTicket ticket = ring.poll();
+			if (ticket == null) ticket = overflow.poll();
+			if (ticket == null) return null;
+			// skip tickets that were already started some other way
+			if (ticket.startPreparing()) {
+				preparing.put(ticket.getOrderNumber(), ticket);
+				return ticket;
+			}
+		}
+	}
+	
+	/**
+	 * Mark the ticket for an order as ready.
+	 * @param orderNumber the order number of the ticket
+	 * @return the ticket, or null if no ticket for that order is being prepared
+	 */
+	public KitchenTicket ready(long orderNumber) {
+		KitchenTicket ticket = preparing.remove(orderNumber);
+		if (ticket != null) ticket.markReady();
+		return ticket;
+	}
+	
+	/** Get the tickets that are being prepared now. */
+	public List<KitchenTicket> getPreparing() {
+		return new ArrayList<>(preparing.values());
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/** Get the approximate number of tickets waiting to be prepared. */
+	public int getBacklog() {
+		return ring.size() + overflow.size();
+	}
+	
+	/** Get the number of tickets sent to this station. */
+	public long getPublishedCount() {
+		return publishedCount;
+	}
+	
+	/** Get the number of tickets that didn't fit in the ring buffer. */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%s: %d waiting, %d preparing", name, getBacklog(), preparing.size());
+	}
+}
@@ -0,0 +1,107 @@
+package kitchen;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import order.OrderItem;
+
+/**
+ * The part of an order that one kitchen station prepares.
+ * A ticket is RECEIVED when it is sent to the station, PREPARING
+ * when a cook takes it, and READY when the food is ready.  The state
+ * only moves forward, and is changed by compare-and-set without locks,
+ * so two cooks can't both start the same ticket.
+ */
+public class KitchenTicket {
+	public static final int RECEIVED = 0;
+	public static final int PREPARING = 1;
+	public static final int READY = 2;
+	private static final String[] STATE_NAMES = { "RECEIVED", "PREPARING", "READY" };
+	
+	private static final AtomicIntegerFieldUpdater<KitchenTicket> STATE =
+			AtomicIntegerFieldUpdater.newUpdater(KitchenTicket.class, "state");
+	
+	private final long orderNumber;
+	private final String station;
+	private final List<OrderItem> items;
+	/** System.nanoTime when the ticket was created. */
+	private final long receivedNanos;
+	private volatile int state = RECEIVED;
+	/** System.nanoTime of the last change of state. */
+	private volatile long changedNanos;
+	
+	/**
+	 * Create a ticket.
+	 * @param orderNumber order number of the order
+	 * @param station the station that prepares the items
+	 * @param items the items to prepare
+	 */
+	public KitchenTicket(long orderNumber, String station, List<OrderItem> items) {
+		this.orderNumber = orderNumber;
+		this.station = station;
+		this.items = Collections.unmodifiableList(items);
+		this.receivedNanos = System.nanoTime();
+		this.changedNanos = receivedNanos;
+	}
+	
+	/**
+	 * Start preparing this ticket.
+	 * @return true if the ticket was RECEIVED and is now PREPARING,
+	 *     false if someone else already started it
+	 */
+	public boolean startPreparing() {
+		return advance(RECEIVED, PREPARING);
+	}
+	
+	/**
+	 * Mark this ticket as ready.
+	 * @return true if the ticket was PREPARING and is now READY
+	 */
+	public boolean markReady() {
+		return advance(PREPARING, READY);
+	}
+	
+	private boolean advance(int from, int to) {
+		if (! STATE.compareAndSet(this, from, to)) return false;
+		changedNanos = System.nanoTime();
+		return true;
+	}
+	
+	/** Get the state: RECEIVED, PREPARING, or READY. */
+	public int getState() {
+		return state;
+	}
+	
+	/** Get the name of the state. */
+	public String getStateName() {
+		return STATE_NAMES[state];
+	}
+	
+	public long getOrderNumber() {
+		return orderNumber;
+	}
+	
+	public String getStation() {
+		return station;
+	}
+	
+	/** Get the items to prepare. The list cannot be changed. */
+	public List<OrderItem> getItems() {
+		return items;
+	}
+	
+	/** Get the time since the ticket was received, in milliseconds. */
+	public long getAgeMillis() {
+		return (System.nanoTime() - receivedNanos) / 1_000_000;
+	}
+	
+	/** Get the System.nanoTime when the state last changed. */
+	public long getChangedNanos() {
+		return changedNanos;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("Order %d %s %s %s", orderNumber, station, getStateName(), items);
+	}
+}
@@ -0,0 +1,88 @@
+package kitchen;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded ring buffer for one producer thread and many consumer threads,
+ * without locks.  All slots are allocated when the ring is created.
+ * 
+ * Each slot has a sequence number that says whose turn it is:
+ * the producer may fill slot (pos % capacity) when its sequence is pos,
+ * and a consumer may take it when its sequence is pos+1.  Consumers
+ * claim a position by compare-and-set on the shared head.  The producer
+ * never waits: if the ring is full, offer returns false.
+ *
+ * @param <T> type of elements in the ring
+ */
+class TicketRing<T> {
+	private final AtomicReferenceArray<T> slots;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	/** Next position to take. Shared by consumers. */
+	private final AtomicLong head = new AtomicLong();
+	/** Next position to fill. Only changed by the producer thread. */
+	private volatile long tail = 0;
+	
+	/**
+	 * Create a ring buffer.
+	 * @param capacity max number of elements, rounded up to a power of 2
+	 */
+	TicketRing(int capacity) {
+		if (capacity < 1 || capacity > (1 << 30)) throw new IllegalArgumentException("Invalid capacity "+capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		slots = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for(int k=0; k<size; k++) sequences.set(k, k);
+		mask = size - 1;
+	}
+	
+	/**
+	 * Add an element, if there is room.  Only call this from the producer thread.
+	 * @param element the element to add, not null
+	 * @return true if added, false if the ring is full
+	 */
+	boolean offer(T element) {
+		long pos = tail;
+		int slot = (int) pos & mask;
+		if (sequences.get(slot) != pos) return false;  // not taken yet
+		slots.lazySet(slot, element);
+		// publishes the element to consumers
+		sequences.set(slot, pos + 1);
+		tail = pos + 1;
+		return true;
+	}
+	
+	/**
+	 * Take the oldest element.  Any thread may call this.
+	 * @return the element, or null if the ring is empty
+	 */
+	T poll() {
+		while(true) {
+			long pos = head.get();
+			int slot = (int) pos & mask;
+			long seq = sequences.get(slot);
+			if (seq < pos + 1) return null;  // empty
+			if (seq == pos + 1 && head.compareAndSet(pos, pos + 1)) {
+				T element = slots.get(slot);
+				slots.lazySet(slot, null);
+				// give the slot back to the producer for the next time around
+				sequences.set(slot, pos + mask + 1);
+				return element;
+			}
+			// another consumer took it. Try the next position.
+		}
+	}
+	
+	/** Get the approximate number of elements in the ring. */
+	int size() {
+		long size = tail - head.get();
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+	
+	/** Get the number of slots. */
+	int capacity() {
+		return mask + 1;
+	}
+}
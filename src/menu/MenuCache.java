@@ -0,0 +1,219 @@
+package menu;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A binary copy of a parsed menu file, saved next to the menu file
+ * (e.g. data/menu.txt.cache), so the menu can be loaded without parsing.
+ *
+ * The cache has the modification time, size and CRC32 checksum of the
+ * menu file it was made from, the prices as an array of longs, the names
+ * as one UTF-8 string table with the end of each name, and the station
+ * names with a station index for each item.  The last 8 bytes are a CRC32
+ * of the rest of the cache, so a damaged cache is never used.
+ *
+ * The cache is read by memory-mapping it.  It is used if the menu file has
+ * the same modification time and size, or the same size and checksum
+ * (e.g. the file was copied).  Otherwise the menu file is parsed again
+ * and the cache is replaced.
+ */
+public class MenuCache {
+	/** Magic number at start of a cache file, "SKEMENU" and format version. */
+	static final long MAGIC = 0x534B454D454E5501L;
+	/** Added to the menu file name to get the cache file name. */
+	static final String SUFFIX = ".cache";
+
+	/** Contents of a cache, in the same order as the menu file. */
+	static class Contents {
+		final String[] names;
+		final long[] prices;
+		/** Station of each item, or null if no item has a station. */
+		final String[] stations;
+		final int errorCount;
+		/** Modification time, size and CRC32 of the menu file. */
+		long modified;
+		long length;
+		long checksum;
+		/** True if the cache should be written again, e.g. because the menu file's time changed. */
+		boolean stale;
+
+		Contents(String[] names, long[] prices, String[] stations, int errorCount) {
+			this.names = names;
+			this.prices = prices;
+			this.stations = stations;
+			this.errorCount = errorCount;
+		}
+	}
+
+	/** Don't allow instances. */
+	private MenuCache() { }
+
+	/** Get the cache file for a menu file. */
+	static File cacheFile(File menuFile) {
+		return new File(menuFile.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Read the cache of a menu file, if it is valid for the file.
+	 * @param menuFile the menu file
+	 * @return the menu in the cache, or null if there is no valid cache
+	 */
+	static Contents read(File menuFile) {
+		File file = cacheFile(menuFile);
+		if (! file.exists()) return null;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < 48 || size > Integer.MAX_VALUE) return null;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buffer.getLong(0) != MAGIC) return null;
+			// check the cache isn't damaged
+			CRC32 crc = new CRC32();
+			crc.update(buffer.duplicate().limit((int) size - 8));
+			if (crc.getValue() != buffer.getLong((int) size - 8)) return null;
+			buffer.position(8);
+			long modified = buffer.getLong();
+			long length = buffer.getLong();
+			long checksum = buffer.getLong();
+			if (length != menuFile.length()) return null;
+			boolean stale = false;
+			if (modified != menuFile.lastModified()) {
+				// the file may have been touched or copied without changing it
+				if (checksum != checksum(menuFile)) return null;
+				stale = true;
+			}
+			Contents contents = decode(buffer);
+			contents.modified = menuFile.lastModified();
+			contents.length = length;
+			contents.checksum = checksum;
+			contents.stale = stale;
+			return contents;
+		} catch (IOException|RuntimeException ex) {
+			// not a valid cache, so parse the menu file
+			return null;
+		}
+	}
+
+	/** Decode the items, starting after the header. */
+	private static Contents decode(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		int errorCount = buffer.getInt();
+		long[] prices = new long[count];
+		buffer.asLongBuffer().get(prices);
+		buffer.position(buffer.position() + 8*count);
+		byte[] strings = new byte[buffer.getInt()];
+		buffer.get(strings);
+		int[] ends = new int[count];
+		buffer.asIntBuffer().get(ends);
+		buffer.position(buffer.position() + 4*count);
+		String[] names = new String[count];
+		int start = 0;
+		for(int k=0; k<count; k++) {
+			names[k] = new String(strings, start, ends[k] - start, StandardCharsets.UTF_8);
+			start = ends[k];
+		}
+		String[] stations = null;
+		int stationCount = buffer.getShort();
+		if (stationCount > 0) {
+			String[] stationNames = new String[stationCount];
+			for(int k=0; k<stationCount; k++) {
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				// interned, the same as stations parsed by MenuReader
+				stationNames[k] = new String(name, StandardCharsets.UTF_8).intern();
+			}
+			stations = new String[count];
+			for(int k=0; k<count; k++) {
+				int index = buffer.getShort();
+				stations[k] = (index < 0) ? null : stationNames[index];
+			}
+		}
+		return new Contents(names, prices, stations, errorCount);
+	}
+
+	/**
+	 * Write a cache for a menu file.  The cache is written to a temporary
+	 * file that then replaces the old cache.
+	 * @param menuFile the menu file that was parsed
+	 * @param contents the parsed menu, with the time, size and checksum 
+	 *    of the menu file when it was read
+	 * @throws IOException if the cache can't be written
+	 */
+	static void write(File menuFile, Contents contents) throws IOException {
+		int count = contents.names.length;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 40*count);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(MAGIC);
+		out.writeLong(contents.modified);
+		out.writeLong(contents.length);
+		out.writeLong(contents.checksum);
+		out.writeInt(count);
+		out.writeInt(contents.errorCount);
+		for(long price: contents.prices) out.writeLong(price);
+		ByteArrayOutputStream strings = new ByteArrayOutputStream(16*count);
+		int[] ends = new int[count];
+		for(int k=0; k<count; k++) {
+			strings.write(contents.names[k].getBytes(StandardCharsets.UTF_8));
+			ends[k] = strings.size();
+		}
+		out.writeInt(strings.size());
+		strings.writeTo(out);
+		for(int end: ends) out.writeInt(end);
+		if (contents.stations == null) out.writeShort(0);
+		else {
+			Map<String,Integer> index = new HashMap<>();
+			for(String station: contents.stations) if (station != null) index.putIfAbsent(station, index.size());
+			if (index.size() > Short.MAX_VALUE) throw new IOException("Too many stations");
+			String[] stationNames = new String[index.size()];
+			for(Map.Entry<String,Integer> entry: index.entrySet()) stationNames[entry.getValue()] = entry.getKey();
+			out.writeShort(stationNames.length);
+			for(String name: stationNames) {
+				byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(utf8.length);
+				out.write(utf8);
+			}
+			for(String station: contents.stations) out.writeShort( (station == null) ? -1 : index.get(station) );
+		}
+		out.flush();
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeLong(crc.getValue());
+		out.flush();
+
+		File file = cacheFile(menuFile);
+		Path temp = new File(file.getPath() + ".tmp").toPath();
+		Files.write(temp, bytes.toByteArray());
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Compute the CRC32 of a file's contents. */
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(MenuReader.BUFFER_SIZE);
+			while(channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+}
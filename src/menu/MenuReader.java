@@ -0,0 +1,530 @@
+package menu;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+import order.Money;
+
+/**
+ * Read a menu file quickly, even if it has hundreds of thousands of lines.
+ * 
+ * Each line of the menu file has an item name and price separated by ';',
+ * for example "Pad Thai; 30.00".  An optional third field is the
+ * kitchen station that prepares the item, e.g. "Ice Tea; 20.00; drinks".
+ * Blank lines and lines starting with '#'
+ * are ignored. Invalid lines and duplicate names are reported and skipped.
+ * 
+ * The file is read as bytes through a channel and split into lines and
+ * fields without regular expressions.  Prices are parsed directly into
+ * a long array (in minor units), and duplicate names are found using a HashSet.
+ * In parallel mode the whole file is read and parts of it are
+ * parsed by different threads, and the results are combined in order.
+ * 
+ * If the cache is enabled, the parsed menu is saved in a MenuCache next
+ * to the menu file, and later reads use the cache instead of parsing the
+ * file until the file changes.  Invalid lines are only reported when the
+ * file is parsed, but getErrorCount() is the same.
+ */
+public class MenuReader {
+	/** Size of buffer for reading the file. */
+	static final int BUFFER_SIZE = 64*1024;
+	/** In parallel mode, smallest part of file parsed by one thread. */
+	static final int MIN_CHUNK = 256*1024;
+	/** Files at least this big are parsed in parallel, unless parallel mode is turned off. */
+	static final long AUTO_PARALLEL_SIZE = 4*1024*1024;
+	
+	private final String filename;
+	/** True to parse in parallel, false for one thread, null to decide by file size. */
+	private Boolean parallel = null;
+	/** Names of the menu items, in the order they are in the file. */
+	private final List<String> names = new ArrayList<>();
+	/** Prices of menu items in minor units. Only first names.size() are used. */
+	private long[] prices = new long[64];
+	/** Kitchen station of each item, in same order as names. May contain null. */
+	private final List<String> stations = new ArrayList<>();
+	/** True if any item has a station. */
+	private boolean hasStations = false;
+	private final Set<String> nameSet = new HashSet<>();
+	private int errorCount = 0;
+	/** True to read and write a MenuCache for the menu file. */
+	private boolean useCache = false;
+	/** True if the menu was read from the cache. */
+	private boolean fromCache = false;
+	/** Checksum of the bytes read from the menu file. */
+	private final CRC32 checksum = new CRC32();
+	
+	/**
+	 * Create a reader for a menu file.  The file is looked for
+	 * on the classpath first, and then in the file system.
+	 * @param filename name of the menu file
+	 */
+	public MenuReader(String filename) {
+		this.filename = filename;
+	}
+	
+	/**
+	 * Set whether to parse the file in parallel.  Only useful for large files.
+	 * The default (null) is to parse large files in parallel.
+	 * @param parallel true to use several threads, false for one thread, 
+	 *     null to decide using the size of the file
+	 * @return this reader
+	 */
+	public MenuReader setParallel(Boolean parallel) {
+		this.parallel = parallel;
+		return this;
+	}
+	
+	/**
+	 * Set whether to use a MenuCache, so the menu file is only parsed
+	 * when it changes.  The cache can only be used if the menu file is
+	 * in the file system (not inside a jar file).  The default is false.
+	 * @param useCache true to read and write a cache of the menu
+	 * @return this reader
+	 */
+	public MenuReader setCache(boolean useCache) {
+		this.useCache = useCache;
+		return this;
+	}
+	
+	/**
+	 * Read the menu file, or its cache.
+	 * @return true if the menu file was read, false if not found or cannot be read.
+	 */
+	public boolean read() {
+		File file = findFile(filename);
+		if (useCache && file != null) {
+			MenuCache.Contents cached = MenuCache.read(file);
+			if (cached != null) {
+				useContents(cached);
+				if (cached.stale) writeCache(file, cached);
+				return true;
+			}
+		}
+		// time and size before reading, so a change while reading is noticed next time
+		long modified = (file != null) ? file.lastModified() : 0L;
+		long length = (file != null) ? file.length() : 0L;
+		InputStream in = null;
+		try {
+			if (file != null) in = new FileInputStream( file );
+			else in = MenuReader.class.getClassLoader().getResourceAsStream( filename );
+		} catch(FileNotFoundException nfe) {
+			// handled below
+		}
+		// check that it worked
+		if (in == null) {
+			System.err.println("Could not find menu file "+filename);
+			return false;
+		}
+		try (ReadableByteChannel channel = (in instanceof FileInputStream) ? 
+					((FileInputStream)in).getChannel() : Channels.newChannel(in)) {
+			boolean useParallel = (parallel != null) ? parallel : 
+					(channel instanceof FileChannel && ((FileChannel)channel).size() >= AUTO_PARALLEL_SIZE);
+			if (useParallel) readParallel(channel);
+			else readSequential(channel);
+		} catch (IOException ex) {
+			System.err.println("Error reading menu file "+filename+": "+ex.getMessage());
+			return false;
+		}
+		if (useCache && file != null) {
+			String[] stationArray = hasStations ? stations.toArray(new String[0]) : null;
+			MenuCache.Contents contents = new MenuCache.Contents(names.toArray(new String[0]), 
+					Arrays.copyOf(prices, names.size()), stationArray, errorCount);
+			contents.modified = modified;
+			contents.length = length;
+			contents.checksum = checksum.getValue();
+			writeCache(file, contents);
+		}
+		return true;
+	}
+	
+	/** 
+	 * Find the menu file in the file system, looking first on the classpath.
+	 * @return the menu file, or null if it is not a file (e.g. inside a jar) or not found
+	 */
+	private static File findFile(String filename) {
+		URL url = MenuReader.class.getClassLoader().getResource(filename);
+		if (url != null) {
+			if (! "file".equals(url.getProtocol())) return null;
+			try {
+				return new File(url.toURI());
+			} catch (URISyntaxException|IllegalArgumentException ex) {
+				return null;
+			}
+		}
+		File file = new File(filename);
+		return file.isFile() ? file : null;
+	}
+	
+	/** Use the menu from a cache instead of parsing the file. */
+	private void useContents(MenuCache.Contents cached) {
+		names.addAll(Arrays.asList(cached.names));
+		prices = cached.prices;
+		if (cached.stations != null) {
+			stations.addAll(Arrays.asList(cached.stations));
+			hasStations = true;
+		}
+		else stations.addAll(Collections.nCopies(cached.names.length, null));
+		errorCount = cached.errorCount;
+		fromCache = true;
+	}
+	
+	/** Save the menu in the cache. The menu can still be used if this fails. */
+	private void writeCache(File file, MenuCache.Contents contents) {
+		try {
+			MenuCache.write(file, contents);
+		} catch (IOException|SecurityException ex) {
+			System.err.println("Could not write menu cache for "+filename+": "+ex.getMessage());
+		}
+	}
+	
+	/** Test if the menu was read from the cache instead of the menu file. */
+	public boolean isFromCache() {
+		return fromCache;
+	}
+	
+	/** Read the file one buffer at a time and parse the lines in each buffer. */
+	private void readSequential(ReadableByteChannel channel) throws IOException {
+		byte[] data = new byte[BUFFER_SIZE];
+		int length = 0;  // bytes in data
+		int lineNumber = 0;
+		Chunk chunk = new Chunk();
+		while(true) {
+			if (length == data.length) data = Arrays.copyOf(data, 2*data.length); // very long line
+			int n = channel.read( ByteBuffer.wrap(data, length, data.length - length) );
+			boolean end = (n < 0);
+			if (n > 0) {
+				checksum.update(data, length, n);
+				length += n;
+			}
+			// parse all complete lines. At end of file the last line may not have a newline.
+			int used = chunk.parse(data, 0, length, end);
+			addChunk(chunk, lineNumber);
+			lineNumber += chunk.lineCount;
+			chunk.clear();
+			if (end) break;
+			// move the incomplete line to start of buffer
+			System.arraycopy(data, used, data, 0, length - used);
+			length -= used;
+		}
+	}
+	
+	/** Read the whole file and parse parts of it in parallel. */
+	private void readParallel(ReadableByteChannel channel) throws IOException {
+		byte[] data = readAll(channel);
+		checksum.update(data);
+		int parts = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4, data.length / MIN_CHUNK));
+		// split at line boundaries
+		int[] bounds = new int[parts+1];
+		bounds[parts] = data.length;
+		for(int k=1; k<parts; k++) {
+			int pos = Math.max(bounds[k-1], (int)((long)data.length * k / parts));
+			while(pos < data.length && data[pos] != '\n') pos++;
+			bounds[k] = Math.min(pos + 1, data.length);
+		}
+		List<RecursiveTask<Chunk>> tasks = new ArrayList<>(parts);
+		for(int k=0; k<parts; k++) {
+			final int start = bounds[k];
+			final int end = bounds[k+1];
+			RecursiveTask<Chunk> task = new RecursiveTask<Chunk>() {
+				@Override
+				protected Chunk compute() {
+					Chunk chunk = new Chunk();
+					chunk.parse(data, start, end, true);
+					return chunk;
+				}
+			};
+			tasks.add(task);
+			ForkJoinPool.commonPool().execute(task);
+		}
+		// combine results in file order, so duplicates and line numbers are correct
+		int lineNumber = 0;
+		for(RecursiveTask<Chunk> task: tasks) {
+			Chunk chunk = task.join();
+			addChunk(chunk, lineNumber);
+			lineNumber += chunk.lineCount;
+		}
+	}
+	
+	private static byte[] readAll(ReadableByteChannel channel) throws IOException {
+		int size = BUFFER_SIZE;
+		if (channel instanceof FileChannel) {
+			long fileSize = ((FileChannel)channel).size();
+			if (fileSize > Integer.MAX_VALUE - 8) throw new IOException("Menu file is too large");
+			size = (int) fileSize + 1;
+		}
+		byte[] data = new byte[size];
+		int length = 0;
+		int n;
+		while( (n = channel.read(ByteBuffer.wrap(data, length, data.length - length))) >= 0 ) {
+			length += n;
+			if (length == data.length) data = Arrays.copyOf(data, 2*data.length);
+		}
+		return Arrays.copyOf(data, length);
+	}
+	
+	/** 
+	 * Add items from a parsed chunk to the menu, and report errors.
+	 * @param chunk the parsed items
+	 * @param firstLine number of lines in the file before this chunk
+	 */
+	private void addChunk(Chunk chunk, int firstLine) {
+		int e = 0; // next error in chunk
+		for(int k=0; k<chunk.count; k++) {
+			// report errors that came before this item, in order of line number
+			while(e < chunk.errorCount && chunk.errorLines[e] < chunk.itemLines[k]) {
+				menuError(firstLine + chunk.errorLines[e++]);
+			}
+			String name = chunk.names.get(k);
+			if (! nameSet.add(name)) {
+				// duplicate name
+				menuError(firstLine + chunk.itemLines[k]);
+				continue;
+			}
+			if (names.size() == prices.length) prices = Arrays.copyOf(prices, 2*prices.length);
+			prices[names.size()] = chunk.prices[k];
+			names.add(name);
+			String station = chunk.stations.get(k);
+			stations.add(station);
+			if (station != null) hasStations = true;
+		}
+		while(e < chunk.errorCount) menuError(firstLine + chunk.errorLines[e++]);
+	}
+
+	private void menuError(int linenum) {
+		errorCount++;
+		System.err.printf("Invalid menu data in %s, line %d\n", filename, linenum);
+	}
+	
+	/** Get the number of menu items read. */
+	public int size() {
+		return names.size();
+	}
+	
+	/** Get the name of the k-th menu item in the file, starting from 0. */
+	public String getName(int k) {
+		return names.get(k);
+	}
+	
+	/** Get the price of the k-th menu item in the file, starting from 0. */
+	public long getPrice(int k) {
+		if (k >= names.size()) throw new IndexOutOfBoundsException("No menu item "+k);
+		return prices[k];
+	}
+	
+	/** 
+	 * Get the kitchen station of the k-th menu item in the file, starting from 0.
+	 * @return the station name in lowercase, or null if the line doesn't have one 
+	 */
+	public String getStation(int k) {
+		return stations.get(k);
+	}
+	
+	/** Get the number of invalid lines in the file. */
+	public int getErrorCount() {
+		return errorCount;
+	}
+	
+	/**
+	 * Create a MenuSnapshot of the items that were read.  Item 0 of
+	 * the snapshot is a dummy item so that item numbers start at 1.
+	 * @param version the version number of the menu
+	 * @return snapshot of the menu
+	 */
+	public MenuSnapshot toSnapshot(long version) {
+		String[] menuItems = new String[names.size() + 1];
+		long[] menuPrices = new long[names.size() + 1];
+		menuItems[0] = "No item";
+		for(int k=0; k<names.size(); k++) menuItems[k+1] = names.get(k);
+		System.arraycopy(prices, 0, menuPrices, 1, names.size());
+		String[] menuStations = null;
+		if (hasStations) {
+			menuStations = new String[names.size() + 1];
+			for(int k=0; k<names.size(); k++) menuStations[k+1] = stations.get(k);
+		}
+		return new MenuSnapshot(version, menuItems, menuPrices, menuStations);
+	}
+	
+	/**
+	 * Menu items parsed from part of a file.  Duplicate names are
+	 * not checked here, since that depends on the other chunks.
+	 * Line numbers are relative to the start of the chunk, starting at 1.
+	 */
+	static class Chunk {
+		final List<String> names = new ArrayList<>();
+		/** Station of each item, or null. */
+		final List<String> stations = new ArrayList<>();
+		long[] prices = new long[256];
+		int[] itemLines = new int[256];
+		int count = 0;
+		int[] errorLines = new int[16];
+		int errorCount = 0;
+		int lineCount = 0;
+		/** A reusable view of the bytes of a price, for Money.parse. */
+		private final AsciiSequence priceText = new AsciiSequence();
+		
+		/**
+		 * Parse lines in data[start] to data[end-1].
+		 * @param last if true then the last line doesn't need a newline
+		 * @return index after the last complete line parsed
+		 */
+		int parse(byte[] data, int start, int end, boolean last) {
+			int lineStart = start;
+			for(int k=start; k<end; k++) {
+				if (data[k] == '\n') {
+					parseLine(data, lineStart, k);
+					lineStart = k + 1;
+				}
+			}
+			if (last && lineStart < end) {
+				parseLine(data, lineStart, end);
+				lineStart = end;
+			}
+			return lineStart;
+		}
+		
+		/** Parse one line, without the newline. */
+		private void parseLine(byte[] data, int start, int end) {
+			lineCount++;
+			// trim spaces and '\r'
+			while(start < end && isSpace(data[start])) start++;
+			while(end > start && isSpace(data[end-1])) end--;
+			if (start == end || data[start] == '#') return;
+			int semicolon = -1;
+			int stationStart = -1;
+			for(int k=start; k<end; k++) {
+				if (data[k] == ';') {
+					if (stationStart >= 0) {
+						// too many fields
+						error();
+						return;
+					}
+					if (semicolon >= 0) stationStart = k;
+					else semicolon = k;
+				}
+			}
+			if (semicolon < 0) {
+				error();
+				return;
+			}
+			int nameEnd = semicolon;
+			while(nameEnd > start && isSpace(data[nameEnd-1])) nameEnd--;
+			int priceEnd = (stationStart >= 0) ? stationStart : end;
+			String station = null;
+			if (stationStart >= 0) station = station(data, stationStart+1, end);
+			long price;
+			try {
+				price = Money.parse( priceText.set(data, semicolon+1, priceEnd) );
+			} catch (NumberFormatException|ArithmeticException ex) {
+				error();
+				return;
+			}
+			if (nameEnd == start || price < 0) {
+				error();
+				return;
+			}
+			if (count == prices.length) {
+				prices = Arrays.copyOf(prices, 2*count);
+				itemLines = Arrays.copyOf(itemLines, 2*count);
+			}
+			names.add( new String(data, start, nameEnd - start, StandardCharsets.UTF_8) );
+			stations.add(station);
+			prices[count] = price;
+			itemLines[count] = lineCount;
+			count++;
+		}
+		
+		/** 
+		 * Get the station name in data[start] to data[end-1], trimmed and lowercase. 
+		 * There are only a few stations, so each name is interned.
+		 * @return the station name, or null if blank
+		 */
+		private static String station(byte[] data, int start, int end) {
+			while(start < end && isSpace(data[start])) start++;
+			while(end > start && isSpace(data[end-1])) end--;
+			if (start == end) return null;
+			return new String(data, start, end - start, StandardCharsets.UTF_8).toLowerCase().intern();
+		}
+		
+		private void error() {
+			if (errorCount == errorLines.length) errorLines = Arrays.copyOf(errorLines, 2*errorCount);
+			errorLines[errorCount++] = lineCount;
+		}
+		
+		private static boolean isSpace(byte b) {
+			return b == ' ' || b == '\t' || b == '\r';
+		}
+		
+		/** Clear the chunk so it can be reused. */
+		void clear() {
+			names.clear();
+			stations.clear();
+			count = 0;
+			errorCount = 0;
+			lineCount = 0;
+		}
+	}
+	
+	/** A CharSequence view of ASCII bytes in an array. Can be reused. */
+	static class AsciiSequence implements CharSequence {
+		private byte[] data;
+		private int start;
+		private int end;
+		
+		AsciiSequence set(byte[] data, int start, int end) {
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			return this;
+		}
+		
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char)(data[start+index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			return toString().substring(from, to);
+		}
+		
+		@Override
+		public String toString() {
+			return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+	}
+	
+	/** For testing. Read a menu file and show how long it took. */
+	public static void main(String[] args) {
+		String filename = (args.length > 0) ? args[0] : "data/menu.txt";
+		boolean parallel = args.length > 1 && args[1].equals("parallel");
+		long start = System.nanoTime();
+		MenuReader reader = new MenuReader(filename).setParallel(parallel);
+		reader.read();
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("Read %d items from %s in %.1f ms (%d errors)\n", 
+				reader.size(), new File(filename).getName(), elapsed/1.0E6, reader.getErrorCount());
+	}
+}
@@ -0,0 +1,195 @@
+package menu;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Find menu items by name, so staff can order by name instead of number.
+ * 
+ * Names are normalized (lowercase, punctuation removed).  For prefix
+ * search, every word of every name is the start of a key in a sorted array,
+ * e.g. "Ice Coffee" gives keys "ice coffee" and "coffee", so "ice" and "cof"
+ * both find it using binary search.  For misspelled names the index has
+ * the 3-letter sequences (trigrams) of each name, and items that share
+ * enough trigrams with the query are returned.
+ * 
+ * The index is created once for a MenuSnapshot and never changes,
+ * so it can be used by many threads.
+ */
+public class MenuSearchIndex {
+	/** Min similarity (Dice coefficient) for a fuzzy match. */
+	static final double MIN_SIMILARITY = 0.4;
+	
+	/** Normalized name of each item, by item id. */
+	private final String[] normalized;
+	/** Sorted keys for prefix search. */
+	private final String[] keys;
+	/** Item id for each key. */
+	private final int[] keyItems;
+	/** Item ids that contain each trigram. */
+	private final Map<String,int[]> trigrams = new HashMap<>();
+	/** Number of trigrams in each item name. */
+	private final int[] trigramCount;
+	
+	/**
+	 * Create a search index for a menu.  Item 0 is not indexed.
+	 * @param menu the menu to index
+	 */
+	public MenuSearchIndex(MenuSnapshot menu) {
+		int size = menu.size();
+		normalized = new String[size];
+		trigramCount = new int[size];
+		List<String> keyList = new ArrayList<>();
+		List<Integer> keyIds = new ArrayList<>();
+		Map<String,List<Integer>> postings = new HashMap<>();
+		for(int id=1; id<size; id++) {
+			String name = normalize(menu.getName(id));
+			normalized[id] = name;
+			if (name.isEmpty()) continue;
+			// a key starting at each word
+			for(int k=0; k<name.length(); k++) {
+				if (k == 0 || name.charAt(k-1) == ' ') {
+					keyList.add(name.substring(k));
+					keyIds.add(id);
+				}
+			}
+			Set<String> grams = trigramsOf(name);
+			trigramCount[id] = grams.size();
+			for(String gram: grams) postings.computeIfAbsent(gram, g -> new ArrayList<>()).add(id);
+		}
+		// sort the keys, and the item ids in the same order
+		Integer[] order = new Integer[keyList.size()];
+		for(int k=0; k<order.length; k++) order[k] = k;
+		Arrays.sort(order, (a, b) -> keyList.get(a).compareTo(keyList.get(b)));
+		keys = new String[order.length];
+		keyItems = new int[order.length];
+		for(int k=0; k<order.length; k++) {
+			keys[k] = keyList.get(order[k]);
+			keyItems[k] = keyIds.get(order[k]);
+		}
+		for(Map.Entry<String,List<Integer>> entry: postings.entrySet()) {
+			List<Integer> ids = entry.getValue();
+			int[] array = new int[ids.size()];
+			for(int k=0; k<array.length; k++) array[k] = ids.get(k);
+			trigrams.put(entry.getKey(), array);
+		}
+	}
+	
+	/**
+	 * Normalize a name for searching: lowercase letters and digits,
+	 * with one space between words.
+	 * @param name the name or query to normalize
+	 * @return normalized name, may be empty
+	 */
+	public static String normalize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		boolean space = false;
+		for(int k=0; k<name.length(); k++) {
+			char c = name.charAt(k);
+			if (Character.isLetterOrDigit(c)) {
+				if (space && sb.length() > 0) sb.append(' ');
+				sb.append(Character.toLowerCase(c));
+				space = false;
+			}
+			else space = true;
+		}
+		return sb.toString();
+	}
+	
+	/** The trigrams of a normalized name, with a space before and after it. */
+	private static Set<String> trigramsOf(String name) {
+		String padded = " " + name + " ";
+		Set<String> grams = new LinkedHashSet<>();
+		for(int k=0; k+3 <= padded.length(); k++) grams.add(padded.substring(k, k+3));
+		return grams;
+	}
+	
+	/**
+	 * Find items by name.  If the query is the exact name of an item, 
+	 * only that item is returned.  Otherwise items with a word starting
+	 * with the query are returned, and if there are none then items
+	 * with a similar name are returned.
+	 * @param query name or part of a name
+	 * @param limit max number of items to return
+	 * @return ids of matching items, best match first. May be empty.
+	 */
+	public int[] find(String query, int limit) {
+		String q = normalize(query);
+		if (q.isEmpty()) return new int[0];
+		int[] found = prefix(q, limit);
+		for(int id: found) if (normalized[id].equals(q)) return new int[] { id };
+		if (found.length > 0) return found;
+		return fuzzy(q, limit);
+	}
+	
+	/**
+	 * Find items with a word that starts with the query.
+	 * Items whose name starts with the query come first.
+	 * @param query the start of a word in the name
+	 * @param limit max number of items to return
+	 * @return ids of matching items. May be empty.
+	 */
+	public int[] prefix(String query, int limit) {
+		String q = normalize(query);
+		// binary search for first key >= q
+		int low = 0, high = keys.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid].compareTo(q) < 0) low = mid + 1;
+			else high = mid;
+		}
+		Set<Integer> first = new LinkedHashSet<>();
+		Set<Integer> other = new LinkedHashSet<>();
+		for(int k=low; k<keys.length && keys[k].startsWith(q); k++) {
+			int id = keyItems[k];
+			if (normalized[id].startsWith(q)) first.add(id);
+			else other.add(id);
+			if (first.size() >= limit) break;
+		}
+		first.addAll(other);
+		return toArray(first, limit);
+	}
+	
+	/**
+	 * Find items with names similar to the query, for misspelled names.
+	 * @param query the name to look for
+	 * @param limit max number of items to return
+	 * @return ids of matching items, most similar first. May be empty.
+	 */
+	public int[] fuzzy(String query, int limit) {
+		String q = normalize(query);
+		if (q.isEmpty()) return new int[0];
+		Set<String> grams = trigramsOf(q);
+		// count shared trigrams, only for items that share at least one
+		Map<Integer,Integer> shared = new HashMap<>();
+		for(String gram: grams) {
+			int[] ids = trigrams.get(gram);
+			if (ids == null) continue;
+			for(int id: ids) shared.merge(id, 1, Integer::sum);
+		}
+		List<int[]> matches = new ArrayList<>(); // pairs of (id, score*1000)
+		for(Map.Entry<Integer,Integer> entry: shared.entrySet()) {
+			int id = entry.getKey();
+			double similarity = 2.0*entry.getValue() / (grams.size() + trigramCount[id]);
+			if (similarity >= MIN_SIMILARITY) matches.add(new int[] { id, (int)(similarity*1000) });
+		}
+		matches.sort( (a, b) -> (a[1] != b[1]) ? b[1] - a[1] : a[0] - b[0] );
+		int[] result = new int[Math.min(limit, matches.size())];
+		for(int k=0; k<result.length; k++) result[k] = matches.get(k)[0];
+		return result;
+	}
+	
+	private static int[] toArray(Set<Integer> ids, int limit) {
+		int[] result = new int[Math.min(limit, ids.size())];
+		int k = 0;
+		for(Integer id: ids) {
+			if (k == result.length) break;
+			result[k++] = id;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,203 @@
+package menu;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import promo.Promotion;
+import promo.PromotionIndex;
+
+/**
+ * An immutable copy of the menu: names, prices and kitchen stations of menu items.
+ * When the menu changes a new MenuSnapshot with a larger version
+ * number is created, so an order can keep using the snapshot it
+ * was priced with while new orders use the new menu.
+ * 
+ * Item 0 is not a real menu item, so that item numbers start at 1.
+ * Prices are in minor units (see order.Money).
+ * The station of an item is the part of the kitchen that prepares it,
+ * such as "drinks" or "grill". It is null if the menu doesn't say.
+ * A snapshot can also have promotions, compiled for its items.
+ */
+public final class MenuSnapshot {
+	/** An empty menu. */
+	public static final MenuSnapshot EMPTY = new MenuSnapshot(0L, new String[0], new long[0]);
+	
+	private final long version;
+	private final String[] names;
+	private final long[] prices;
+	/** Kitchen station of each item. Null if no items have a station. */
+	private final String[] stations;
+	/** Promotions for the items in this menu. */
+	private final PromotionIndex promotions;
+	/** Index for finding items by name, created when first needed. */
+	private volatile MenuSearchIndex searchIndex;
+	/** Item ids by lower case name, or AMBIGUOUS, created when first needed. */
+	private volatile Map<String,Integer> ids;
+	
+	/** Returned by findItem when more than one item has a name. */
+	public static final int AMBIGUOUS = -1;
+	
+	/**
+	 * Create a menu snapshot.  The arrays are copied, so
+	 * changing them later won't change the snapshot.
+	 * @param version version number of this menu
+	 * @param names names of menu items
+	 * @param prices prices of menu items, in same order as names
+	 */
+	public MenuSnapshot(long version, String[] names, long[] prices) {
+		this(version, names, prices, null);
+	}
+	
+	/**
+	 * Create a menu snapshot with kitchen stations.  The arrays are copied.
+	 * @param version version number of this menu
+	 * @param names names of menu items
+	 * @param prices prices of menu items, in same order as names
+	 * @param stations kitchen station of each item, may be null 
+	 *     or contain null for items without a station
+	 */
+	public MenuSnapshot(long version, String[] names, long[] prices, String[] stations) {
+		if (names.length != prices.length) 
+			throw new IllegalArgumentException("names and prices must have same length");
+		if (stations != null && stations.length != names.length)
+			throw new IllegalArgumentException("names and stations must have same length");
+		this.version = version;
+		this.names = names.clone();
+		this.prices = prices.clone();
+		this.stations = (stations == null) ? null : stations.clone();
+		this.promotions = PromotionIndex.EMPTY;
+	}
+	
+	/** Create a snapshot with the same items as another one, and promotions. */
+	private MenuSnapshot(MenuSnapshot menu, List<Promotion> promotions) {
+		this.version = menu.version;
+		this.names = menu.names;
+		this.prices = menu.prices;
+		this.stations = menu.stations;
+		this.promotions = PromotionIndex.compile(promotions, menu);
+	}
+	
+	/**
+	 * Get a snapshot with the same version and items as this one, 
+	 * with promotions compiled for its items.
+	 * @param promotions the promotions, in the order they are applied
+	 * @return a new snapshot
+	 */
+	public MenuSnapshot withPromotions(List<Promotion> promotions) {
+		return new MenuSnapshot(this, promotions);
+	}
+	
+	/** Get the promotions for this menu. */
+	public PromotionIndex getPromotions() {
+		return promotions;
+	}
+	
+	/** Get the version number of this menu. */
+	public long getVersion() {
+		return version;
+	}
+	
+	/** Get the number of items, including unused item 0. */
+	public int size() {
+		return names.length;
+	}
+	
+	/** Test if id is a valid item number in this menu. */
+	public boolean contains(int id) {
+		return id >= 0 && id < names.length;
+	}
+	
+	/**
+	 * Get the name of a menu item.
+	 * @param id the item number
+	 * @return name of the item
+	 * @throws ArrayIndexOutOfBoundsException if id is not valid
+	 */
+	public String getName(int id) {
+		return names[id];
+	}
+	
+	/**
+	 * Get the price of a menu item.
+	 * @param id the item number
+	 * @return price of the item in minor units
+	 * @throws ArrayIndexOutOfBoundsException if id is not valid
+	 */
+	public long getPrice(int id) {
+		return prices[id];
+	}
+	
+	/**
+	 * Get the kitchen station that prepares a menu item.
+	 * @param id the item number
+	 * @return name of the station, or null if the menu doesn't say
+	 * @throws ArrayIndexOutOfBoundsException if id is not valid
+	 */
+	public String getStation(int id) {
+		if (stations == null) {
+			if (id < 0 || id >= names.length) throw new ArrayIndexOutOfBoundsException(id);
+			return null;
+		}
+		return stations[id];
+	}
+	
+	/** Get a copy of the names of all menu items. */
+	public String[] getNames() {
+		return names.clone();
+	}
+	
+	/** Get a copy of the prices of all menu items. */
+	public long[] getPrices() {
+		return prices.clone();
+	}
+	
+	/**
+	 * Get the index for finding items by name.
+	 * The index is created the first time this is called.
+	 * @return the search index for this menu
+	 */
+	public MenuSearchIndex getSearchIndex() {
+		MenuSearchIndex index = searchIndex;
+		if (index == null) {
+			synchronized(this) {
+				if (searchIndex == null) searchIndex = new MenuSearchIndex(this);
+				index = searchIndex;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Find the item with a name, ignoring case.  Unlike the search index,
+	 * only an exact match is found.
+	 * @param name the name of an item
+	 * @return the item id, 0 if no item has the name, or AMBIGUOUS
+	 *     if more than one item has the name
+	 */
+	public int findItem(String name) {
+		Map<String,Integer> index = ids;
+		if (index == null) {
+			index = new HashMap<>(2*names.length);
+			// item 0 is not a real item
+			for(int id=1; id<names.length; id++) {
+				index.merge(names[id].toLowerCase(Locale.ROOT), id, (a, b) -> AMBIGUOUS);
+			}
+			ids = index;
+		}
+		Integer id = index.get(name.toLowerCase(Locale.ROOT));
+		return (id == null) ? 0 : id;
+	}
+	
+	/** Test if another snapshot has the same items, prices and stations, ignoring version. */
+	public boolean sameItems(MenuSnapshot other) {
+		return Arrays.equals(names, other.names) && Arrays.equals(prices, other.prices)
+				&& Arrays.equals(stations, other.stations);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("Menu version %d with %d items", version, Math.max(0, names.length-1));
+	}
+}
@@ -0,0 +1,182 @@
+package order;
+
+/**
+ * Amounts of money as a long number of minor units (satang or cents),
+ * so prices and totals are exact and don't have floating point rounding.
+ * For example, 30.50 Baht is 3050.
+ * 
+ * This class only has static methods, so using money doesn't
+ * create any objects.
+ */
+public final class Money {
+	/** Number of minor units in one major unit (1 Baht = 100 Satang). */
+	public static final int SCALE = 100;
+	/** Number of digits after the decimal point. */
+	public static final int DECIMALS = 2;
+	
+	/** Don't allow instances. */
+	private Money() { }
+	
+	/**
+	 * Convert a decimal amount to minor units, rounded to nearest unit.
+	 * @param amount amount in major units, e.g. 30.5
+	 * @return the amount in minor units, e.g. 3050
+	 */
+	public static long of(double amount) {
+		return Math.round(amount * SCALE);
+	}
+	
+	/**
+	 * Convert minor units to a decimal amount, e.g. for display.
+	 * @param amount amount in minor units
+	 * @return the amount in major units
+	 */
+	public static double toDouble(long amount) {
+		return (double) amount / SCALE;
+	}
+	
+	/**
+	 * Price of a quantity of items.
+	 * @param unitPrice price of one item, in minor units
+	 * @param quantity number of items
+	 * @return the price in minor units
+	 * @throws ArithmeticException if the result is too big for a long
+	 */
+	public static long times(long unitPrice, int quantity) {
+		return Math.multiplyExact(unitPrice, (long) quantity);
+	}
+	
+	/**
+	 * A percentage of an amount, rounded to the nearest minor unit (half up),
+	 * without using floating point.
+	 * @param amount the amount in minor units, not negative
+	 * @param basisPoints the percentage in hundredths of a percent, e.g. 1250 is 12.5%
+	 * @return the percentage of the amount, in minor units
+	 * @throws ArithmeticException if the result is too big for a long
+	 */
+	public static long percent(long amount, int basisPoints) {
+		return (Math.multiplyExact(amount, (long) basisPoints) + 5000) / 10000;
+	}
+	
+	/**
+	 * Parse an amount such as "30", "30.5", "-2.25" or "1,200.00"
+	 * without using floating point.  Commas may only separate groups
+	 * of 3 digits before the decimal point.  Digits after the second
+	 * decimal place are rounded half away from zero, e.g. "-2.255" is -226.
+	 * @param text the amount to parse, in major units
+	 * @return the amount in minor units
+	 * @throws NumberFormatException if text is not a valid amount
+	 */
+	public static long parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+	
+	/**
+	 * Parse an amount in part of a CharSequence, from start (inclusive) to end (exclusive).
+	 * Leading and trailing spaces are ignored.
+	 * @see #parse(CharSequence)
+	 */
+	public static long parse(CharSequence text, int start, int end) {
+		while(start < end && text.charAt(start) <= ' ') start++;
+		while(end > start && text.charAt(end-1) <= ' ') end--;
+		boolean negative = false;
+		if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+')) {
+			negative = text.charAt(start) == '-';
+			start++;
+		}
+		long value = 0;
+		int decimals = -1; // number of digits after the '.', -1 if no '.'
+		boolean digits = false;
+		boolean roundUp = false;
+		// digits since the last comma before the '.', and whether there was a comma
+		int group = 0;
+		boolean grouped = false;
+		for(int k=start; k<end; k++) {
+			char c = text.charAt(k);
+			if (c >= '0' && c <= '9') {
+				digits = true;
+				if (decimals < 0) group++;
+				if (decimals < DECIMALS) {
+					value = Math.addExact(Math.multiplyExact(value, 10), c - '0');
+					if (decimals >= 0) decimals++;
+				}
+				else if (decimals == DECIMALS) {
+					// first extra digit decides the rounding
+					roundUp = c >= '5';
+					decimals++;
+				}
+			}
+			else if (c == '.' && decimals < 0) {
+				if (grouped && group != 3) throw new NumberFormatException("Invalid amount: "+text.subSequence(start, end));
+				decimals = 0;
+			}
+			else if (c == ',' && decimals < 0 && group > 0 && (grouped ? group == 3 : group <= 3)) {
+				grouped = true;
+				group = 0;
+			}
+			else throw new NumberFormatException("Invalid amount: "+text.subSequence(start, end));
+		}
+		if (decimals < 0 && grouped && group != 3) throw new NumberFormatException("Invalid amount: "+text.subSequence(start, end));
+		if (! digits) throw new NumberFormatException("Invalid amount: "+text.subSequence(start, end));
+		for(int k = Math.max(decimals, 0); k < DECIMALS; k++) value = Math.multiplyExact(value, 10);
+		if (roundUp) value++;
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Format an amount with thousands separators and 2 decimal places, e.g. "1,200.50".
+	 * @param amount amount in minor units
+	 * @return the formatted amount
+	 */
+	public static String format(long amount) {
+		return appendTo(new StringBuilder(16), amount).toString();
+	}
+	
+	/**
+	 * Append a formatted amount to a StringBuilder, without creating a String.
+	 * @param sb where to append the amount
+	 * @param amount amount in minor units
+	 * @return the StringBuilder
+	 * @see #format(long)
+	 */
+	public static StringBuilder appendTo(StringBuilder sb, long amount) {
+		return append(sb, amount, true);
+	}
+	
+	/**
+	 * Append an amount without thousands separators, e.g. "1200.50",
+	 * for data formats such as JSON.
+	 * @param sb where to append the amount
+	 * @param amount amount in minor units
+	 * @return the StringBuilder
+	 */
+	public static StringBuilder appendPlain(StringBuilder sb, long amount) {
+		return append(sb, amount, false);
+	}
+	
+	private static StringBuilder append(StringBuilder sb, long amount, boolean grouped) {
+		// take the sign off after dividing, so Long.MIN_VALUE doesn't overflow
+		long major = Math.abs(amount / SCALE);
+		int minor = (int) Math.abs(amount % SCALE);
+		if (amount < 0) sb.append('-');
+		if (grouped) appendGrouped(sb, major);
+		else sb.append(major);
+		sb.append('.');
+		for(int digit = SCALE / 10; digit > 1 && minor < digit; digit /= 10) sb.append('0');
+		return sb.append(minor);
+	}
+	
+	/** Append a non-negative number with a comma every 3 digits. */
+	private static void appendGrouped(StringBuilder sb, long value) {
+		if (value < 1000) {
+			sb.append(value);
+			return;
+		}
+		appendGrouped(sb, value / 1000);
+		int rest = (int)(value % 1000);
+		sb.append(',');
+		if (rest < 100) sb.append('0');
+		if (rest < 10) sb.append('0');
+		sb.append(rest);
+	}
+}
@@ -1,10 +1,30 @@
 package order;
 import java.time.LocalDateTime;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import menu.MenuSnapshot;
+import promo.PromotionIndex;
 
 /**
  * Encapsulate information about a customer order.
  * 
+ * The order contains one OrderItem for each menu item that was ordered,
+ * so the cost of most methods depends on the number of lines in the
+ * order (usually a few), not on the size of the menu.
+ * Prices are in minor units (see Money).  The price of the lines and number
+ * of items are updated whenever items are added or removed, so
+ * getSubtotal(), getItemCount() and isEmpty() don't need to compute anything.
+ * The discount is computed by the promotions of the menu (see PromotionIndex),
+ * when it is first needed after the order changes.
+ * A happy hour discount uses the order's timestamp, or the current time 
+ * if the order has no timestamp yet.
+ * 
+ * An order uses the MenuSnapshot it was created with, even if the
+ * menu is changed while the order is being taken.  getMenuVersion()
+ * tells which version of the menu the order was priced with.
+ * 
  * @author Fatalai Jon
  */
 public class Order {
@@ -12,22 +32,43 @@ public class Order {
 	private long orderNumber = 0L; // no order number yet
 	/** date and time the order was completed and sent to Restaurant. */
 	private LocalDateTime timestamp;
-	/** quantities of items in the order. */
-	private int[] items;
+	/** lines in the order, one per menu item. Never contains 0 quantity. */
+	private final List<OrderItem> lines = new ArrayList<>(4);
+	/** total price of all lines, in minor units. */
+	private long total = 0L;
+	/** discount from promotions, if discountKnown. */
+	private long discount = 0L;
+	/** true if discount is up to date. */
+	private boolean discountKnown = false;
+	/** true if discount was set by setDiscount, so promotions are not used. */
+	private boolean discountFixed = false;
+	/** coupon codes given with the order. */
+	private List<String> coupons = Collections.emptyList();
+	/** total quantity of all lines. */
+	private int itemCount = 0;
 	/** reference to the items and prices. */
-	private String[] menuItems;
+	private final MenuSnapshot menu;
+	/** name of the terminal where the order was taken, may be null. */
+	private String terminal;
+	/** key chosen by the client, the same when an order is submitted again. May be null. */
+	private String idempotencyKey;
 	
-	private double[] prices;
+	/**
+	 * Initialize a new order using a menu.
+	 * @param menu the menu items and prices for this order
+	 */
+	public Order(MenuSnapshot menu) {
+		this.menu = menu;
+		// nothing in the order yet
+	}
 	
 	/**
 	 * Initialize a new order.
+	 * @param menuItems names of the menu items
+	 * @param prices prices of the menu items in minor units
 	 */
-	public Order(String[] menuItems, double[] prices ) {
-		this.menuItems = menuItems;
-		this.prices = prices;
-		items = new int[menuItems.length];
-		// nothing in the order yet
-		java.util.Arrays.fill(items, 0);
+	public Order(String[] menuItems, long[] prices ) {
+		this( new MenuSnapshot(0L, menuItems, prices) );
 	}
 	
 	/**
@@ -37,25 +78,67 @@ public class Order {
 	 * @return true if added, false otherwise.
 	 */
 	public boolean addItem(int id, int quantity) {
+		if (! menu.contains(id)) {
+			System.err.println("addItem: invalid item number "+id);
+			return false;
+		}
+		return addItem(id, quantity, menu.getPrice(id));
+	}
+	
+	/**
+	 * Add a quantity of some menu item with a given unit price.
+	 * This is used to recreate saved orders, where the unit price
+	 * may be different from the current menu price.
+	 * If the item is already in the order, the quantity is added
+	 * to the existing line and the unit price is not changed.
+	 * @param id the id number of menu item to add
+	 * @param quantity number of units to add
+	 * @param unitPrice price of one unit when the item was ordered, in minor units
+	 * @return true if added, false otherwise.
+	 */
+	public boolean addItem(int id, int quantity, long unitPrice) {
 		if (quantity <= 0) return false; // invalid
-		if (id < 0 || id >= items.length) {
+		if (id < 0) {
 			System.err.println("addItem: invalid item number "+id);
 			return false;
 		}
-		items[id] += quantity;
+		OrderItem line = findLine(id);
+		if (line != null) {
+			line.quantity += quantity;
+		}
+		else {
+			String name = menu.contains(id) ? menu.getName(id) : "Item "+id;
+			line = new OrderItem(id, name, unitPrice, quantity);
+			lines.add(line);
+		}
+		total += Money.times(line.price, quantity);
+		itemCount += quantity;
+		changed();
 		return true;
 	}
 	
+	/** Find the line for a menu item, or null if not in order. */
+	private OrderItem findLine(int id) {
+		for(OrderItem line: lines) if (line.id == id) return line;
+		return null;
+	}
+	
 	/**
 	 * Remove all units of an item from the order.
 	 * @param id the id number of item to remove
 	 */
 	public void removeItem(int id) {
-		if (id < 0 || id >= items.length) {
+		if (! menu.contains(id)) {
 			System.err.println("removeItem: invalid item number "+id);
 			return;
 		}
-		items[id] = 0;
+		OrderItem line = findLine(id);
+		if (line != null) {
+			lines.remove(line);
+			total -= Money.times(line.price, line.quantity);
+			itemCount -= line.quantity;
+			changed();
+		}
 	}
 	
 	/**
@@ -67,11 +150,25 @@ public class Order {
 	 * 
 	 */
 	public void removeItem(int id, int quantity) {
-		if (id < 0 || id >= items.length) {
+		if (! menu.contains(id)) {
 			System.err.println("removeItem: invalid item number "+id);
 			return;
 		}
-		items[id] = Math.max(0, items[id] - quantity);
+		OrderItem line = findLine(id);
+		if (line == null || quantity <= 0) return;
+		if (line.quantity <= quantity) {
+			lines.remove(line);
+			quantity = line.quantity;
+		}
+		else line.quantity -= quantity;
+		total -= Money.times(line.price, quantity);
+		itemCount -= quantity;
+		changed();
+	}
+	
+	/** The discount must be computed again, unless it was set by setDiscount. */
+	private void changed() {
+		if (! discountFixed) discountKnown = false;
 	}
 	
 	/**
@@ -80,38 +177,101 @@ public class Order {
 	 * @return quantity of requested item in the order
 	 */
 	public int getQuantityOfItem(int id) {
-		if (id < 0 || id >= items.length) {
-			System.err.println("removeItem: invalid item number "+id);
-			return 0;
-		}
-		return items[id];
+		OrderItem line = findLine(id);
+		return (line != null) ? line.quantity : 0;
+	}
+	
+	/**
+	 * Return the total price of this order, after discounts.
+	 * @return the total price of order, in minor units
+	 */
+	public long getTotal() {
+		return total - getDiscount();
 	}
 	
 	/**
-	 * Compute and return the total price of this order.
-	 * @return the total price of order
-	 */
-	public double getTotal() {
-		double total = 0;
-		for(int k=0; k<items.length; k++) total += items[k]*prices[k];
-		//TODO apply any discounts
-		
+	 * Return the price of the items in this order, before discounts.
+	 * @return the price of all lines, in minor units
+	 */
+	public long getSubtotal() {
 		return total;
 	}
 	
+	/**
+	 * Return the discount from promotions for this order.
+	 * @return the discount in minor units, from 0 to getSubtotal()
+	 */
+	public long getDiscount() {
+		if (discountKnown) return discount;
+		PromotionIndex promotions = menu.getPromotions();
+		discount = promotions.discount(lines, (timestamp != null) ? timestamp : LocalDateTime.now(), coupons);
+		// a happy hour may start or end before the order gets its timestamp
+		discountKnown = timestamp != null || ! promotions.dependsOnTime();
+		return discount;
+	}
+	
+	/**
+	 * Set the discount, instead of using the promotions of the menu.
+	 * This is used to recreate saved orders with the discount they were given.
+	 * @param discount the discount, in minor units
+	 */
+	public void setDiscount(long discount) {
+		this.discount = discount;
+		discountKnown = true;
+		discountFixed = true;
+	}
+	
+	/**
+	 * Add a coupon code to the order, for promotions that need a coupon.
+	 * @param code the coupon code
+	 */
+	public void addCoupon(String code) {
+		if (coupons.isEmpty()) coupons = new ArrayList<>(2);
+		coupons.add(code);
+		changed();
+	}
+	
+	/** 
+	 * Get the coupon codes added to this order.
+	 * @return unmodifiable list of coupon codes, may be empty
+	 */
+	public List<String> getCoupons() {
+		return Collections.unmodifiableList(coupons);
+	}
+	
+	/** Get the total quantity of all items in the order. */
+	public int getItemCount() {
+		return itemCount;
+	}
+	
 	/** Test if the order is empty. */
 	public boolean isEmpty() {
-		for(int qnty: items) if (qnty > 0) return false;
-		return true;
+		return itemCount == 0;
 	}
 	
 	/** Get the ITEM IDs of menu items in this order. */
 	public int[] getItems() {
-		int[] itemIds = new int[items.length]; // worse case -- every item on menu is in order
-		int count = 0;
-		for(int k=0; k<items.length; k++) if (items[k] > 0) itemIds[count++] = k;
-		// trim array to correct size by copying it
-		return Arrays.copyOf(itemIds, count); 
+		int[] itemIds = new int[lines.size()];
+		for(int k=0; k<itemIds.length; k++) itemIds[k] = (int) lines.get(k).id;
+		return itemIds;
+	}
+	
+	/** 
+	 * Get the lines in this order, in the order they were added. 
+	 * @return unmodifiable view of the order lines
+	 */
+	public List<OrderItem> getOrderItems() {
+		return Collections.unmodifiableList(lines);
+	}
+
+	/** Get the menu used for this order. */
+	public MenuSnapshot getMenu() {
+		return menu;
+	}
+	
+	/** Get the version of the menu this order was priced with. */
+	public long getMenuVersion() {
+		return menu.getVersion();
 	}
 
 	public long getOrderNumber() {
@@ -122,8 +282,37 @@ public class Order {
 		this.orderNumber = orderNumber;
 	}
 	
+	/** Get the name of the terminal where this order was taken, or null if not known. */
+	public String getTerminal() {
+		return terminal;
+	}
+	
+	public void setTerminal(String terminal) {
+		this.terminal = terminal;
+	}
+	
+	/** 
+	 * Get the key that identifies this order if it is submitted more than once,
+	 * or null if the order has no key.
+	 */
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+	
+	/**
+	 * Set a key chosen by the client, e.g. a UUID, that is the same each time
+	 * the client submits this order.  If an order with the same key was 
+	 * recorded recently, recording this order only sets its order number 
+	 * and timestamp to those of the earlier order.
+	 * @param key the idempotency key, or null for none
+	 */
+	public void setIdempotencyKey(String key) {
+		this.idempotencyKey = key;
+	}
+	
 	public void setTimeStamp( LocalDateTime time ) {
 		this.timestamp = time;
+		changed();
 	}
 	
 	public LocalDateTime getTimeStamp() {
@@ -11,6 +11,9 @@ package order;
  * or
  * item.quantity += 1;
  * 
+ * The price is the unit price when the item was ordered,
+ * so it doesn't change if the menu price changes later.
+ * 
  * @author Fatalai Jon
  *
  */
@@ -18,24 +21,59 @@ public class OrderItem {
 	/** Item id cannot be changed. */
 	protected final long id;
 	protected String name;
-	/** price is the unit price for 1 of this item. */
-	protected double price;
+	/** price is the unit price for 1 of this item, in minor units (see Money). */
+	protected long price;
 	protected int quantity;
 	
 	/**
 	 * Initialize a new Order Item.
 	 */
-	public OrderItem(long id, String name, double price) {
+	public OrderItem(long id, String name, long price) {
 		this(id, name, price, 0);
 	}
 	
-	public OrderItem(long id, String name, double price, int quantity) {
+	public OrderItem(long id, String name, long price, int quantity) {
 		this.id = id;
 		this.name = name;
 		this.price = price;
 		this.quantity = quantity;
 	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public long getPrice() {
+		return price;
+	}
+
+	public void setPrice(long price) {
+		this.price = price;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
 	
-	
+	/** Get the price of this line, which is quantity times unit price. */
+	public long getTotal() {
+		return Money.times(price, quantity);
+	}
 
+	@Override
+	public String toString() {
+		return String.format("%d x %s @ %s", quantity, name, Money.format(price));
+	}
 }
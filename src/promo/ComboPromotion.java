@@ -0,0 +1,70 @@
+package promo;
+import java.util.List;
+
+import order.Money;
+
+/**
+ * A set of items sold together for a fixed price, e.g. pizza and ice tea
+ * for 210.00.  An item named twice must be ordered twice.  The discount is
+ * the usual price of the items minus the combo price, for each complete
+ * combo in the order.  There is no discount if the combo price isn't lower.
+ */
+public final class ComboPromotion extends Promotion {
+	private final long price;
+
+	/**
+	 * @param name name of the combo
+	 * @param items names of the items in the combo
+	 * @param price price of the combo, in minor units
+	 */
+	public ComboPromotion(String name, List<String> items, long price) {
+		super(name, items);
+		if (items.isEmpty()) throw new IllegalArgumentException("Combo "+name+" has no items");
+		if (price < 0) throw new IllegalArgumentException("Invalid price for combo "+name);
+		this.price = price;
+	}
+
+	/** Get the price of the combo, in minor units. */
+	public long getPrice() {
+		return price;
+	}
+
+	@Override
+	Rule compile(int[] itemIds) {
+		return new ComboRule(itemIds, price);
+	}
+
+	private static class ComboRule extends Rule {
+		/** Units of each item in one combo. */
+		private final int[] needed;
+		private final long price;
+
+		ComboRule(int[] itemIds, long price) {
+			super(itemIds);
+			this.price = price;
+			needed = new int[items.length];
+			for(int id: itemIds) {
+				for(int k=0; k<items.length; k++) if (items[k] == id) needed[k]++;
+			}
+		}
+
+		@Override
+		long apply(Pricing pricing) {
+			int combos = Integer.MAX_VALUE;
+			long regular = 0;
+			for(int k=0; k<items.length; k++) {
+				int line = pricing.lineOf(items[k]);
+				if (line < 0) return 0;
+				combos = Math.min(combos, pricing.remaining[line] / needed[k]);
+				if (combos == 0) return 0;
+				regular += Money.times(pricing.prices[line], needed[k]);
+			}
+			long saving = regular - price;
+			if (saving <= 0) return 0;
+			for(int k=0; k<items.length; k++) {
+				pricing.remaining[pricing.lineOf(items[k])] -= combos * needed[k];
+			}
+			return Money.times(saving, combos);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package promo;
+import java.util.List;
+
+import order.Money;
+
+/**
+ * A percent off when the order has a coupon code, either off some items
+ * or off the whole order.  A whole-order coupon is applied after all the
+ * item promotions, to the price that is left.
+ */
+public final class CouponPromotion extends Promotion {
+	private final int basisPoints;
+
+	/**
+	 * @param code the coupon code, which is not case sensitive
+	 * @param items names of the items that are discounted, or empty for the whole order
+	 * @param basisPoints the discount in hundredths of a percent, e.g. 1000 for 10%
+	 */
+	public CouponPromotion(String code, List<String> items, int basisPoints) {
+		super(code, items);
+		this.basisPoints = checkPercent(basisPoints);
+	}
+
+	@Override
+	Rule compile(int[] itemIds) {
+		String code = getName();
+		return new Rule(itemIds) {
+			@Override
+			long apply(Pricing pricing) {
+				if (! pricing.hasCoupon(code)) return 0;
+				if (items.length > 0) return pricing.percentOff(items, basisPoints);
+				return Money.percent(pricing.subtotal - pricing.discount, basisPoints);
+			}
+
+			@Override
+			String getCoupon() {
+				return code;
+			}
+		};
+	}
+}
@@ -0,0 +1,52 @@
+package promo;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * A percent off some items ordered during a time of day, e.g. 20% off
+ * drinks from 15:00 to 17:00.  The time window includes the start time
+ * and not the end time.  If the end is before the start, the window
+ * continues past midnight.
+ */
+public final class HappyHourPromotion extends Promotion {
+	private final LocalTime from;
+	private final LocalTime to;
+	private final int basisPoints;
+
+	/**
+	 * @param name name of the promotion
+	 * @param items names of the items that are discounted
+	 * @param from start of the time window
+	 * @param to end of the time window
+	 * @param basisPoints the discount in hundredths of a percent, e.g. 2000 for 20%
+	 */
+	public HappyHourPromotion(String name, List<String> items, LocalTime from, LocalTime to, int basisPoints) {
+		super(name, items);
+		if (items.isEmpty()) throw new IllegalArgumentException("Happy hour "+name+" has no items");
+		this.from = from;
+		this.to = to;
+		this.basisPoints = checkPercent(basisPoints);
+	}
+
+	/** Test if a time of day is in the time window. */
+	public boolean isActive(LocalTime time) {
+		if (from.isAfter(to)) return ! time.isBefore(from) || time.isBefore(to);
+		return ! time.isBefore(from) && time.isBefore(to);
+	}
+
+	@Override
+	Rule compile(int[] itemIds) {
+		return new Rule(itemIds) {
+			@Override
+			long apply(Pricing pricing) {
+				if (! isActive(pricing.time.toLocalTime())) return 0;
+				return pricing.percentOff(items, basisPoints);
+			}
+
+			@Override
+			boolean dependsOnTime() {
+				return true;
+			}
+		};
+	}
+}
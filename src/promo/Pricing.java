@@ -0,0 +1,71 @@
+package promo;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import order.Money;
+import order.OrderItem;
+
+/**
+ * An order being priced by the rules of a PromotionIndex:
+ * the item id, unit price, and number of units not yet discounted
+ * of each order line.
+ */
+final class Pricing {
+	final int[] ids;
+	final long[] prices;
+	/** Units of each line that no rule has discounted yet. */
+	final int[] remaining;
+	final LocalDateTime time;
+	private final List<String> coupons;
+	/** Total price of the lines. */
+	final long subtotal;
+	/** Discount of the rules applied so far. */
+	long discount;
+
+	Pricing(List<OrderItem> lines, LocalDateTime time, List<String> coupons) {
+		int n = lines.size();
+		ids = new int[n];
+		prices = new long[n];
+		remaining = new int[n];
+		long sum = 0;
+		for(int k=0; k<n; k++) {
+			OrderItem line = lines.get(k);
+			ids[k] = (int) line.getId();
+			prices[k] = line.getPrice();
+			remaining[k] = line.getQuantity();
+			sum += line.getTotal();
+		}
+		subtotal = sum;
+		this.time = time;
+		this.coupons = coupons;
+	}
+
+	/** @return index of the line for an item, or -1 if the item is not in the order */
+	int lineOf(int itemId) {
+		for(int k=0; k<ids.length; k++) if (ids[k] == itemId) return k;
+		return -1;
+	}
+
+	/** @return true if the order has a coupon code, ignoring case */
+	boolean hasCoupon(String code) {
+		for(String coupon: coupons) if (coupon.equalsIgnoreCase(code)) return true;
+		return false;
+	}
+
+	/**
+	 * Discount a percentage of the remaining units of some items, and use them up.
+	 * @param items ids of the items
+	 * @param basisPoints the percentage, in basis points
+	 * @return the discount
+	 */
+	long percentOff(int[] items, int basisPoints) {
+		long total = 0;
+		for(int id: items) {
+			int line = lineOf(id);
+			if (line < 0 || remaining[line] == 0) continue;
+			total += Money.percent(Money.times(prices[line], remaining[line]), basisPoints);
+			remaining[line] = 0;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,54 @@
+package promo;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A discount that applies to some menu items, or to a whole order.
+ * Promotions name menu items, so the same promotions can be used
+ * with each version of the menu.  PromotionIndex compiles them into
+ * rules that use the item ids of one MenuSnapshot.
+ *
+ * Amounts are in minor units and percentages are in basis points
+ * (hundredths of a percent), so discounts are exact.
+ */
+public abstract class Promotion {
+	private final String name;
+	private final List<String> items;
+
+	/**
+	 * @param name name of the promotion, or coupon code
+	 * @param items names of the menu items it applies to. Empty means the whole order.
+	 */
+	protected Promotion(String name, List<String> items) {
+		this.name = name;
+		this.items = Collections.unmodifiableList(items);
+	}
+
+	/** Get the name of this promotion. */
+	public String getName() {
+		return name;
+	}
+
+	/** Get the names of the menu items this promotion applies to. Empty if it applies to the whole order. */
+	public List<String> getItems() {
+		return items;
+	}
+
+	/**
+	 * Create the rule for this promotion on one menu.
+	 * @param itemIds menu ids of getItems(), in the same order
+	 * @return the rule
+	 */
+	abstract Rule compile(int[] itemIds);
+
+	/** Check a percentage in basis points. */
+	static int checkPercent(int basisPoints) {
+		if (basisPoints <= 0 || basisPoints > 10000) throw new IllegalArgumentException("Invalid percent "+basisPoints/100.0);
+		return basisPoints;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " " + name + " " + items;
+	}
+}
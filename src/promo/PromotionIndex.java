@@ -0,0 +1,165 @@
+package promo;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import menu.MenuSnapshot;
+import order.OrderItem;
+
+/**
+ * Promotions compiled for one MenuSnapshot, indexed by item id, so pricing
+ * an order only looks at the promotions for items that are in the order,
+ * not at every promotion.  Promotions for the whole order are indexed by
+ * coupon code.
+ *
+ * Pricing is deterministic: rules are applied in the order the promotions
+ * were given, and each unit of an item is discounted by at most one rule.
+ * Whole-order coupons are applied last.  The discount never exceeds
+ * the order's price.
+ *
+ * The index is immutable, so it can be used by many threads.
+ */
+public final class PromotionIndex {
+	/** An index without promotions. */
+	public static final PromotionIndex EMPTY = new PromotionIndex(Collections.emptyList(), new Rule[0], new int[0][], Collections.emptyMap());
+
+	private static final int[] NONE = new int[0];
+
+	private final List<Promotion> promotions;
+	/** Rules in the order the promotions were given. */
+	private final Rule[] rules;
+	/** For each item id, the numbers of the rules for that item, in increasing order. */
+	private final int[][] byItem;
+	/** For each coupon code (upper case), the numbers of whole-order rules with that code. */
+	private final Map<String,int[]> byCoupon;
+	private final boolean timed;
+
+	private PromotionIndex(List<Promotion> promotions, Rule[] rules, int[][] byItem, Map<String,int[]> byCoupon) {
+		this.promotions = promotions;
+		this.rules = rules;
+		this.byItem = byItem;
+		this.byCoupon = byCoupon;
+		boolean anyTimed = false;
+		for(Rule rule: rules) anyTimed |= rule.dependsOnTime();
+		this.timed = anyTimed;
+	}
+
+	/**
+	 * Compile promotions for a menu.  Promotions that name an item not on
+	 * the menu are not used.  Item names are not case sensitive.
+	 * @param promotions the promotions, in the order they are applied
+	 * @param menu the menu
+	 * @return the index
+	 */
+	public static PromotionIndex compile(List<Promotion> promotions, MenuSnapshot menu) {
+		if (promotions.isEmpty()) return EMPTY;
+		Map<String,Integer> ids = new HashMap<>(2*menu.size());
+		// item 0 is not a real item
+		for(int id=menu.size()-1; id>0; id--) ids.put(menu.getName(id).toLowerCase(Locale.ROOT), id);
+		List<Rule> rules = new ArrayList<>(promotions.size());
+		List<Promotion> used = new ArrayList<>(promotions.size());
+		int[] counts = new int[menu.size()];
+		Map<String,List<Integer>> coupons = new HashMap<>();
+		for(Promotion promotion: promotions) {
+			List<String> names = promotion.getItems();
+			int[] itemIds = new int[names.size()];
+			for(int k=0; k<itemIds.length; k++) {
+				Integer id = ids.get(names.get(k).toLowerCase(Locale.ROOT));
+				itemIds[k] = (id != null) ? id : -1;
+			}
+			if (Arrays.stream(itemIds).anyMatch(id -> id < 0)) continue; // not on this menu
+			Rule rule = promotion.compile(itemIds);
+			if (rule.items.length == 0) {
+				coupons.computeIfAbsent(rule.getCoupon().toUpperCase(Locale.ROOT), k -> new ArrayList<>()).add(rules.size());
+			}
+			for(int id: rule.items) counts[id]++;
+			rules.add(rule);
+			used.add(promotion);
+		}
+		int[][] byItem = new int[menu.size()][];
+		for(int id=0; id<byItem.length; id++) byItem[id] = (counts[id] == 0) ? NONE : new int[counts[id]];
+		Arrays.fill(counts, 0);
+		for(int r=0; r<rules.size(); r++) {
+			for(int id: rules.get(r).items) byItem[id][counts[id]++] = r;
+		}
+		Map<String,int[]> byCoupon = new HashMap<>();
+		for(Map.Entry<String,List<Integer>> entry: coupons.entrySet()) {
+			byCoupon.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+		}
+		return new PromotionIndex(Collections.unmodifiableList(used), rules.toArray(new Rule[0]), byItem, byCoupon);
+	}
+
+	/**
+	 * Compute the discount for an order.
+	 * @param lines the lines of the order
+	 * @param time when the order is made, for promotions at certain times
+	 * @param coupons coupon codes given with the order
+	 * @return the discount, in minor units, from 0 to the price of the lines
+	 */
+	public long discount(List<OrderItem> lines, LocalDateTime time, List<String> coupons) {
+		if (rules.length == 0 || lines.isEmpty()) return 0;
+		// numbers of the rules for the items in the order
+		int count = 0;
+		for(OrderItem line: lines) {
+			long id = line.getId();
+			if (id >= 0 && id < byItem.length) count += byItem[(int) id].length;
+		}
+		if (count == 0 && (coupons.isEmpty() || byCoupon.isEmpty())) return 0;
+		int[] candidates = new int[count];
+		count = 0;
+		for(OrderItem line: lines) {
+			long id = line.getId();
+			if (id < 0 || id >= byItem.length) continue;
+			int[] itemRules = byItem[(int) id];
+			System.arraycopy(itemRules, 0, candidates, count, itemRules.length);
+			count += itemRules.length;
+		}
+		Arrays.sort(candidates);
+		Pricing pricing = new Pricing(lines, time, coupons);
+		int last = -1;
+		for(int r: candidates) {
+			if (r == last) continue; // a rule for more than one item in the order
+			last = r;
+			pricing.discount += rules[r].apply(pricing);
+		}
+		// coupons for the whole order, after the item promotions
+		if (! coupons.isEmpty() && ! byCoupon.isEmpty()) {
+			int[] orderRules = NONE;
+			for(String coupon: coupons) {
+				int[] more = byCoupon.get(coupon.toUpperCase(Locale.ROOT));
+				if (more == null) continue;
+				int[] merged = Arrays.copyOf(orderRules, orderRules.length + more.length);
+				System.arraycopy(more, 0, merged, orderRules.length, more.length);
+				orderRules = merged;
+			}
+			Arrays.sort(orderRules);
+			last = -1;
+			for(int r: orderRules) {
+				if (r == last) continue; // same coupon given twice
+				last = r;
+				pricing.discount += rules[r].apply(pricing);
+			}
+		}
+		return Math.min(pricing.discount, pricing.subtotal);
+	}
+
+	/** @return the promotions used by this index, in the order they are applied */
+	public List<Promotion> getPromotions() {
+		return promotions;
+	}
+
+	/** @return the number of promotions in the index */
+	public int size() {
+		return rules.length;
+	}
+
+	/** @return true if a discount may depend on the time of an order, e.g. a happy hour */
+	public boolean dependsOnTime() {
+		return timed;
+	}
+}
@@ -0,0 +1,115 @@
+package promo;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import order.Money;
+
+/**
+ * Read promotions from a text file, one per line, with fields separated by ';'.
+ * Promotions are applied in the order of the file.
+ * <pre>
+ * combo; Pizza and Tea; 210.00; Cheese Pizza, Ice Tea
+ * happyhour; Afternoon drinks; 15:00-17:00; 20%; Ice Tea, Ice Coffee
+ * coupon; SAVE10; 10%
+ * coupon; PIZZA15; 15%; Cheese Pizza, Vegetarian Pizza
+ * </pre>
+ * Items are menu item names.  A coupon without items is for the whole order.
+ * Lines starting with # are comments.
+ */
+public class PromotionReader {
+	/** Don't allow instances. */
+	private PromotionReader() { }
+
+	/**
+	 * Read a promotions file, from the classpath or the file system
+	 * (like a menu file).  Invalid lines are reported and skipped.
+	 * @param filename the promotions file
+	 * @return the promotions, or an empty list if there is no such file
+	 */
+	public static List<Promotion> read(String filename) {
+		InputStream in = PromotionReader.class.getClassLoader().getResourceAsStream(filename);
+		try {
+			if (in == null && new File(filename).isFile()) in = new FileInputStream(filename);
+		} catch (IOException ex) {
+			// handled below
+		}
+		if (in == null) return Collections.emptyList();
+		List<Promotion> promotions = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			int linenum = 0;
+			while((line = reader.readLine()) != null) {
+				linenum++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				try {
+					promotions.add(parse(line));
+				} catch (IllegalArgumentException|DateTimeParseException ex) {
+					System.err.printf("Invalid promotion in %s, line %d: %s\n", filename, linenum, ex.getMessage());
+				}
+			}
+		} catch (IOException ex) {
+			System.err.println("Error reading promotions file "+filename+": "+ex.getMessage());
+		}
+		return promotions;
+	}
+
+	/**
+	 * Parse one promotion.
+	 * @throws IllegalArgumentException if the line is not a valid promotion
+	 */
+	static Promotion parse(String line) {
+		String[] fields = line.split(";");
+		for(int k=0; k<fields.length; k++) fields[k] = fields[k].trim();
+		switch(fields[0].toLowerCase()) {
+		case "combo":
+			checkFields(fields, 4, 4);
+			return new ComboPromotion(fields[1], items(fields[3]), Money.parse(fields[2]));
+		case "happyhour":
+			checkFields(fields, 5, 5);
+			String[] times = fields[2].split("-");
+			if (times.length != 2) throw new IllegalArgumentException("Time should be like 15:00-17:00");
+			return new HappyHourPromotion(fields[1], items(fields[4]),
+					LocalTime.parse(times[0].trim()), LocalTime.parse(times[1].trim()), percent(fields[3]));
+		case "coupon":
+			checkFields(fields, 3, 4);
+			return new CouponPromotion(fields[1], (fields.length > 3) ? items(fields[3]) : Collections.emptyList(), percent(fields[2]));
+		default:
+			throw new IllegalArgumentException("Unknown kind of promotion "+fields[0]);
+		}
+	}
+
+	private static void checkFields(String[] fields, int min, int max) {
+		if (fields.length < min || fields.length > max)
+			throw new IllegalArgumentException(fields[0]+" should have "+min+" fields");
+	}
+
+	/** Parse a list of item names separated by commas. */
+	private static List<String> items(String field) {
+		List<String> items = new ArrayList<>(Arrays.asList(field.split(",")));
+		items.replaceAll(String::trim);
+		items.removeIf(String::isEmpty);
+		if (items.isEmpty()) throw new IllegalArgumentException("No items");
+		return items;
+	}
+
+	/** Parse a percentage such as "12.5%" into basis points, without floating point. */
+	private static int percent(String field) {
+		if (! field.endsWith("%")) throw new IllegalArgumentException("Percent should end with %: "+field);
+		// Money.parse gives hundredths, which are basis points of a percent
+		long basisPoints = Money.parse(field, 0, field.length()-1);
+		if (basisPoints <= 0 || basisPoints > 10000) throw new IllegalArgumentException("Invalid percent "+field);
+		return (int) basisPoints;
+	}
+}
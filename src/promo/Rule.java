@@ -0,0 +1,32 @@
+package promo;
+import java.util.Arrays;
+
+/**
+ * A promotion compiled for one menu, using item ids instead of names.
+ */
+abstract class Rule {
+	/** Distinct ids of the items the rule applies to. Empty if it applies to the whole order. */
+	final int[] items;
+
+	Rule(int[] items) {
+		this.items = Arrays.stream(items).distinct().toArray();
+	}
+
+	/**
+	 * Compute the discount of this rule for an order.  Units of items
+	 * that get a discount are used up, so no other rule discounts them.
+	 * @param pricing the order being priced
+	 * @return the discount, in minor units
+	 */
+	abstract long apply(Pricing pricing);
+
+	/** @return true if the discount depends on the time of the order */
+	boolean dependsOnTime() {
+		return false;
+	}
+
+	/** @return coupon code that must be in the order for the rule to apply, or null */
+	String getCoupon() {
+		return null;
+	}
+}
@@ -0,0 +1,243 @@
+package receipt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import menu.MenuSnapshot;
+import order.Money;
+import order.Order;
+import order.OrderItem;
+
+/**
+ * Renders the menu, orders and receipts as text, in the same layout
+ * the console UI always used, without printf.
+ *
+ * Text is built in a StringBuilder and encoded into a byte buffer that
+ * are both reused, and each menu, order or receipt is written to the
+ * output using a single write.  An order only renders the lines that
+ * were ordered, so the cost does not depend on the size of the menu.
+ *
+ * The menu is rendered once per MenuSnapshot (and charset) and the bytes
+ * are shared by all renderers, so showing the menu is just a write.
+ * Each location has its own menu, so menus are cached per snapshot and
+ * are forgotten when the snapshot is no longer used.
+ *
+ * A renderer is not thread-safe.  Use one for each terminal.
+ */
+public class ReceiptRenderer {
+	/** Width of the item name column. */
+	static final int NAME_WIDTH = 24;
+	private static final String NEWLINE = System.lineSeparator();
+
+	/** Rendered menus by snapshot and charset. Weak keys, so old menus are removed. */
+	private static final Map<MenuSnapshot,Map<Charset,byte[]>> menus = 
+			Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final Charset charset;
+	private final CharsetEncoder encoder;
+	private final StringBuilder text = new StringBuilder(512);
+	private ByteBuffer bytes = ByteBuffer.allocate(1024);
+
+	/**
+	 * Create a renderer.
+	 * @param charset charset of the output, e.g. of the terminal
+	 */
+	public ReceiptRenderer(Charset charset) {
+		this.charset = charset;
+		this.encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Write the menu, followed by a blank line.
+	 * @param menu the menu to write
+	 * @param out where to write the menu
+	 */
+	public void writeMenu(MenuSnapshot menu, OutputStream out) throws IOException {
+		out.write(menuBytes(menu));
+		out.flush();
+	}
+
+	/** Get the rendered menu, rendering it if the menu has changed. */
+	private byte[] menuBytes(MenuSnapshot menu) {
+		Map<Charset,byte[]> rendered = menus.computeIfAbsent(menu, m -> new ConcurrentHashMap<>());
+		byte[] menuText = rendered.get(charset);
+		if (menuText != null) return menuText;
+		text.setLength(0);
+		// Item 0 is not used so that item numbers start at 1.
+		for(int k=1; k<menu.size(); k++) appendMenuItem(text, k, menu.getName(k), menu.getPrice(k));
+		// add a blank line for readability
+		text.append(NEWLINE);
+		menuText = copyOf(encode(text));
+		rendered.put(charset, menuText);
+		return menuText;
+	}
+
+	/**
+	 * Write the lines of an order and the total price.
+	 * @param order the order to write
+	 * @param out where to write the order
+	 */
+	public void writeOrder(Order order, OutputStream out) throws IOException {
+		text.setLength(0);
+		appendOrder(text, order);
+		write(out);
+	}
+
+	/**
+	 * Write a receipt for a recorded order.
+	 * @param restaurantName name printed at the top of the receipt
+	 * @param order the order, after it has an order number and timestamp
+	 * @param out where to write the receipt
+	 * @return the receipt text, e.g. for a ReceiptSpool, which is only
+	 *    valid until this renderer is used again
+	 */
+	public CharSequence writeReceipt(String restaurantName, Order order, OutputStream out) throws IOException {
+		renderReceipt(restaurantName, order);
+		write(out);
+		return text;
+	}
+
+	/**
+	 * Render a receipt without writing it.
+	 * @return the receipt text, which is only valid until this renderer is used again
+	 */
+	public CharSequence renderReceipt(String restaurantName, Order order) {
+		text.setLength(0);
+		text.append(restaurantName).append(NEWLINE);
+		text.append("Order No:   ").append(order.getOrderNumber()).append('\n');
+		text.append("Date/Time:  ");
+		appendTime(text, order.getTimeStamp());
+		text.append('\n').append(NEWLINE);
+		appendOrder(text, order);
+		return text;
+	}
+
+	/**
+	 * Append one menu item as "[id] name price", with a newline.
+	 * Also used to show the items that match a name.
+	 */
+	public static StringBuilder appendMenuItem(StringBuilder sb, int id, String name, long price) {
+		sb.append('[');
+		appendRight(sb, id, 2).append("] ");
+		appendName(sb, name).append(' ');
+		int start = sb.length();
+		Money.appendTo(sb, price);
+		return padLeft(sb, start, 6).append(NEWLINE);
+	}
+
+	/** Append the order lines and total, or a message if the order is empty. */
+	static void appendOrder(StringBuilder sb, Order order) {
+		sb.append("Item# ");
+		appendName(sb, "Description").append(" Qnty   Price").append(NEWLINE);
+		// only the items in the order, not the whole menu
+		for(OrderItem item: order.getOrderItems()) {
+			appendRight(sb, item.getId(), 3).append("   ");
+			appendName(sb, item.getName()).append("  ");
+			appendRight(sb, item.getQuantity(), 3).append("  ");
+			int start = sb.length();
+			Money.appendTo(sb, item.getTotal());
+			padLeft(sb, start, 7).append(NEWLINE);
+		}
+		if (! order.isEmpty()) {
+			long discount = order.getDiscount();
+			if (discount != 0) {
+				appendTotal(sb, "Subtotal", order.getSubtotal());
+				appendTotal(sb, "Discount", -discount);
+			}
+			appendTotal(sb, "Total Price", order.getTotal()).append(NEWLINE);
+		}
+		else
+			sb.append("No items in order").append(NEWLINE);
+	}
+
+	/** Append a line with a label and an amount in the price column. */
+	private static StringBuilder appendTotal(StringBuilder sb, String label, long amount) {
+		sb.append("      ");
+		appendName(sb, label).append("       ");
+		int start = sb.length();
+		Money.appendTo(sb, amount);
+		return padLeft(sb, start, 7).append(NEWLINE);
+	}
+
+	/** Append a name, cut or padded to the width of the name column, like %-24.24s. */
+	private static StringBuilder appendName(StringBuilder sb, String name) {
+		if (name == null) name = "null";
+		int n = Math.min(name.length(), NAME_WIDTH);
+		sb.append(name, 0, n);
+		for(int k=n; k<NAME_WIDTH; k++) sb.append(' ');
+		return sb;
+	}
+
+	/** Append a number right-aligned in a field of at least width chars, like %3d. */
+	private static StringBuilder appendRight(StringBuilder sb, long value, int width) {
+		int start = sb.length();
+		sb.append(value);
+		return padLeft(sb, start, width);
+	}
+
+	/** Pad the text appended after start with spaces on the left, to fill width chars. */
+	private static StringBuilder padLeft(StringBuilder sb, int start, int width) {
+		int pad = width - (sb.length() - start);
+		for(int k=0; k<pad; k++) sb.insert(start, ' ');
+		return sb;
+	}
+
+	/** Append the time as HH:MM:SS, like %tT. */
+	private static void appendTime(StringBuilder sb, LocalDateTime time) {
+		if (time == null) {
+			sb.append("null");
+			return;
+		}
+		append2(sb, time.getHour()).append(':');
+		append2(sb, time.getMinute()).append(':');
+		append2(sb, time.getSecond());
+	}
+
+	private static StringBuilder append2(StringBuilder sb, int value) {
+		if (value < 10) sb.append('0');
+		return sb.append(value);
+	}
+
+	/** Encode the text and write it using one write. */
+	private void write(OutputStream out) throws IOException {
+		ByteBuffer buf = encode(text);
+		out.write(buf.array(), 0, buf.limit());
+		out.flush();
+	}
+
+	/**
+	 * Encode text into the reusable byte buffer, growing it if needed.
+	 * @return the buffer, flipped so that it is ready to read
+	 */
+	private ByteBuffer encode(CharSequence chars) {
+		while(true) {
+			CharBuffer in = CharBuffer.wrap(chars);
+			encoder.reset();
+			bytes.clear();
+			CoderResult result = encoder.encode(in, bytes, true);
+			if (! result.isOverflow()) result = encoder.flush(bytes);
+			if (! result.isOverflow()) break;
+			bytes = ByteBuffer.allocate(2*bytes.capacity() + chars.length());
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	private static byte[] copyOf(ByteBuffer buf) {
+		byte[] copy = new byte[buf.remaining()];
+		buf.get(copy);
+		return copy;
+	}
+}
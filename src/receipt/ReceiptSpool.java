@@ -0,0 +1,121 @@
+package receipt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Sends receipts to a file or a printer device (e.g. /dev/usb/lp0).
+ * Receipts from all terminals are queued and written by one spool
+ * thread, which writes all the receipts waiting in the queue together
+ * using one write, so terminals never wait for the printer.
+ *
+ * Receipts are written in UTF-8.
+ */
+public class ReceiptSpool implements AutoCloseable {
+	/** Max number of receipts written in one batch. */
+	static final int MAX_BATCH = 64;
+	/** Marker that tells the spool thread to stop. */
+	private static final byte[] END = new byte[0];
+
+	private final String filename;
+	private final OutputStream out;
+	private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	private volatile boolean closed = false;
+
+	/**
+	 * Open the spool file (or device) for appending and start the spool thread.
+	 * @param filename name of the file or printer device
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ReceiptSpool(String filename) throws IOException {
+		this.filename = filename;
+		File file = new File(filename);
+		File dirpath = file.getAbsoluteFile().getParentFile();
+		if (dirpath != null && ! dirpath.exists()) dirpath.mkdirs();
+		out = new FileOutputStream(file, true);
+		writer = new Thread(this::writeLoop, "ReceiptSpool");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queue a receipt to be printed.  Doesn't wait for it to be written.
+	 * After the spool is closed (e.g. while the application shuts down)
+	 * the receipt is not printed, and the terminal carries on.
+	 * @param receipt text of the receipt
+	 */
+	public void print(CharSequence receipt) {
+		if (closed) {
+			System.err.println("Receipt spool "+filename+" is closed, receipt not printed");
+			return;
+		}
+		queue.add(receipt.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** @return number of receipts waiting to be written */
+	public int size() {
+		return queue.size();
+	}
+
+	private void writeLoop() {
+		List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+		byte[] buffer = new byte[8192];
+		while(true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				break;
+			}
+			queue.drainTo(batch, MAX_BATCH-1);
+			// copy the batch into one buffer so it is one write
+			int length = 0;
+			boolean end = false;
+			for(byte[] receipt: batch) {
+				if (receipt == END) {
+					end = true;
+					break;
+				}
+				if (length + receipt.length > buffer.length) {
+					byte[] bigger = new byte[Math.max(2*buffer.length, length + receipt.length)];
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					buffer = bigger;
+				}
+				System.arraycopy(receipt, 0, buffer, length, receipt.length);
+				length += receipt.length;
+			}
+			batch.clear();
+			if (length > 0) try {
+				out.write(buffer, 0, length);
+				out.flush();
+			} catch (IOException ex) {
+				System.err.println("Could not print receipts to "+filename+": "+ex.getMessage());
+			}
+			if (end) break;
+		}
+	}
+
+	/** Write the receipts still in the queue and close the spool file. */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		queue.add(END);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			out.close();
+		} catch (IOException ex) {
+			// ignore
+		}
+	}
+}
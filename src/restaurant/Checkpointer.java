@@ -0,0 +1,206 @@
+package restaurant;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import order.Order;
+import sales.SalesAggregator;
+
+/**
+ * Saves checkpoints of the manager's state, so a restart only needs to 
+ * read the orders saved after the last checkpoint.
+ * 
+ * A checkpoint has the order store index and end of data, and the sales figures.
+ * It is captured by the thread that records orders (this is an OrderListener)
+ * at most once per interval, and written to a file by a background thread.
+ * Before a checkpoint is written the order store is forced to disk, so a
+ * checkpoint never refers to records that are not on disk yet.
+ * The file ends with a CRC32 of its contents.  It is written to a temporary
+ * file, forced to disk, and then renamed, and the previous checkpoint is kept.
+ * If the latest checkpoint is damaged, load() uses the previous one.
+ */
+class Checkpointer implements OrderListener, AutoCloseable {
+	/** First 8 bytes of a checkpoint file. */
+	static final long MAGIC = 0x534B45434B500001L; // "SKECKP" version 1
+	static final String CURRENT = "checkpoint.dat";
+	static final String PREVIOUS = "checkpoint.prev";
+	static final String TEMP = "checkpoint.tmp";
+	
+	/** State saved in a checkpoint. Immutable. */
+	static class Checkpoint {
+		final long createdMillis;
+		final OrderStore.State store;
+		final SalesAggregator.Snapshot sales;
+		
+		Checkpoint(long createdMillis, OrderStore.State store, SalesAggregator.Snapshot sales) {
+			this.createdMillis = createdMillis;
+			this.store = store;
+			this.sales = sales;
+		}
+	}
+	
+	private final File directory;
+	private final long intervalNanos;
+	/** Captures the current state. Only called by the thread that records orders. */
+	private final Supplier<Checkpoint> capture;
+	/** Forces the records in a checkpoint to disk. */
+	private final Runnable force;
+	private long lastCapture = System.nanoTime();
+	/** Latest captured checkpoint not written yet. */
+	private final AtomicReference<Checkpoint> pending = new AtomicReference<>();
+	private final Thread writer;
+	private volatile boolean closed = false;
+	
+	/**
+	 * Create a checkpointer and start its writer thread.
+	 * @param directory where to save checkpoints
+	 * @param intervalSeconds least time between checkpoints
+	 * @param capture gets the current state
+	 * @param force forces the order store to disk, called by the writer thread
+	 */
+	Checkpointer(File directory, int intervalSeconds, Supplier<Checkpoint> capture, Runnable force) {
+		this.directory = directory;
+		this.intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+		this.capture = capture;
+		this.force = force;
+		directory.mkdirs();
+		writer = new Thread(this::writeLoop, "Checkpointer");
+		writer.setDaemon(true);
+		writer.setPriority(Thread.NORM_PRIORITY - 1);
+		writer.start();
+	}
+	
+	/**
+	 * Capture a checkpoint if the interval has passed since the last one.
+	 * @see OrderListener#orderRecorded(Order)
+	 */
+	@Override
+	public void orderRecorded(Order order) {
+		long now = System.nanoTime();
+		if (now - lastCapture < intervalNanos) return;
+		lastCapture = now;
+		pending.set( capture.get() );
+		LockSupport.unpark(writer);
+	}
+	
+	private void writeLoop() {
+		while(! closed) {
+			Checkpoint checkpoint = pending.getAndSet(null);
+			if (checkpoint == null) LockSupport.park(this);
+			else write(checkpoint);
+		}
+	}
+	
+	/** 
+	 * Write a checkpoint file, keeping the previous checkpoint. 
+	 * @return true if the checkpoint was written
+	 */
+	boolean write(Checkpoint checkpoint) {
+		try {
+			// the records the checkpoint refers to must be on disk first
+			force.run();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(MAGIC);
+			out.writeLong(checkpoint.createdMillis);
+			checkpoint.store.writeTo(out);
+			checkpoint.sales.writeTo(out);
+			CRC32 crc = new CRC32();
+			crc.update(bytes.toByteArray());
+			out.writeLong(crc.getValue());
+			out.flush();
+			Path temp = new File(directory, TEMP).toPath();
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, 
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+				while(buffer.hasRemaining()) channel.write(buffer);
+				channel.force(true);
+			}
+			Path current = new File(directory, CURRENT).toPath();
+			if (Files.exists(current)) move(current, new File(directory, PREVIOUS).toPath());
+			move(temp, current);
+			return true;
+		} catch (IOException|UncheckedIOException ex) {
+			RestaurantManager.getLogger().warning("Could not write checkpoint: "+ex.getMessage());
+			return false;
+		}
+	}
+	
+	private static void move(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+	
+	/**
+	 * Load the latest valid checkpoint.  If the latest checkpoint is
+	 * missing or damaged, the previous one is used.
+	 * @param directory where checkpoints are saved
+	 * @return the checkpoint, or null if there is no valid checkpoint
+	 */
+	static Checkpoint load(File directory) {
+		for(String name: new String[] { CURRENT, PREVIOUS }) {
+			File file = new File(directory, name);
+			if (! file.exists()) continue;
+			try {
+				return read(file);
+			} catch (IOException ex) {
+				RestaurantManager.getLogger().warning("Ignoring checkpoint "+file+": "+ex.getMessage());
+			}
+		}
+		return null;
+	}
+	
+	private static Checkpoint read(File file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		if (bytes.length < 24) throw new IOException("File is too short");
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 8);
+		if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) 
+			throw new IOException("Checksum does not match");
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+		if (in.readLong() != MAGIC) throw new IOException("Not a checkpoint file");
+		long created = in.readLong();
+		OrderStore.State store = OrderStore.State.readFrom(in);
+		SalesAggregator.Snapshot sales = SalesAggregator.Snapshot.readFrom(in);
+		if (in.available() > 0) throw new IOException("Extra data in checkpoint");
+		return new Checkpoint(created, store, sales);
+	}
+	
+	/**
+	 * Stop the writer thread and write a final checkpoint. 
+	 * Only call this after the last order is recorded, so that
+	 * the state can be captured from this thread.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pending.set(null);
+		write( capture.get() );
+	}
+}
@@ -1,23 +1,34 @@
 package restaurant;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import menu.MenuReader;
+import menu.MenuSnapshot;
+import order.Money;
 import order.Order;
 
 /**
  * RestaurantManager that reads menu data from a file and
  * writes orders to a file.
+ * 
+ * The menu is published as an immutable MenuSnapshot. If the menu file
+ * is in the file system, it is watched and reloaded when it changes,
+ * and the new snapshot replaces the old one.  Orders that were already
+ * started keep using the snapshot they were created with.  The promotions
+ * file is watched too, and a change to it also creates a new snapshot.
+ * 
+ * The files of a Location other than the default are in the location's
+ * data directory, so each location has its own journal, orders and
+ * checkpoints, and doesn't share any locks with other locations.
  *
  * @author Fatalai Jon
  */
@@ -26,98 +37,206 @@ public class FileBackedRestaurantManager extends RestaurantManager {
 	//TODO put the menu filename in a configuration file
 	static final String MENU_FILE = "data/menu.txt";
 	static final String ORDERS_LOG = "data/ske_orders.log";
+	static final String ORDERS_DIR = "data/orders";
+	static final String ORDERS_SEQUENCE = "data/ske_orders.seq";
+	static final String CHECKPOINT_DIR = "data/checkpoints";
+	/** Name of the intake queue for orders recorded using recordOrders. */
+	static final String BULK_QUEUE = "bulk";
+	/** Default seconds between checkpoints. */
+	static final int CHECKPOINT_INTERVAL = 60;
 
 	// Not static anymore! 
-	private String[] menuItems;
-	private double[] prices;
+	/** The current menu. Replaced (never modified) when the menu file changes. */
+	private volatile MenuSnapshot menu = MenuSnapshot.EMPTY;
+	/** Watches the menu file for changes. Null if not watching. */
+	private MenuWatcher menuWatcher;
+	/** Watches the promotions file for changes. Null if not watching. */
+	private MenuWatcher promotionsWatcher;
+	/** Binary store of orders, for finding orders. Null if it could not be opened. */
+	private OrderStore store;
+	/** Journal of orders, opened once and closed by shutdown(). */
+	private final OrderJournal journal;
+	/** Orders from all terminals are recorded by this queue's intake thread. */
+	private final OrderIntakeQueue<OrderJournal.Entry> intake;
+	/** Saves checkpoints of the store and sales. Null if there is no store. */
+	private Checkpointer checkpointer;
    
 	/**
 	 * Don't allow direct instantiation of this class.
 	 * Constructor is protected to allow defining subclasses.
 	 */
 	protected FileBackedRestaurantManager() {
-	    loadMenu( MENU_FILE );
-	    nextOrderNumber = new AtomicLong(1L);
+		this(Location.DEFAULT);
+	}
+	
+	/**
+	 * Create a manager for a location, using the location's files.
+	 * @param location the restaurant location
+	 */
+	protected FileBackedRestaurantManager(Location location) {
+		super(location);
+		String menuFile = location.getMenuFile(MENU_FILE);
+	    loadMenu( menuFile );
+	    watchMenu( menuFile );
+	    String durability = RestaurantConfig.get("journal.durability", "BATCH");
+	    journal = new OrderJournal( location.getFile("orders.log", ORDERS_LOG), 
+	    		OrderJournal.Durability.parse(durability), OrderJournal.Rotation.fromConfig() );
+	    File checkpointDir = new File(location.getFile("checkpoint.dir", CHECKPOINT_DIR));
+	    openStore(checkpointDir);
+	    if (store != null) {
+	    	int interval = RestaurantConfig.getInt("checkpoint.interval", CHECKPOINT_INTERVAL);
+	    	checkpointer = new Checkpointer(checkpointDir, interval, this::captureCheckpoint, store::force);
+	    	addOrderListener(checkpointer);
+	    }
+	    // don't reuse order numbers already in the store
+	    long lastSaved = (store != null) ? store.getLastOrderNumber() : 0L;
+	    orderNumbers = openOrderNumbers( location.getFile("orders.sequence", ORDERS_SEQUENCE), lastSaved );
+	    int capacity = RestaurantConfig.getInt("orders.terminalQueue", OrderIntakeQueue.DEFAULT_CAPACITY);
+	    intake = new OrderIntakeQueue<>(capacity, this::saveOrder);
 	}
 	
 			
-	/** Load menu data from a file. */
-	private void loadMenu(String filename) {
-		ClassLoader loader = this.getClass().getClassLoader();
-		InputStream in = loader.getResourceAsStream( filename );
-		// If not found, try again as name of file in file system
-		if (in == null) try {
-			in = new FileInputStream( filename );
-		} catch(FileNotFoundException nfe) {
-			// handled below
+	/**
+	 * Open the order store, starting from the latest checkpoint, and
+	 * update the sales figures with orders saved after the checkpoint.
+	 * So the time to open depends on the orders since the last
+	 * checkpoint, not on all the orders ever saved.
+	 */
+	private void openStore(File checkpointDir) {
+		long start = System.nanoTime();
+		Checkpointer.Checkpoint checkpoint = Checkpointer.load(checkpointDir);
+		try {
+			int segmentSize = RestaurantConfig.getInt("orders.segmentSize", OrderStore.DEFAULT_SEGMENT_SIZE);
+			store = new OrderStore( new File(location.getFile("orders.dir", ORDERS_DIR)), segmentSize,
+					(checkpoint != null) ? checkpoint.store : null );
+		} catch (IOException ex) {
+			System.err.println("Could not open order store: "+ex.getMessage());
+			store = null;
+			return;
 		}
-		// check that it worked
-		if (in == null) {
-			System.err.println("Could not find menu file "+filename);
+		// sales in the checkpoint are only valid if the store used the checkpoint
+		if (checkpoint != null && store.isRestored()) sales.restore(checkpoint.sales);
+		else checkpoint = null;
+		int replayed = store.replayAfterCheckpoint(menu, sales::orderRecorded);
+		getLogger().info(String.format("Opened %d orders %s, replayed %d orders in %d ms", store.size(),
+				(checkpoint != null) ? "from checkpoint" : "without checkpoint", replayed,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+	
+	/** 
+	 * Capture the state for a checkpoint. Only called by the 
+	 * intake thread, or after the intake thread stops.
+	 */
+	private Checkpointer.Checkpoint captureCheckpoint() {
+		return new Checkpointer.Checkpoint(System.currentTimeMillis(), store.getState(), sales.snapshot());
+	}
+	
+	/** 
+	 * Load menu data from a file, and publish it as a new MenuSnapshot
+	 * if it is different from the current menu.
+	 */
+	private void loadMenu(String filename) {
+		loadMenu(filename, false);
+	}
+	
+	/** 
+	 * Load menu data from a file, and publish it as a new MenuSnapshot
+	 * if it is different from the current menu or the promotions changed.
+	 * @param filename the menu file
+	 * @param promotionsChanged true if the promotions file changed
+	 */
+	private synchronized void loadMenu(String filename, boolean promotionsChanged) {
+		MenuLoadEvent event = new MenuLoadEvent();
+		event.begin();
+		long start = System.nanoTime();
+		MenuReader reader = createMenuReader(filename);
+		if (! reader.read()) return;
+		event.source = filename;
+		event.cached = reader.isFromCache();
+		event.items = reader.size();
+		event.errors = reader.getErrorCount();
+		event.version = menu.getVersion();
+		if (reader.size() == 0 && menu.size() > 0) {
+			// probably the file is being rewritten. Keep the old menu.
+			System.err.println("Menu file "+filename+" is empty, menu not changed");
+			event.commit();
 			return;
 		}
-		
-		// Temporary collections for menu data
-		List<String> menuList = new ArrayList<>();
-		List<Double> priceList = new ArrayList<>();
-
-		Scanner scanner = new Scanner(in);
-		int linecount = 0;
-		while( scanner.hasNextLine() ) {
-			String line = scanner.nextLine().trim();
-			linecount++;
-			if (line.isEmpty() || line.startsWith("#")) continue;
-			String[] args = line.split("\\s*;\\s*");
-			if (args.length != 2) {
-				menuError(MENU_FILE, linecount);
-				continue;
-			}
-			double price = 0.0;
-			try {
-				price = Double.parseDouble(args[1]);
-			} catch (NumberFormatException nfe) {
-				menuError(filename, linecount);
-				continue;
-			}
-			if (args[0].isEmpty() || menuList.contains(args[0]) || price < 0.0) {
-				menuError(filename, linecount);
-			}
-			else {
-				menuList.add( args[0] );
-				priceList.add( price );
-			}
+		MenuSnapshot newMenu = reader.toSnapshot(menu.getVersion()+1);
+		if (! promotionsChanged && newMenu.sameItems(menu)) {
+			event.commit();
+			return;
 		}
-		// close resource when done to free resources
-		scanner.close();
-		// Add a dummy item at the beginning of lists so that 
-		// the indices of real menu items start at 1, not 0.
-		menuList.add(0, "No item");
-		priceList.add(0, 0.0);
-		menuItems = new String[menuList.size()];
-		prices = new double[priceList.size()];
-		menuList.toArray(menuItems);
-		// manual copy List<Double> to primitives
-		for(int k=0; k<priceList.size(); k++) prices[k] = priceList.get(k);
+		newMenu = addPromotions(newMenu);
+		// publish the new menu. Orders in progress keep the old one.
+		menu = newMenu;
+		event.version = newMenu.getVersion();
+		event.changed = true;
+		event.commit();
+		getLogger().info(String.format("Loaded %s%s in %d ms", newMenu, reader.isFromCache() ? " from cache" : "",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		// create the search index in the background, so showing the menu doesn't wait for it
+		ForkJoinPool.commonPool().execute(newMenu::getSearchIndex);
 	}
-
-	private void menuError(String filename, int linenum) {
-		System.err.printf("Invalid menu data in %s, line %d\n", filename, linenum);
+	
+	/** 
+	 * Create a reader for the menu file, using the menu.parallel setting
+	 * (true, false, or auto to parse large files in parallel) and the
+	 * menu.cache setting (true to use a binary cache of the menu file).
+	 * This is also used by other RestaurantManagers to initialize a menu.
+	 */
+	static MenuReader createMenuReader(String filename) {
+		String mode = RestaurantConfig.get("menu.parallel", "auto");
+		Boolean parallel = mode.equalsIgnoreCase("auto") ? null : Boolean.valueOf(mode);
+		boolean cache = Boolean.parseBoolean(RestaurantConfig.get("menu.cache", "true"));
+		return new MenuReader(filename).setParallel(parallel).setCache(cache);
 	}
 	
-	/**
-	 * @see RestaurantManager#getMenuItems()
+	/** 
+	 * Watch the menu file and the promotions file and reload the menu
+	 * when either changes, if they are files.
 	 */
-	@Override
-	public String[] getMenuItems() {
-		return menuItems;
+	private void watchMenu(String filename) {
+		Path path = findMenuPath(filename);
+		if (path == null) return;
+		try {
+			menuWatcher = new MenuWatcher(path, () -> loadMenu(filename) );
+		} catch (IOException ex) {
+			getLogger().warning("Cannot watch menu file "+path+": "+ex.getMessage());
+		}
+		Path promotions = findMenuPath(getPromotionsFile());
+		if (promotions == null) return;
+		try {
+			promotionsWatcher = new MenuWatcher(promotions, () -> loadMenu(filename, true) );
+		} catch (IOException ex) {
+			getLogger().warning("Cannot watch promotions file "+promotions+": "+ex.getMessage());
+		}
 	}
-
+	
+	/** 
+	 * Find the menu file in the file system, looking in the same places as readMenu.
+	 * @return path of the menu file, or null if it is not a file (e.g. inside a jar)
+	 */
+	private static Path findMenuPath(String filename) {
+		URL url = FileBackedRestaurantManager.class.getClassLoader().getResource(filename);
+		if (url != null) {
+			if (! "file".equals(url.getProtocol())) return null;
+			try {
+				return Paths.get(url.toURI());
+			} catch (URISyntaxException|IllegalArgumentException ex) {
+				return null;
+			}
+		}
+		File file = new File(filename);
+		return file.exists() ? file.toPath() : null;
+	}
+	
 	/**
-	 * @see RestaurantManager#getPrices()
+	 * @see RestaurantManager#getMenu()
 	 */
 	@Override
-	public double[] getPrices() {
-		return prices;
+	public MenuSnapshot getMenu() {
+		return menu;
 	}
 
 
@@ -125,66 +244,138 @@ public class FileBackedRestaurantManager extends RestaurantManager {
 	public static void main(String[] args) {
 		RestaurantManager rm = new FileBackedRestaurantManager();
 		String[] menu = rm.getMenuItems();
-		double[] prices = rm.getPrices();
+		long[] prices = rm.getPrices();
 
 		for(int k=0; k<menu.length; k++) {
-			System.out.printf("%-24.24s  %,7.2f\n", menu[k], prices[k]);
+			System.out.printf("%-24.24s  %7s\n", menu[k], Money.format(prices[k]));
 		}
 	}
 	
 	/**
 	 * Record an order.  Set the order number and timestamp.
+	 * This can be called by many threads (terminals) at the same time.
+	 * The order is recorded by the intake thread, and this method waits
+	 * until the order is recorded and written to the journal.
+	 * An order with the same idempotency key as a recent order is
+	 * not recorded again; it gets the earlier order's number.
 	 * @param order
 	 */
 	public void recordOrder(Order order) {
-		// assign order number
-		order.setOrderNumber( getNextOrderNumber() );
-		order.setTimeStamp( LocalDateTime.now() );
-		
-		PrintStream log = getLog();
-		log.printf("Order No. %d\nReceived %tT\n", order.getOrderNumber(), order.getTimeStamp() );
-		log.println();
-	}
-	
-	private PrintStream getLog() {
-		final boolean append = true; // append to the output file
-		final boolean autoFlush = true; // automatically flush output to file each time \n is seen
+		if (isRetry(order)) return;
+		OrderRecordedEvent event = new OrderRecordedEvent();
+		event.begin();
+		long start = System.nanoTime();
+		OrderJournal.Entry entry;
 		try {
-			// make sure the path to file exists
-			File file = new File(ORDERS_LOG);
-			if (! file.exists() ) {
-				String path = file.getParent();
-				if (path != null && ! path.isEmpty()) {
-					File dirpath = new File(path);
-					dirpath.mkdirs();
-				}
-			}
-			FileOutputStream out = new FileOutputStream(ORDERS_LOG, append);
-			PrintStream pout = new PrintStream(out, autoFlush);
-			return pout;
-		} catch (FileNotFoundException|SecurityException ex) {
-			System.err.println("Exception opening log file "+ORDERS_LOG);
-			System.err.println(ex.getMessage());
+			entry = intake.submit(order);
+			journal.await(entry);
+		} catch (InterruptedException e) {
+			keyFailed(order);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while submitting order");
+		} catch (RuntimeException ex) {
+			keyFailed(order);
+			throw ex;
 		}
-		// Try using a temp file instead
-		int k = ORDERS_LOG.lastIndexOf('.');
-		String suffix = (k>0)? ORDERS_LOG.substring(k+1) : "log";
-		String prefix = (k>0)? ORDERS_LOG.substring(0,k-1) : ORDERS_LOG;
+		keyRecorded(order);
+		stats.orderRecorded(start);
+		event.commit(order);
+	}
+	
+	/**
+	 * Record many orders, in the order of the list.  All the orders are
+	 * queued for the intake thread together, so this only waits once for
+	 * the orders to be recorded and written, not once for each order.
+	 * Live terminals still take turns with these orders.
+	 * Bulk orders are not included in the order statistics.
+	 * @param orders the orders to record
+	 */
+	@Override
+	public void recordOrders(List<Order> orders) {
+		List<OrderJournal.Entry> entries;
 		try {
-			File templog = File.createTempFile(prefix, suffix);
-			PrintStream pout = new PrintStream(templog);
-			return pout;
+			entries = intake.submitAll(BULK_QUEUE, orders);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while submitting orders");
+		}
+		for(OrderJournal.Entry entry: entries) journal.await(entry);
+	}
+	
+	/**
+	 * Remove the intake queue of a terminal whose session ended.
+	 * @see RestaurantManager#terminalClosed(String)
+	 */
+	@Override
+	public void terminalClosed(String terminal) {
+		intake.removeTerminal(terminal);
+	}
+	
+	/** 
+	 * Assign order number and timestamp and save the order.
+	 * Only called by the intake thread, so orders are saved in the
+	 * store in order of order number without locking, and listeners
+	 * are notified from one thread.
+	 * @return the journal entry, which the caller can wait for
+	 * @throws IllegalStateException if the order could not be saved in the store
+	 */
+	private OrderJournal.Entry saveOrder(Order order) {
+		super.recordOrder(order);
+		if (store != null) try {
+			store.append(order);
 		} catch (IOException ex) {
-			System.err.println("Could not create temp file for orders log.");
-			System.err.println(ex.getMessage());
+			// fail the ticket, so the caller knows the order was not saved
+			throw new IllegalStateException("Could not save order "+order.getOrderNumber()+": "+ex.getMessage(), ex);
 		}
-		// Log to console as last resort!
-		return System.out;
+		fireOrderRecorded(order);
+		return journal.enqueue( order.getOrderNumber(), order.getTimeStamp(),
+				String.format("Order No. %d\nReceived %tT\n\n", order.getOrderNumber(), order.getTimeStamp()) );
+	}
+	
+	/**
+	 * @see RestaurantManager#findOrder(long)
+	 */
+	@Override
+	public Order findOrder(long orderNumber) {
+		if (store == null) return null;
+		return store.find(orderNumber, menu);
+	}
+	
+	/**
+	 * @see RestaurantManager#ordersBetween(LocalDateTime, LocalDateTime)
+	 */
+	@Override
+	public List<Order> ordersBetween(LocalDateTime from, LocalDateTime to) {
+		if (store == null) return Collections.emptyList();
+		return store.findBetween(from, to, menu);
 	}
 	
 	@Override
 	public void shutdown() {
 		// Flush and Close files
+		if (menuWatcher != null) menuWatcher.close();
+		if (promotionsWatcher != null) promotionsWatcher.close();
+		intake.close();
+		// no more orders, so the final checkpoint can be captured here
+		if (checkpointer != null) checkpointer.close();
+		journal.close();
+		if (store != null) store.close();
+		super.shutdown();
+	}
+	
+	@Override
+	int getIntakeQueueDepth() {
+		return (intake != null) ? intake.size() : 0;
+	}
+	
+	@Override
+	int getWriteQueueDepth() {
+		return (journal != null) ? journal.getQueueDepth() : 0;
+	}
+	
+	@Override
+	long getJournalBytesWritten() {
+		return (journal != null) ? journal.getBytesWritten() : 0;
 	}
 
 }
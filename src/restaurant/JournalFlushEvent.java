@@ -0,0 +1,27 @@
+package restaurant;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for writing a group of records to the order journal,
+ * including the fsync if the durability requires it.
+ */
+@Name("ske.restaurant.JournalFlush")
+@Label("Journal Flush")
+@Category("SKE Restaurant")
+@Description("A group of orders was written to the order journal")
+@StackTrace(false)
+class JournalFlushEvent extends Event {
+	@Label("Records")
+	int records;
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+	@Label("Durability")
+	String durability;
+}
@@ -0,0 +1,272 @@
+package restaurant;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The list of segments of the orders journal, saved in a text file
+ * next to the journal (e.g. data/ske_orders.manifest), with one line per
+ * segment: file name, first and last order number, first and last
+ * order time, business day, size, state (active, closed or compressed),
+ * and the business day the segment was closed.
+ * The business day of a segment is the day its records were written,
+ * which for imported orders may differ from the day of the orders.
+ *
+ * Readers use the manifest to find the segment with a given order number
+ * or business day, so they only open (and decompress) that segment.
+ *
+ * The manifest is updated by the journal writer thread and by the
+ * compression thread, so its methods are synchronized.
+ */
+public class JournalManifest {
+	/** State of a segment. */
+	public enum State { ACTIVE, CLOSED, COMPRESSED }
+
+	/** One segment of the journal. */
+	public static class Segment {
+		String file;
+		long firstOrder;
+		long lastOrder;
+		LocalDateTime firstTime;
+		LocalDateTime lastTime;
+		LocalDate day;
+		long bytes;
+		State state;
+		/** Business day the segment was closed, or null if it is active. */
+		LocalDate closed;
+
+		Segment(String file, LocalDate day) {
+			this.file = file;
+			this.day = day;
+			this.state = State.ACTIVE;
+		}
+
+		/** Update the order numbers and times for a record in this segment. */
+		void add(long orderNumber, LocalDateTime time, int length) {
+			if (orderNumber > 0) {
+				if (firstOrder == 0) firstOrder = orderNumber;
+				lastOrder = orderNumber;
+			}
+			if (time != null) {
+				if (firstTime == null) firstTime = time;
+				lastTime = time;
+			}
+			bytes += length;
+		}
+
+		/** @return name of the segment file, relative to the manifest's directory */
+		public String getFile() {
+			return file;
+		}
+
+		/** @return first order number in the segment, or 0 if not known */
+		public long getFirstOrder() {
+			return firstOrder;
+		}
+
+		/** @return last order number in the segment, or 0 if not known */
+		public long getLastOrder() {
+			return lastOrder;
+		}
+
+		/** @return the business day the segment's records were written */
+		public LocalDate getDay() {
+			return day;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/** @return true if the segment contains an order number */
+		public boolean contains(long orderNumber) {
+			return firstOrder > 0 && firstOrder <= orderNumber && (orderNumber <= lastOrder || state == State.ACTIVE);
+		}
+
+		@Override
+		public String toString() {
+			return String.join("\t", file, Long.toString(firstOrder), Long.toString(lastOrder),
+					String.valueOf(firstTime), String.valueOf(lastTime), String.valueOf(day),
+					Long.toString(bytes), state.name().toLowerCase(), String.valueOf(closed));
+		}
+
+		static Segment parse(String line) {
+			String[] fields = line.split("\t");
+			// manifests written before segments had a closed day have 8 fields
+			if (fields.length != 8 && fields.length != 9) throw new IllegalArgumentException("Invalid segment: "+line);
+			Segment segment = new Segment(fields[0], parseDate(fields[5]));
+			segment.firstOrder = Long.parseLong(fields[1]);
+			segment.lastOrder = Long.parseLong(fields[2]);
+			segment.firstTime = parseTime(fields[3]);
+			segment.lastTime = parseTime(fields[4]);
+			segment.bytes = Long.parseLong(fields[6]);
+			segment.state = State.valueOf(fields[7].toUpperCase());
+			segment.closed = (fields.length > 8) ? parseDate(fields[8]) : null;
+			if (segment.closed == null && segment.state != State.ACTIVE) segment.closed = segment.day;
+			return segment;
+		}
+
+		private static LocalDateTime parseTime(String s) {
+			return s.equals("null") ? null : LocalDateTime.parse(s);
+		}
+
+		private static LocalDate parseDate(String s) {
+			return s.equals("null") ? null : LocalDate.parse(s);
+		}
+	}
+
+	private final File file;
+	/** Segments, oldest first. The active segment is last. */
+	private final List<Segment> segments = new ArrayList<>();
+
+	private JournalManifest(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Read a manifest file.  If the file doesn't exist, the manifest is empty.
+	 * Lines that are not valid are skipped.
+	 * @param file the manifest file
+	 * @return the manifest
+	 */
+	public static JournalManifest load(File file) {
+		JournalManifest manifest = new JournalManifest(file);
+		if (! file.exists()) return manifest;
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				try {
+					manifest.segments.add(Segment.parse(line));
+				} catch (RuntimeException ex) {
+					RestaurantManager.getLogger().warning("Ignoring line in "+file+": "+ex.getMessage());
+				}
+			}
+		} catch (IOException ex) {
+			RestaurantManager.getLogger().warning("Could not read journal manifest "+file+": "+ex.getMessage());
+		}
+		return manifest;
+	}
+
+	/**
+	 * Save the manifest.  It is written to a temporary file which then
+	 * replaces the manifest, so readers never see a partly written manifest.
+	 */
+	synchronized void save() {
+		Path temp = new File(file.getPath()+".tmp").toPath();
+		try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+			writer.write("# file\tfirstOrder\tlastOrder\tfirstTime\tlastTime\tday\tbytes\tstate\tclosed\n");
+			for(Segment segment: segments) writer.write(segment.toString()+"\n");
+		} catch (IOException ex) {
+			RestaurantManager.getLogger().warning("Could not write journal manifest "+file+": "+ex.getMessage());
+			return;
+		}
+		try {
+			Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException ex) {
+			try {
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				RestaurantManager.getLogger().warning("Could not replace journal manifest "+file+": "+e.getMessage());
+			}
+		} catch (IOException ex) {
+			RestaurantManager.getLogger().warning("Could not replace journal manifest "+file+": "+ex.getMessage());
+		}
+	}
+
+	/** @return a copy of the list of segments, oldest first */
+	public synchronized List<Segment> getSegments() {
+		return new ArrayList<>(segments);
+	}
+
+	/**
+	 * Find the segment that contains an order.
+	 * @param orderNumber the order number to find
+	 * @return the segment, or null if no segment has the order
+	 */
+	public synchronized Segment findSegment(long orderNumber) {
+		// order numbers increase, so search from the newest segment
+		for(int k=segments.size()-1; k>=0; k--) {
+			if (segments.get(k).contains(orderNumber)) return segments.get(k);
+		}
+		return null;
+	}
+
+	/**
+	 * Find the segments with orders from one business day.
+	 * @param day the business day
+	 * @return the segments for that day, oldest first
+	 */
+	public synchronized List<Segment> segmentsFor(LocalDate day) {
+		List<Segment> result = new ArrayList<>();
+		for(Segment segment: segments) if (day.equals(segment.day)) result.add(segment);
+		return result;
+	}
+
+	/**
+	 * Open a segment for reading.  A compressed segment is decompressed
+	 * while it is read.
+	 * @param segment a segment in this manifest
+	 * @return the contents of the segment
+	 * @throws IOException if the segment can't be opened
+	 */
+	public InputStream open(Segment segment) throws IOException {
+		File segmentFile = getFile(segment);
+		InputStream in = new FileInputStream(segmentFile);
+		if (segmentFile.getName().endsWith(".gz")) return new GZIPInputStream(in, 64*1024);
+		return in;
+	}
+
+	/** @return the file of a segment */
+	File getFile(Segment segment) {
+		return new File(file.getAbsoluteFile().getParentFile(), segment.file);
+	}
+
+	/** @return the active segment, or null if there isn't one */
+	synchronized Segment getActive() {
+		if (segments.isEmpty()) return null;
+		Segment last = segments.get(segments.size()-1);
+		return (last.state == State.ACTIVE) ? last : null;
+	}
+
+	synchronized void add(Segment segment) {
+		segments.add(segment);
+	}
+
+	/** Change the file name and state of a segment, e.g. after it is compressed. */
+	synchronized void update(Segment segment, String newFile, State state) {
+		segment.file = newFile;
+		segment.state = state;
+	}
+
+	/**
+	 * Remove segments that were closed on business days before a day.
+	 * @return the removed segments, whose files can be deleted
+	 */
+	synchronized List<Segment> removeBefore(LocalDate day) {
+		List<Segment> removed = new ArrayList<>();
+		Iterator<Segment> iter = segments.iterator();
+		while(iter.hasNext()) {
+			Segment segment = iter.next();
+			if (segment.state != State.ACTIVE && segment.closed != null && segment.closed.isBefore(day)) {
+				removed.add(segment);
+				iter.remove();
+			}
+		}
+		return removed;
+	}
+}
@@ -0,0 +1,136 @@
+package restaurant;
+import java.io.File;
+
+/**
+ * A restaurant location (outlet) hosted by this application.
+ * Each location has its own RestaurantManager, menu, journal, order store
+ * and order numbers, all in the location's data directory.
+ *
+ * The location number is stored in the high bits of every order number
+ * of the location, so each location hands out order numbers by itself
+ * and an order number still tells which location the order is from.
+ * There can be up to 31 locations, so order numbers fit in 53 bits.
+ * Location 0 is the default location, whose order numbers are
+ * the same as before there were locations.
+ *
+ * Settings for a location with id "airport" (see LocationRegistry):
+ * location.airport.number (1 to MAX_NUMBER, required),
+ * location.airport.name (name on receipts), location.airport.dir
+ * (default data/locations/airport), and location.airport.menu
+ * (default menu.txt in the location's directory if there is one,
+ * otherwise the shared menu file).
+ */
+public final class Location {
+	/** Bits of an order number used for the order sequence. The rest are the location number. */
+	static final int SEQUENCE_BITS = 48;
+	/** Mask for the sequence part of an order number. */
+	static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	/** 
+	 * Largest location number.  Order numbers must stay below 2^53 so 
+	 * JSON clients that use doubles (e.g. JavaScript) read them exactly.
+	 */
+	public static final int MAX_NUMBER = (1 << (53 - SEQUENCE_BITS)) - 1;
+
+	/** The default location, which uses the file names in restaurant.properties. */
+	public static final Location DEFAULT = new Location("default", 0, RestaurantManager.restaurantName, null, null);
+
+	private final String id;
+	private final int number;
+	private final String name;
+	/** Directory for the location's files, or null to use the configured file names. */
+	private final File dataDir;
+	/** Menu file, or null to use the shared menu file. */
+	private final String menuFile;
+
+	/**
+	 * Create a location.
+	 * @param id short name used in settings, e.g. "airport"
+	 * @param number location number, 1 to MAX_NUMBER, encoded in its order numbers
+	 * @param name name of the restaurant shown on receipts
+	 * @param dataDir directory for the location's journal, orders and checkpoints
+	 * @param menuFile the location's menu file, or null to use the shared menu
+	 */
+	public Location(String id, int number, String name, File dataDir, String menuFile) {
+		if (number < 0 || number > MAX_NUMBER) throw new IllegalArgumentException("Invalid location number "+number);
+		this.id = id;
+		this.number = number;
+		this.name = name;
+		this.dataDir = dataDir;
+		this.menuFile = menuFile;
+	}
+
+	/**
+	 * Create a location using the settings for a location id.
+	 * @param id the location id
+	 * @return the location
+	 * @throws IllegalArgumentException if location.{id}.number is missing or invalid
+	 */
+	public static Location fromConfig(String id) {
+		String prefix = "location." + id + ".";
+		int number = RestaurantConfig.getInt(prefix + "number", -1);
+		if (number <= 0) throw new IllegalArgumentException("Location "+id+" needs a "+prefix+"number from 1 to "+MAX_NUMBER);
+		File dir = new File(RestaurantConfig.get(prefix + "dir", "data/locations/" + id));
+		String menu = RestaurantConfig.get(prefix + "menu", null);
+		if (menu == null && new File(dir, "menu.txt").isFile()) menu = new File(dir, "menu.txt").getPath();
+		return new Location(id, number, RestaurantConfig.get(prefix + "name", RestaurantManager.restaurantName + " " + id), dir, menu);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	/** Get the name of the restaurant at this location, shown on receipts. */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the name of a file for this location.  The default location uses
+	 * the setting, or the default file name.  Other locations use a file
+	 * with the same name in the location's directory.
+	 * @param setting name of the setting for the default location, e.g. "orders.log"
+	 * @param defaultName default file name, e.g. "data/ske_orders.log"
+	 * @return the file name
+	 */
+	String getFile(String setting, String defaultName) {
+		if (dataDir == null) return RestaurantConfig.get(setting, defaultName);
+		return new File(dataDir, new File(defaultName).getName()).getPath();
+	}
+
+	/**
+	 * Get the menu file of this location.
+	 * @param sharedMenu the menu file used by locations without their own
+	 */
+	String getMenuFile(String sharedMenu) {
+		return (menuFile != null) ? menuFile : sharedMenu;
+	}
+
+	/**
+	 * Make an order number for this location.
+	 * @param sequence a number from the location's order sequence
+	 * @return the order number, with the location number in the high bits
+	 */
+	long orderNumber(long sequence) {
+		if (sequence > SEQUENCE_MASK) throw new IllegalStateException("Order numbers used up at location "+id);
+		return ((long) number << SEQUENCE_BITS) | sequence;
+	}
+
+	/** Get the location number from an order number. */
+	public static int numberOf(long orderNumber) {
+		return (int) (orderNumber >>> SEQUENCE_BITS);
+	}
+
+	/** Get the part of an order number that comes from the location's order sequence. */
+	public static long sequenceOf(long orderNumber) {
+		return orderNumber & SEQUENCE_MASK;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Location %d (%s) %s", number, id, name);
+	}
+}
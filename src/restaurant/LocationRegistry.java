@@ -0,0 +1,118 @@
+package restaurant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The restaurant locations hosted by this application, and a
+ * RestaurantManager for each one.
+ *
+ * Locations are listed in the "locations" setting, e.g.
+ * locations = downtown,airport
+ * with the settings of each location described in Location.
+ * A location's manager is created the first time it is used.
+ *
+ * Each location has its own manager with its own intake thread, journal,
+ * order store and order number sequence, so orders for different locations
+ * are recorded in parallel without sharing a lock.  After a manager is
+ * created, finding it is a lock-free map lookup.
+ */
+public class LocationRegistry {
+	private final Map<String,Location> locations;
+	private final Location[] byNumber;
+	private final Function<Location,RestaurantManager> factory;
+	private final ConcurrentHashMap<String,RestaurantManager> managers = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a registry of locations whose managers use files.
+	 * @param locations the locations. Location ids and numbers must be unique.
+	 */
+	public LocationRegistry(Collection<Location> locations) {
+		this(locations, FileBackedRestaurantManager::new);
+	}
+
+	/**
+	 * Create a registry of locations.
+	 * @param locations the locations. Location ids and numbers must be unique.
+	 * @param factory creates the manager for a location
+	 */
+	public LocationRegistry(Collection<Location> locations, Function<Location,RestaurantManager> factory) {
+		this.factory = factory;
+		Map<String,Location> map = new LinkedHashMap<>();
+		int maxNumber = 0;
+		for(Location location: locations) {
+			if (map.put(location.getId(), location) != null)
+				throw new IllegalArgumentException("Duplicate location "+location.getId());
+			maxNumber = Math.max(maxNumber, location.getNumber());
+		}
+		byNumber = new Location[maxNumber + 1];
+		for(Location location: locations) {
+			if (byNumber[location.getNumber()] != null)
+				throw new IllegalArgumentException("Duplicate location number "+location.getNumber());
+			byNumber[location.getNumber()] = location;
+		}
+		this.locations = Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Create a registry of the locations in the "locations" setting.
+	 * @return the registry, which is empty if there is no locations setting
+	 * @throws IllegalArgumentException if the settings of a location are not valid
+	 */
+	public static LocationRegistry fromConfig() {
+		List<Location> list = new ArrayList<>();
+		for(String id: RestaurantConfig.get("locations", "").split(",")) {
+			if (! id.trim().isEmpty()) list.add(Location.fromConfig(id.trim()));
+		}
+		return new LocationRegistry(list);
+	}
+
+	/** @return the locations, in the order they were given */
+	public Collection<Location> getLocations() {
+		return locations.values();
+	}
+
+	/** @return true if there are no locations */
+	public boolean isEmpty() {
+		return locations.isEmpty();
+	}
+
+	/**
+	 * Get the manager of a location, creating it if needed.
+	 * @param id the location id
+	 * @return the manager, or null if there is no location with that id
+	 */
+	public RestaurantManager get(String id) {
+		RestaurantManager manager = managers.get(id);
+		if (manager != null) return manager;
+		Location location = locations.get(id);
+		if (location == null) return null;
+		return managers.computeIfAbsent(id, k -> {
+			RestaurantManager created = factory.apply(location);
+			created.registerMBean();
+			return created;
+		});
+	}
+
+	/**
+	 * Get the manager of the location an order belongs to.
+	 * @param orderNumber the order number
+	 * @return the manager, or null if the order number has no known location
+	 */
+	public RestaurantManager forOrder(long orderNumber) {
+		int number = Location.numberOf(orderNumber);
+		if (number >= byNumber.length || byNumber[number] == null) return null;
+		return get(byNumber[number].getId());
+	}
+
+	/** Shutdown the managers of all locations. */
+	public void shutdown() {
+		for(RestaurantManager manager: managers.values()) manager.shutdown();
+		managers.clear();
+	}
+}
@@ -3,6 +3,8 @@ package restaurant;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 
+import order.Money;
+
 /**
  * An item on the menu, with product id, description, and price.
  * This is used as basis for persistence.
@@ -36,8 +38,9 @@ public class MenuItem {
 	private Long id;
 	@DatabaseField(canBeNull=false, columnName=NAME_FIELD)
 	private String name;
+	// price in minor units (satang), see order.Money
 	@DatabaseField(canBeNull=false, columnName=PRICE_FIELD)
-	private double price;
+	private long price;
 	
 	/**
 	 * Default constructor for use by ORM framework, with minimal package scope.
@@ -46,15 +49,15 @@ public class MenuItem {
 	 */
 	MenuItem() {
 		// persistence framework requires a default (no-arg) constructor
-		this("", 0.0);
+		this("", 0L);
 	}
 	
 	/**
 	 * A new MenuItem with given description (name) and unit price.
 	 * @param name the name of this item
-	 * @param price the unit price
+	 * @param price the unit price, in minor units
 	 */
-	public MenuItem(String name, double price) {
+	public MenuItem(String name, long price) {
 		this.name = name;
 		this.price = price;
 	}
@@ -75,17 +78,17 @@ public class MenuItem {
 		this.name = name;
 	}
 
-	public double getPrice() {
+	public long getPrice() {
 		return price;
 	}
 
-	public void setPrice(double price) {
+	public void setPrice(long price) {
 		this.price = price;
 	}
 
 	@Override
 	public String toString() {
-		return String.format("[%d] %s @ %,.2f", id, name, price);
+		return String.format("[%d] %s @ %s", id, name, Money.format(price));
 	}
 
 }
@@ -0,0 +1,206 @@
+package restaurant;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.j256.ormlite.dao.Dao;
+
+/**
+ * Read-through cache of MenuItems from the database, by id and by name,
+ * so looking up an item usually doesn't need a database query.
+ *
+ * The cache holds at most a fixed number of items, and removes the least
+ * recently used item when it is full.  Items are kept in segments chosen
+ * by id, each an access-ordered LinkedHashMap with its own lock, so
+ * threads looking up different items seldom wait for each other.
+ * The name index maps names to ids, and is checked against the item's
+ * name, so a renamed item is never found by its old name.
+ *
+ * Items returned by the cache are shared, so change an item only by
+ * calling update, which saves it to the database and then to the cache.
+ */
+class MenuItemCache {
+	/** Default largest number of items in the cache. */
+	static final int DEFAULT_SIZE = 10_000;
+	/** Number of segments. A power of 2. */
+	static final int SEGMENTS = 16;
+
+	private final Dao<MenuItem,Long> menuDao;
+	private final IdSegment[] byId;
+	private final NameSegment[] byName;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/** One part of the cache, a LinkedHashMap that removes its least recently used entry. */
+	@SuppressWarnings("serial")
+	private class Segment<K,V> extends LinkedHashMap<K,V> {
+		private final int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+			if (size() <= maxSize) return false;
+			evictions.increment();
+			return true;
+		}
+	}
+
+	/** A segment of items by id. Not generic, so there can be an array of them. */
+	@SuppressWarnings("serial")
+	private class IdSegment extends Segment<Long,MenuItem> {
+		IdSegment(int maxSize) {
+			super(maxSize);
+		}
+	}
+
+	/** A segment of item ids by name. */
+	@SuppressWarnings("serial")
+	private class NameSegment extends Segment<String,Long> {
+		NameSegment(int maxSize) {
+			super(maxSize);
+		}
+	}
+
+	/**
+	 * Create an empty cache.
+	 * @param menuDao DAO for reading and updating items in the database
+	 * @param size largest number of items to cache
+	 */
+	MenuItemCache(Dao<MenuItem,Long> menuDao, int size) {
+		this.menuDao = menuDao;
+		int segmentSize = Math.max(1, (size + SEGMENTS - 1) / SEGMENTS);
+		byId = new IdSegment[SEGMENTS];
+		byName = new NameSegment[SEGMENTS];
+		for(int k=0; k<SEGMENTS; k++) {
+			byId[k] = new IdSegment(segmentSize);
+			byName[k] = new NameSegment(segmentSize);
+		}
+	}
+
+	private Segment<Long,MenuItem> segment(long id) {
+		return byId[(int) (id ^ (id >>> 32)) & (SEGMENTS - 1)];
+	}
+
+	private Segment<String,Long> segment(String name) {
+		int h = name.hashCode();
+		return byName[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Add items to the cache without counting them as misses,
+	 * e.g. all the items read when the menu is loaded.
+	 * If there are more items than the cache holds, the last ones are kept.
+	 * @param items the items to add
+	 */
+	void preload(List<MenuItem> items) {
+		for(MenuItem item: items) put(item);
+	}
+
+	private void put(MenuItem item) {
+		Segment<Long,MenuItem> ids = segment(item.getId());
+		synchronized(ids) {
+			ids.put(item.getId(), item);
+		}
+		Segment<String,Long> names = segment(item.getName());
+		synchronized(names) {
+			names.put(item.getName(), item.getId());
+		}
+	}
+
+	/**
+	 * Get an item, from the cache or else from the database.
+	 * @param id the item id
+	 * @return the item, or null if there is no item with that id
+	 * @throws SQLException if the item is not cached and the query fails
+	 */
+	MenuItem get(long id) throws SQLException {
+		MenuItem item = getCached(id);
+		if (item != null) {
+			hits.increment();
+			return item;
+		}
+		misses.increment();
+		item = menuDao.queryForId(id);
+		if (item != null) put(item);
+		return item;
+	}
+
+	private MenuItem getCached(long id) {
+		Segment<Long,MenuItem> ids = segment(id);
+		synchronized(ids) {
+			return ids.get(id);
+		}
+	}
+
+	/**
+	 * Find an item by its name, from the cache or else from the database.
+	 * @param name the exact name of the item
+	 * @return the item, or null if there is no item with that name
+	 * @throws SQLException if the item is not cached and the query fails
+	 */
+	MenuItem findByName(String name) throws SQLException {
+		Segment<String,Long> names = segment(name);
+		Long id;
+		synchronized(names) {
+			id = names.get(name);
+		}
+		if (id != null) {
+			MenuItem item = getCached(id);
+			if (item != null && item.getName().equals(name)) {
+				hits.increment();
+				return item;
+			}
+			// the item was renamed or removed from the cache
+			synchronized(names) {
+				names.remove(name, id);
+			}
+		}
+		misses.increment();
+		List<MenuItem> found = menuDao.queryForEq(MenuItem.NAME_FIELD, name);
+		if (found.isEmpty()) return null;
+		put(found.get(0));
+		return found.get(0);
+	}
+
+	/**
+	 * Save a changed item (e.g. a new price or name) to the database,
+	 * and then to the cache.  If the update fails, the item is
+	 * removed from the cache, so it is read again from the database.
+	 * @param item the item, with its id
+	 * @throws SQLException if the item could not be saved
+	 */
+	void update(MenuItem item) throws SQLException {
+		try {
+			menuDao.update(item);
+		} catch (SQLException ex) {
+			Segment<Long,MenuItem> ids = segment(item.getId());
+			synchronized(ids) {
+				ids.remove(item.getId());
+			}
+			throw ex;
+		}
+		put(item);
+	}
+
+	/** @return number of lookups found in the cache */
+	long getHits() {
+		return hits.sum();
+	}
+
+	/** @return number of lookups that queried the database */
+	long getMisses() {
+		return misses.sum();
+	}
+
+	/** @return number of items and names removed because the cache was full */
+	long getEvictions() {
+		return evictions.sum();
+	}
+}
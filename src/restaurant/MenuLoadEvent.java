@@ -0,0 +1,32 @@
+package restaurant;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for loading or reloading the menu.
+ */
+@Name("ske.restaurant.MenuLoad")
+@Label("Menu Load")
+@Category("SKE Restaurant")
+@Description("The menu was read and published")
+class MenuLoadEvent extends Event {
+	@Label("Source")
+	String source;
+	@Label("Items")
+	int items;
+	@Label("Errors")
+	@Description("Invalid lines in the menu file")
+	int errors;
+	@Label("Version")
+	@Description("Version of the menu after loading")
+	long version;
+	@Label("Cached")
+	@Description("True if the menu was read from the binary menu cache")
+	boolean cached;
+		@Label("Changed")
+	@Description("True if a new menu was published")
+	boolean changed;
+}
@@ -0,0 +1,89 @@
+package restaurant;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Watch a menu file and call a Runnable when the file is changed.
+ * The Runnable is called in the watcher thread, so orders are
+ * not paused while the menu is reloaded.
+ * 
+ * Editors often write a file in several steps, so after a change is
+ * seen the watcher waits a short time and combines all the changes
+ * into one reload.
+ */
+class MenuWatcher implements AutoCloseable {
+	/** Time to wait for more changes before reloading, in milliseconds. */
+	static final long SETTLE_TIME = 200;
+	
+	private final Path file;
+	private final WatchService watchService;
+	private final Runnable onChange;
+	private final Thread thread;
+	
+	/**
+	 * Start watching a file.
+	 * @param file the file to watch
+	 * @param onChange what to do when the file is changed
+	 * @throws IOException if the directory cannot be watched
+	 */
+	MenuWatcher(Path file, Runnable onChange) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.onChange = onChange;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		// can only watch directories, so watch the directory containing the file
+		this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		thread = new Thread(this::watch, "MenuWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private void watch() {
+		try {
+			while(true) {
+				WatchKey key = watchService.take();
+				boolean changed = checkEvents(key);
+				if (! changed) continue;
+				// wait for the file to settle and discard the events it causes
+				Thread.sleep(SETTLE_TIME);
+				WatchKey more;
+				while( (more = watchService.poll()) != null ) checkEvents(more);
+				try {
+					onChange.run();
+				} catch (RuntimeException ex) {
+					RestaurantManager.getLogger().warning("Error reloading menu: "+ex);
+				}
+			}
+		} catch (InterruptedException|ClosedWatchServiceException ex) {
+			// closed. Stop watching.
+		}
+	}
+	
+	/** Test if any event in the key is for our file, and reset the key. */
+	private boolean checkEvents(WatchKey key) {
+		boolean changed = false;
+		for(WatchEvent<?> event: key.pollEvents()) {
+			Object context = event.context();
+			if (context instanceof Path && file.getFileName().equals(context)) changed = true;
+		}
+		key.reset();
+		return changed;
+	}
+	
+	/** Stop watching the file. */
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException ex) {
+			// ignore
+		}
+		thread.interrupt();
+	}
+}
@@ -0,0 +1,201 @@
+package restaurant;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+
+import order.Order;
+
+/**
+ * Writes orders to the database in batches.  Orders are queued by
+ * the callers and a writer thread saves all the queued orders and 
+ * their lines in one transaction, so many orders per second don't 
+ * mean many transactions.  If the transaction fails it is rolled back
+ * and the orders are saved one at a time, so only the orders that can't
+ * be saved fail.  Each order and line is still inserted by
+ * its own statement; the saving is in the commits.
+ * After a batch is saved, the writer thread passes each order to
+ * a callback, in the order they were submitted.
+ * Callers can wait for their order to be saved, and get an exception
+ * if the batch it was in could not be saved.
+ */
+class OrderBatchWriter implements AutoCloseable {
+	/** Max number of orders saved in one transaction. */
+	static final int MAX_BATCH = 500;
+	
+	private final Dao<OrderRecord,Long> orderDao;
+	private final Dao<OrderLine,Long> lineDao;
+	/** Called by the writer thread for each order after it is saved. */
+	private final Consumer<Order> saved;
+	private final BlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	private volatile boolean closed = false;
+	/** Held while queueing an order or closing, so no order is queued after END. */
+	private final Object closeLock = new Object();
+	
+	/** Marker that tells the writer thread to stop. */
+	private static final PendingOrder END = new PendingOrder(null, null, null);
+	
+	/** An order and its lines waiting to be saved. */
+	static class PendingOrder {
+		final Order order;
+		final OrderRecord record;
+		final List<OrderLine> lines;
+		private boolean done = false;
+		private RuntimeException error;
+		
+		PendingOrder(Order order, OrderRecord record, List<OrderLine> lines) {
+			this.order = order;
+			this.record = record;
+			this.lines = lines;
+		}
+		
+		synchronized void complete(RuntimeException error) {
+			this.error = error;
+			done = true;
+			notifyAll();
+		}
+		
+		/**
+		 * Wait until the order is saved. Not interruptible, since the order
+		 * is saved anyway.
+		 * @throws IllegalStateException if the order could not be saved
+		 */
+		synchronized void await() {
+			boolean interrupted = false;
+			while(! done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (error != null) throw error;
+		}
+	}
+	
+	/**
+	 * Create a writer and start the writer thread.
+	 * @param orderDao Dao for the orders table
+	 * @param lineDao Dao for the order_items table
+	 * @param saved called for each order after it is saved
+	 */
+	OrderBatchWriter(Dao<OrderRecord,Long> orderDao, Dao<OrderLine,Long> lineDao, Consumer<Order> saved) {
+		this.orderDao = orderDao;
+		this.lineDao = lineDao;
+		this.saved = saved;
+		writer = new Thread(this::writeLoop, "OrderBatchWriter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Queue an order to be saved.  Returns without waiting.
+	 * @return the queued order, which the caller can wait for
+	 * @throws IllegalStateException if the writer has been closed
+	 */
+	PendingOrder submit(Order order, OrderRecord record, List<OrderLine> lines) {
+		PendingOrder pending = new PendingOrder(order, record, lines);
+		synchronized(closeLock) {
+			if (closed) throw new IllegalStateException("OrderBatchWriter is closed");
+			queue.add(pending);
+		}
+		return pending;
+	}
+	
+	/** Get the number of orders waiting to be saved. */
+	int size() {
+		return queue.size();
+	}
+	
+	private void writeLoop() {
+		List<PendingOrder> batch = new ArrayList<>(MAX_BATCH);
+		boolean running = true;
+		while(running) {
+			try {
+				batch.add( queue.take() );
+			} catch (InterruptedException e) {
+				continue; // only close() can stop the writer
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			if (batch.remove(END)) {
+				running = false;
+				queue.drainTo(batch);
+			}
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+	
+	/** 
+	 * Save a batch of orders in one transaction.  If the transaction fails,
+	 * save the orders one at a time, so one bad order doesn't fail the others.
+	 */
+	private void writeBatch(List<PendingOrder> batch) {
+		if (batch.isEmpty()) return;
+		try {
+			save(batch);
+		} catch (SQLException ex) {
+			if (batch.size() > 1) {
+				RestaurantManager.getLogger().warning( String.format(
+						"Failed to save %d orders, saving them one at a time: %s", batch.size(), ex.getMessage()) );
+			}
+			for(PendingOrder pending: batch) {
+				try {
+					if (batch.size() > 1) save(Collections.singletonList(pending));
+					else throw ex;
+				} catch (SQLException failed) {
+					long orderNumber = pending.record.getOrderNumber();
+					RestaurantManager.getLogger().severe("Failed to save order "+orderNumber+": "+failed.getMessage());
+					pending.complete(new IllegalStateException("Order "+orderNumber+" was not saved: "+failed.getMessage()));
+					continue;
+				}
+				saved(pending);
+			}
+			return;
+		}
+		for(PendingOrder pending: batch) saved(pending);
+	}
+	
+	/** Save orders and their lines in a transaction, which is rolled back if it fails. */
+	private void save(List<PendingOrder> orders) throws SQLException {
+		TransactionManager.callInTransaction(orderDao.getConnectionSource(), () -> {
+			for(PendingOrder pending: orders) {
+				orderDao.create(pending.record);
+				lineDao.create(pending.lines);
+			}
+			return null;
+		});
+	}
+	
+	/** Notify the callback that an order was saved, and release its caller. */
+	private void saved(PendingOrder pending) {
+		try {
+			saved.accept(pending.order);
+		} finally {
+			pending.complete(null);
+		}
+	}
+	
+	/** Save all queued orders and stop the writer thread. */
+	@Override
+	public void close() {
+		synchronized(closeLock) {
+			if (closed) return;
+			closed = true;
+			queue.add(END);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package restaurant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import order.Order;
+
+/**
+ * A queue of orders submitted by many terminals, which are recorded 
+ * one at a time by a single intake thread.
+ * 
+ * Each terminal has its own bounded queue.  If a terminal submits orders
+ * faster than they can be recorded, only that terminal waits (backpressure).
+ * The intake thread takes one order from each terminal in turn (round robin),
+ * so a terminal with many orders can't delay the other terminals.
+ * 
+ * Because only the intake thread records orders, the recorder function
+ * doesn't need any locks.
+ * 
+ * An order submitted while the queue is closed is not recorded; its
+ * submitter gets an IllegalStateException instead of waiting forever.
+ * The queue of a terminal is removed by removeTerminal when the
+ * terminal's session ends.
+ *
+ * @param <R> the type of result returned by the recorder
+ */
+class OrderIntakeQueue<R> implements AutoCloseable {
+	/** Default max number of waiting orders for each terminal. */
+	static final int DEFAULT_CAPACITY = 64;
+	
+	private final int capacity;
+	private final Function<Order,R> recorder;
+	private final ConcurrentHashMap<String,TerminalQueue> terminals = new ConcurrentHashMap<>();
+	/** Terminals that have orders waiting, in the order they will be served. */
+	private final BlockingQueue<TerminalQueue> ready = new LinkedBlockingQueue<>();
+	private final Thread intake;
+	private volatile boolean closed = false;
+	
+	/** Marker that tells the intake thread to stop. */
+	private final TerminalQueue END;
+	
+	/** An order waiting to be recorded, and the result. */
+	private class Ticket {
+		final Order order;
+		R result;
+		RuntimeException error;
+		boolean done = false;
+		
+		Ticket(Order order) {
+			this.order = order;
+		}
+		
+		synchronized void complete(R result, RuntimeException error) {
+			this.result = result;
+			this.error = error;
+			done = true;
+			notifyAll();
+		}
+		
+		/** Wait until recorded. Not interruptible, since the order will be recorded anyway. */
+		synchronized R await() {
+			boolean interrupted = false;
+			while(! done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (error != null) throw error;
+			return result;
+		}
+	}
+	
+	/** The waiting orders from one terminal. */
+	private class TerminalQueue {
+		final BlockingQueue<Ticket> tickets = new ArrayBlockingQueue<>(capacity);
+		/** True if this terminal is in the ready queue. */
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+		
+		/** Put this terminal in the ready queue, unless it is already there. */
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) ready.add(this);
+		}
+	}
+	
+	/**
+	 * Create a queue and start the intake thread.
+	 * @param capacity max number of waiting orders for each terminal
+	 * @param recorder function that records an order. Called only by the intake thread.
+	 */
+	OrderIntakeQueue(int capacity, Function<Order,R> recorder) {
+		this.capacity = capacity;
+		this.recorder = recorder;
+		END = new TerminalQueue();
+		intake = new Thread(this::intakeLoop, "OrderIntake");
+		intake.setDaemon(true);
+		intake.start();
+	}
+	
+	/**
+	 * Submit an order and wait until it has been recorded.
+	 * Orders without a terminal name share one queue.
+	 * @param order the order to record
+	 * @return the result of the recorder
+	 * @throws InterruptedException if interrupted while waiting for space in the queue.
+	 *    The order is not recorded.
+	 * @throws IllegalStateException if the queue has been closed
+	 */
+	R submit(Order order) throws InterruptedException {
+		if (closed) throw new IllegalStateException("Order intake is closed");
+		String name = (order.getTerminal() != null) ? order.getTerminal() : "";
+		TerminalQueue terminal = terminals.computeIfAbsent(name, k -> new TerminalQueue());
+		Ticket ticket = new Ticket(order);
+		// wait here if this terminal already has too many orders waiting
+		terminal.tickets.put(ticket);
+		terminal.schedule();
+		cancelIfClosed(terminal, ticket);
+		return ticket.await();
+	}
+	
+	/**
+	 * Submit many orders using one queue, and wait until they have all been recorded.
+	 * The orders are recorded in the order of the list, and the next orders are
+	 * queued while the first ones are being recorded.  Orders from other terminals
+	 * still take turns with these orders, so a large batch doesn't stall the terminals.
+	 * @param queueName name of the queue to use for all the orders
+	 * @param orders the orders to record
+	 * @return the results of the recorder, in the same order as the orders
+	 * @throws InterruptedException if interrupted while waiting for space in the queue.
+	 *    Orders that were already queued are still recorded.
+	 * @throws IllegalStateException if the queue has been closed
+	 */
+	List<R> submitAll(String queueName, List<Order> orders) throws InterruptedException {
+		if (closed) throw new IllegalStateException("Order intake is closed");
+		TerminalQueue terminal = terminals.computeIfAbsent(queueName, k -> new TerminalQueue());
+		List<Ticket> tickets = new ArrayList<>(orders.size());
+		for(Order order: orders) {
+			Ticket ticket = new Ticket(order);
+			terminal.tickets.put(ticket);
+			terminal.schedule();
+			tickets.add(ticket);
+		}
+		for(Ticket ticket: tickets) cancelIfClosed(terminal, ticket);
+		List<R> results = new ArrayList<>(tickets.size());
+		for(Ticket ticket: tickets) results.add(ticket.await());
+		return results;
+	}
+	
+	/**
+	 * If the queue was closed while a ticket was being queued, the intake
+	 * thread may have stopped already.  Take the ticket back and fail it,
+	 * unless the intake thread or close() has taken it, which completes it.
+	 */
+	private void cancelIfClosed(TerminalQueue terminal, Ticket ticket) {
+		if (closed && terminal.tickets.remove(ticket)) {
+			ticket.complete(null, new IllegalStateException("Order intake is closed"));
+		}
+	}
+	
+	/**
+	 * Remove the queue of a terminal whose session has ended, so a server
+	 * that accepts many sessions doesn't keep a queue for each old session.
+	 * The queue is kept if it still has orders waiting, e.g. from another
+	 * request of the same HTTP client.  Orders already queued are still
+	 * recorded even if the queue is removed.
+	 * @param name the terminal name used in its orders
+	 */
+	void removeTerminal(String name) {
+		terminals.computeIfPresent(name, (k, terminal) -> terminal.tickets.isEmpty() ? null : terminal);
+	}
+	
+	/** Get the number of orders waiting to be recorded. */
+	int size() {
+		int size = 0;
+		for(TerminalQueue terminal: terminals.values()) size += terminal.tickets.size();
+		return size;
+	}
+	
+	private void intakeLoop() {
+		while(true) {
+			TerminalQueue terminal;
+			try {
+				terminal = ready.take();
+			} catch (InterruptedException e) {
+				continue; // only close() can stop the intake thread
+			}
+			if (terminal == END) {
+				if (ready.isEmpty()) return;
+				// record orders that were submitted before close
+				ready.add(END);
+				continue;
+			}
+			Ticket ticket = terminal.tickets.poll();
+			if (ticket != null) record(ticket);
+			// serve the next terminal before taking another order from this one
+			terminal.scheduled.set(false);
+			if (! terminal.tickets.isEmpty()) terminal.schedule();
+		}
+	}
+	
+	private void record(Ticket ticket) {
+		try {
+			ticket.complete(recorder.apply(ticket.order), null);
+		} catch (RuntimeException ex) {
+			ticket.complete(null, ex);
+		}
+	}
+	
+	/** 
+	 * Record the orders already submitted, then stop the intake thread.
+	 * Orders queued after the intake thread stopped are failed.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		ready.add(END);
+		try {
+			intake.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (intake.isAlive()) return; // interrupted; the intake thread still records orders
+		for(TerminalQueue terminal: terminals.values()) {
+			Ticket ticket;
+			while((ticket = terminal.tickets.poll()) != null) {
+				ticket.complete(null, new IllegalStateException("Order intake is closed"));
+			}
+		}
+	}
+}
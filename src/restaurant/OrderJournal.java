@@ -0,0 +1,557 @@
+package restaurant;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only journal of orders.  The journal file is opened once
+ * and kept open.  Records from concurrent callers are queued and written
+ * by one writer thread, so that all the records waiting in the queue
+ * are written together in one "group commit".
+ * 
+ * How long append() waits depends on the Durability:
+ * NONE  - don't wait and never call fsync. Fastest, but orders in
+ *         the OS cache can be lost if the computer crashes.
+ * BATCH - wait until the record is written and the batch containing it
+ *         has been forced to disk (one fsync per batch).
+ * ORDER - wait until the record is written and forced to disk by itself
+ *         (one fsync per order). Slowest.
+ * 
+ * With a Rotation, the journal is split into segments.  Records are
+ * written to the active segment (the journal file), which is renamed
+ * (e.g. ske_orders-2024-05-01-1.log) when it reaches the max size or
+ * when the business day changes.  The business day is the day records
+ * are written, not the time of the order, so importing old orders 
+ * doesn't start a segment for each day of the orders.  Closed segments
+ * are compressed by a low priority thread and deleted when the retention
+ * period has passed since they were closed.
+ * A JournalManifest lists the segments and the orders in each.
+ */
+public class OrderJournal implements AutoCloseable {
+	/** How hard to try to make records survive a crash. */
+	public enum Durability { 
+		NONE, BATCH, ORDER;
+		
+		/** 
+		 * Get a Durability by name, ignoring case.
+		 * Returns BATCH if the name is not valid.
+		 */
+		public static Durability parse(String name) {
+			try {
+				return valueOf(name.trim().toUpperCase());
+			} catch (IllegalArgumentException|NullPointerException ex) {
+				System.err.println("Unknown journal durability "+name+", using BATCH");
+				return BATCH;
+			}
+		}
+	}
+	
+	/** 
+	 * When to start a new segment of the journal, and how long to keep segments.
+	 */
+	public static class Rotation {
+		/** Never rotate. The journal is one file that grows forever. */
+		public static final Rotation NONE = new Rotation(0, false, LocalTime.MIDNIGHT, 0);
+		
+		final long maxBytes;
+		final boolean daily;
+		final LocalTime dayStart;
+		final int retentionDays;
+		
+		/**
+		 * @param maxBytes start a new segment before it would be larger than this, or 0 for no limit
+		 * @param daily if true, start a new segment each business day
+		 * @param dayStart time that a business day starts, e.g. 04:00 so late orders are in the previous day
+		 * @param retentionDays business days to keep old segments, or 0 to keep them forever
+		 */
+		public Rotation(long maxBytes, boolean daily, LocalTime dayStart, int retentionDays) {
+			this.maxBytes = maxBytes;
+			this.daily = daily;
+			this.dayStart = dayStart;
+			this.retentionDays = retentionDays;
+		}
+		
+		/** 
+		 * Get the rotation from the settings journal.segmentMB (default 64),
+		 * journal.rollDaily (default true), journal.dayStart (default 04:00)
+		 * and journal.retentionDays (default 0, keep forever).
+		 */
+		public static Rotation fromConfig() {
+			LocalTime dayStart = LocalTime.of(4, 0);
+			String value = RestaurantConfig.get("journal.dayStart", "04:00");
+			try {
+				dayStart = LocalTime.parse(value.trim());
+			} catch (DateTimeParseException ex) {
+				System.err.println("Invalid journal.dayStart "+value+", using "+dayStart);
+			}
+			return new Rotation(RestaurantConfig.getInt("journal.segmentMB", 64) * 1024L * 1024L,
+					Boolean.parseBoolean(RestaurantConfig.get("journal.rollDaily", "true")),
+					dayStart, RestaurantConfig.getInt("journal.retentionDays", 0));
+		}
+		
+		boolean isEnabled() {
+			return maxBytes > 0 || daily;
+		}
+		
+		/** Get the business day that a time belongs to. */
+		LocalDate businessDay(LocalDateTime time) {
+			return time.minusHours(dayStart.getHour()).minusMinutes(dayStart.getMinute()).toLocalDate();
+		}
+	}
+	
+	/** Max number of records written in one group commit. */
+	static final int MAX_BATCH = 256;
+	
+	private final String filename;
+	private final Durability durability;
+	/** The journal file (the active segment), or null if writing to the console. */
+	private final File file;
+	/** Output to the file. Replaced when the journal rotates. */
+	private OutputStream out;
+	/** Channel for fsync, or null if output is not a file. */
+	private FileChannel channel;
+	private final Rotation rotation;
+	/** List of segments, or null if the journal doesn't rotate. */
+	private final JournalManifest manifest;
+	private final SegmentCompressor compressor;
+	/** The segment being written. Only used by the writer thread. */
+	private JournalManifest.Segment active;
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+	private final Thread writer;
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private volatile boolean closed = false;
+	/** 
+	 * Held while checking closed and queueing an entry, and while closing,
+	 * so no entry can be queued after the END marker.
+	 */
+	private final Object closeLock = new Object();
+	
+	/** Marker that tells the writer thread to stop. */
+	private static final Entry END = new Entry(null, 0L, null);
+	
+	/** 
+	 * A record waiting to be written.  Returned by enqueue so the
+	 * caller can wait for it later using await(Entry).
+	 */
+	public static class Entry {
+		final byte[] data;
+		/** Order number and time of the record, for the manifest. 0 and null if not known. */
+		final long orderNumber;
+		final LocalDateTime time;
+		boolean done = false;
+		/** Why the record was not written, or null if it was. */
+		RuntimeException error;
+		
+		Entry(byte[] data, long orderNumber, LocalDateTime time) {
+			this.data = data;
+			this.orderNumber = orderNumber;
+			this.time = time;
+		}
+		
+		synchronized void complete(RuntimeException error) {
+			this.error = error;
+			done = true;
+			notifyAll();
+		}
+		
+		synchronized void await() throws InterruptedException {
+			while(! done) wait();
+			if (error != null) throw error;
+		}
+	}
+	
+	/**
+	 * Open a journal that doesn't rotate, and start the writer thread.
+	 * @param filename name of the journal file. Records are appended to the file.
+	 * @param durability when records must be forced to disk
+	 */
+	public OrderJournal(String filename, Durability durability) {
+		this(filename, durability, Rotation.NONE);
+	}
+	
+	/**
+	 * Open a journal and start the writer thread.
+	 * If the file cannot be opened, the fallback file (the orders.fallbackLog
+	 * setting, or a file with the same name in the temp directory) is used
+	 * instead, and if that fails then records are written to the console.
+	 * @param filename name of the journal file. Records are appended to the file.
+	 * @param durability when records must be forced to disk
+	 * @param rotation when to start a new segment
+	 */
+	public OrderJournal(String filename, Durability durability, Rotation rotation) {
+		this.filename = filename;
+		this.durability = durability;
+		this.rotation = rotation;
+		File journalFile = new File(filename);
+		FileOutputStream fout = openFile(journalFile);
+		if (fout == null) {
+			// always the same fallback file, so orders are not scattered in many files
+			journalFile = new File(RestaurantConfig.get("orders.fallbackLog", 
+					new File(System.getProperty("java.io.tmpdir"), journalFile.getName()).getPath()));
+			System.err.println("Writing orders to "+journalFile.getPath());
+			fout = openFile(journalFile);
+		}
+		if (fout != null) {
+			file = journalFile;
+			out = fout;
+			channel = fout.getChannel();
+		}
+		else {
+			// Log to console as last resort!
+			file = null;
+			out = System.out;
+			channel = null;
+		}
+		if (file != null && rotation.isEnabled()) {
+			manifest = JournalManifest.load(manifestFile(file));
+			active = manifest.getActive();
+			if (active != null && ! active.getFile().equals(file.getName())) active = null;
+			if (active == null && file.length() > 0) {
+				// a journal written before it had a manifest (or the manifest was lost)
+				LocalDateTime modified = LocalDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault());
+				active = new JournalManifest.Segment(file.getName(), rotation.businessDay(modified));
+				manifest.add(active);
+			}
+			if (active != null) active.bytes = file.length();
+			compressor = new SegmentCompressor(manifest, rotation.retentionDays);
+		}
+		else {
+			manifest = null;
+			compressor = null;
+		}
+		writer = new Thread(this::writeLoop, "OrderJournal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/** Open a journal file for appending. */
+	private static FileOutputStream openFile(File file) {
+		final boolean append = true; // append to the output file
+		try {
+			// make sure the path to file exists
+			File dirpath = file.getAbsoluteFile().getParentFile();
+			if (dirpath != null && ! dirpath.exists()) dirpath.mkdirs();
+			return new FileOutputStream(file, append);
+		} catch (IOException|SecurityException ex) {
+			System.err.println("Exception opening log file "+file);
+			System.err.println(ex.getMessage());
+		}
+		return null;
+	}
+	
+	/** Get the manifest file for a journal file, e.g. ske_orders.manifest for ske_orders.log. */
+	static File manifestFile(File journalFile) {
+		return new File(journalFile.getAbsoluteFile().getParentFile(), baseName(journalFile.getName())+".manifest");
+	}
+	
+	private static String baseName(String name) {
+		int k = name.lastIndexOf('.');
+		return (k > 0) ? name.substring(0, k) : name;
+	}
+	
+	/**
+	 * Append a record to the journal.  Depending on the durability,
+	 * this may wait until the record has been written.
+	 * @param record the text to write. Should end with a newline.
+	 * @throws IllegalStateException if the journal has been closed
+	 */
+	public void append(String record) {
+		await( enqueue(record) );
+	}
+	
+	/**
+	 * Queue a record to be written, without waiting.  
+	 * Use await() to wait until it is written.  This lets one thread
+	 * queue records for other threads, which then wait for them.
+	 * @param record the text to write. Should end with a newline.
+	 * @return the queued entry
+	 * @throws IllegalStateException if the journal has been closed
+	 */
+	public Entry enqueue(String record) {
+		return enqueue(0L, null, record);
+	}
+	
+	/**
+	 * Queue the record of an order to be written, without waiting.
+	 * The order number and time are used to find the order's segment.
+	 * @param orderNumber the order number
+	 * @param time time of the order, which also decides its business day
+	 * @param record the text to write. Should end with a newline.
+	 * @return the queued entry
+	 * @throws IllegalStateException if the journal has been closed
+	 */
+	public Entry enqueue(long orderNumber, LocalDateTime time, String record) {
+		Entry entry = new Entry( record.getBytes(StandardCharsets.UTF_8), orderNumber, time );
+		synchronized(closeLock) {
+			if (closed) throw new IllegalStateException("Journal is closed: "+filename);
+			queue.add(entry);
+		}
+		return entry;
+	}
+	
+	/**
+	 * Wait until a queued record has been written, as required by
+	 * the durability.  For Durability.NONE this doesn't wait.
+	 * @param entry a record returned by enqueue
+	 * @throws IllegalStateException if the record could not be written or forced to disk
+	 */
+	public void await(Entry entry) {
+		if (durability == Durability.NONE) return;
+		try {
+			entry.await();
+		} catch (InterruptedException e) {
+			// record is still queued and will be written.
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/** Write records from the queue until the END marker is seen. */
+	private void writeLoop() {
+		List<Entry> batch = new ArrayList<>(MAX_BATCH);
+		boolean running = true;
+		while(running) {
+			try {
+				batch.add( queue.take() );
+			} catch (InterruptedException e) {
+				continue; // only close() can stop the writer
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			if (batch.remove(END)) {
+				running = false;
+				// anything queued after END is still written
+				queue.drainTo(batch);
+			}
+			writeBatch(batch);
+			batch.clear();
+		}
+	}
+	
+	/** Write a group of records and force them to disk as needed. */
+	private void writeBatch(List<Entry> batch) {
+		JournalFlushEvent event = new JournalFlushEvent();
+		event.begin();
+		long before = bytesWritten.get();
+		// number of records in the batch that were written (and forced, if needed)
+		int written = 0;
+		try {
+			if (manifest == null) {
+				writeRun(batch, 0, batch.size());
+				written = batch.size();
+			}
+			else {
+				// records before a rotation are written to the old segment
+				int from = 0;
+				for(int k=0; k<batch.size(); k++) {
+					Entry entry = batch.get(k);
+					LocalDate day = writeDay();
+					if (active == null) startSegment(day);
+					else if (needsRotation(day, entry.data.length)) {
+						writeRun(batch, from, k);
+						written = k;
+						from = k;
+						rotate(day);
+					}
+					active.add(entry.orderNumber, entry.time, entry.data.length);
+				}
+				writeRun(batch, from, batch.size());
+				written = batch.size();
+			}
+		} catch (IOException ex) {
+			System.err.println("Error writing orders to "+filename);
+			System.err.println(ex.getMessage());
+			// the callers of records that were not written get the error
+			IllegalStateException error = new IllegalStateException("Order not written to journal: "+ex.getMessage(), ex);
+			for(Entry entry: batch.subList(written, batch.size())) entry.complete(error);
+		}
+		for(Entry entry: batch.subList(0, written)) entry.complete(null);
+		if (event.shouldCommit()) {
+			event.records = batch.size();
+			event.bytes = bytesWritten.get() - before;
+			event.durability = durability.name();
+			event.commit();
+		}
+	}
+	
+	/** Write some of the records in a batch, and force them to disk as needed. */
+	private void writeRun(List<Entry> batch, int from, int to) throws IOException {
+		if (from >= to) return;
+		if (durability == Durability.ORDER) {
+			for(Entry entry: batch.subList(from, to)) {
+				write(entry.data, entry.data.length);
+				force();
+			}
+		}
+		else {
+			int size = 0;
+			for(Entry entry: batch.subList(from, to)) size += entry.data.length;
+			byte[] buffer = new byte[size];
+			int offset = 0;
+			for(Entry entry: batch.subList(from, to)) {
+				System.arraycopy(entry.data, 0, buffer, offset, entry.data.length);
+				offset += entry.data.length;
+			}
+			write(buffer, size);
+			if (durability == Durability.BATCH) force();
+		}
+	}
+	
+	/** 
+	 * Get the business day for records written now.  It never goes back
+	 * to an earlier day than the active segment, e.g. if the clock is set back.
+	 */
+	private LocalDate writeDay() {
+		LocalDate today = rotation.businessDay(LocalDateTime.now());
+		if (active != null && active.getDay() != null && today.isBefore(active.getDay())) return active.getDay();
+		return today;
+	}
+	
+	/** Should a record of some length for a business day start a new segment? */
+	private boolean needsRotation(LocalDate day, int length) {
+		if (rotation.daily && ! day.equals(active.getDay())) return true;
+		return rotation.maxBytes > 0 && active.bytes > 0 && active.bytes + length > rotation.maxBytes;
+	}
+	
+	/** Add the journal file to the manifest as the active segment. */
+	private void startSegment(LocalDate day) {
+		active = new JournalManifest.Segment(file.getName(), day);
+		manifest.add(active);
+		manifest.save();
+	}
+	
+	/**
+	 * Close the active segment, rename it, and start a new segment
+	 * in the journal file.  The closed segment is compressed later.
+	 * The new file is opened before the old stream is closed, so if
+	 * rotation fails the journal keeps writing to the active segment.
+	 */
+	private void rotate(LocalDate day) throws IOException {
+		force();
+		String name = segmentName(active.getDay());
+		Path segment = new File(file.getAbsoluteFile().getParentFile(), name).toPath();
+		try {
+			Files.move(file.toPath(), segment);
+		} catch (IOException ex) {
+			// keep writing to the same file, as part of the same segment
+			System.err.println("Could not rotate "+file+": "+ex.getMessage());
+			return;
+		}
+		FileOutputStream fout;
+		try {
+			fout = new FileOutputStream(file, true);
+		} catch (IOException ex) {
+			// out still writes to the segment, so put it back
+			System.err.println("Could not rotate "+file+": "+ex.getMessage());
+			Files.move(segment, file.toPath());
+			return;
+		}
+		OutputStream old = out;
+		out = fout;
+		channel = fout.getChannel();
+		try {
+			old.close();
+		} catch (IOException ex) {
+			// the segment was already forced to disk
+			System.err.println("Could not close "+name+": "+ex.getMessage());
+		}
+		active.closed = day;
+		manifest.update(active, name, JournalManifest.State.CLOSED);
+		compressor.compress(active);
+		startSegment(day);
+	}
+	
+	/** Get an unused name for a closed segment, e.g. ske_orders-2024-05-01-2.log */
+	private String segmentName(LocalDate day) {
+		String name = file.getName();
+		String base = baseName(name);
+		String suffix = name.substring(base.length());
+		File dir = file.getAbsoluteFile().getParentFile();
+		for(int n=1; ; n++) {
+			String segment = base + "-" + day + "-" + n + suffix;
+			if (! new File(dir, segment).exists() && ! new File(dir, segment+".gz").exists()) return segment;
+		}
+	}
+	
+	/**
+	 * Get the manifest that lists the segments of the journal.
+	 * @return the manifest, or null if the journal doesn't rotate
+	 */
+	public JournalManifest getManifest() {
+		return manifest;
+	}
+	
+	private void write(byte[] data, int length) throws IOException {
+		out.write(data, 0, length);
+		bytesWritten.addAndGet(length);
+	}
+	
+	private void force() throws IOException {
+		if (channel != null) channel.force(false);
+		else out.flush();
+	}
+	
+	/** Get the total number of bytes written to the journal since it was opened. */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+	
+	/** Get the number of records waiting to be written. */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+	
+	/** Get the durability used for this journal. */
+	public Durability getDurability() {
+		return durability;
+	}
+	
+	/**
+	 * Write all queued records, force them to disk, and close the file.
+	 * Calling append() after this throws IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		synchronized(closeLock) {
+			if (closed) return;
+			closed = true;
+			queue.add(END);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// records queued before END that the writer didn't take, e.g. if it was interrupted
+		List<Entry> rest = new ArrayList<>();
+		queue.drainTo(rest);
+		rest.remove(END);
+		if (! rest.isEmpty()) writeBatch(rest);
+		try {
+			force();
+			if (out != System.out) out.close();
+		} catch (IOException ex) {
+			System.err.println("Error closing "+filename);
+			System.err.println(ex.getMessage());
+		}
+		if (manifest != null) {
+			// save the last order numbers of the active segment
+			manifest.save();
+			compressor.close();
+		}
+	}
+}
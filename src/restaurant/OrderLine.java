@@ -0,0 +1,54 @@
+package restaurant;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * A row in the order_items table: the quantity and unit price
+ * of one menu item in an order.
+ */
+@DatabaseTable(tableName="order_items")
+public class OrderLine {
+	// names of fields in the order_items table, for use in queries
+	public static final String ORDER_NUMBER_FIELD = "order_number";
+	
+	@DatabaseField(generatedId=true)
+	private Long id;
+	@DatabaseField(canBeNull=false, index=true, columnName=ORDER_NUMBER_FIELD)
+	private long orderNumber;
+	@DatabaseField(canBeNull=false, columnName="item_id")
+	private int itemId;
+	@DatabaseField(canBeNull=false)
+	private int quantity;
+	/** unit price in minor units. */
+	@DatabaseField(canBeNull=false, columnName="unit_price")
+	private long unitPrice;
+	
+	/** Default constructor for use by ORM framework. */
+	OrderLine() {
+		this(0L, 0, 0, 0L);
+	}
+	
+	public OrderLine(long orderNumber, int itemId, int quantity, long unitPrice) {
+		this.orderNumber = orderNumber;
+		this.itemId = itemId;
+		this.quantity = quantity;
+		this.unitPrice = unitPrice;
+	}
+
+	public long getOrderNumber() {
+		return orderNumber;
+	}
+
+	public int getItemId() {
+		return itemId;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public long getUnitPrice() {
+		return unitPrice;
+	}
+}
@@ -0,0 +1,21 @@
+package restaurant;
+import order.Order;
+
+/**
+ * A listener that is notified after an order is recorded,
+ * e.g. to send it to the kitchen.
+ * 
+ * A RestaurantManager calls all listeners from one thread, in order
+ * of order number, so a listener doesn't need to
+ * synchronize with itself.  Listeners should return quickly and not 
+ * block, since they delay the recording of later orders.
+ */
+public interface OrderListener {
+	
+	/**
+	 * Called after an order has been recorded. 
+	 * The order has an order number and timestamp.
+	 * @param order the order that was recorded. Don't modify it.
+	 */
+	void orderRecorded(Order order);
+}
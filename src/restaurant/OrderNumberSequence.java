@@ -0,0 +1,131 @@
+package restaurant;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sequence of order numbers that continues after the application
+ * is restarted, without writing to disk for every order.
+ * 
+ * Numbers are reserved in blocks (the "hi/lo" method).  The sequence file
+ * contains the first number that has NOT been reserved (the high-water mark).
+ * When the numbers in a block are used up, the next block is reserved
+ * by writing a new high-water mark to the file.  Numbers in a block
+ * are handed out using an AtomicLong, so next() doesn't need a lock
+ * except when a new block is reserved.
+ * 
+ * After a restart (or crash) the sequence resumes at the old high-water
+ * mark, so numbers are never reused, but unused numbers in the last block
+ * become a gap in the order numbers.
+ */
+public class OrderNumberSequence {
+	/** Default number of order numbers to reserve at one time. */
+	static final int DEFAULT_BLOCK_SIZE = 1000;
+	
+	/** File containing high-water mark, or null if sequence is not saved. */
+	private final Path file;
+	private final int blockSize;
+	private final AtomicLong next;
+	/** First number that is not reserved. */
+	private volatile long limit;
+	/** First number handed out since this sequence was opened. */
+	private final long start;
+	
+	/**
+	 * Create a sequence that is only in memory.  
+	 * It will restart when the application is restarted.
+	 * @param start the first number in sequence
+	 */
+	public OrderNumberSequence(long start) {
+		this.file = null;
+		this.blockSize = 0;
+		this.start = start;
+		this.next = new AtomicLong(start);
+		this.limit = Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Open a sequence saved in a file, creating the file if needed.
+	 * @param file the sequence file
+	 * @param blockSize how many numbers to reserve each time the file is written
+	 * @param minimum the smallest number to use, e.g. one more than the last
+	 *    order number that was actually saved.  
+	 * @throws IOException if the file cannot be read or written
+	 */
+	public OrderNumberSequence(File file, int blockSize, long minimum) throws IOException {
+		this.file = file.toPath();
+		this.blockSize = Math.max(1, blockSize);
+		long highWaterMark = 1L;
+		if (file.exists()) {
+			String text = new String(Files.readAllBytes(this.file), StandardCharsets.UTF_8).trim();
+			try {
+				highWaterMark = Long.parseLong(text);
+			} catch (NumberFormatException nfe) {
+				throw new IOException("Invalid order sequence file "+file+": "+text);
+			}
+		}
+		else {
+			File dir = file.getAbsoluteFile().getParentFile();
+			if (dir != null && ! dir.exists()) dir.mkdirs();
+		}
+		this.start = Math.max(highWaterMark, minimum);
+		this.next = new AtomicLong(start);
+		this.limit = start;
+		reserve(start);
+	}
+	
+	/**
+	 * Get the next number in the sequence.
+	 * @return the next number. Never returns the same number twice.
+	 */
+	public long next() {
+		long n = next.getAndIncrement();
+		if (n < limit) return n;
+		synchronized(this) {
+			if (n >= limit) reserve(n);
+		}
+		return n;
+	}
+	
+	/** Reserve a block of numbers starting at n or the current limit. Caller holds the lock. */
+	private void reserve(long n) {
+		long newLimit = Math.max(limit, n + 1) + blockSize;
+		try {
+			save(newLimit);
+		} catch (IOException ex) {
+			// Don't stop taking orders, but the numbers may be reused after restart.
+			RestaurantManager.getLogger().severe("Could not save order number sequence "
+						+ file + ": " + ex.getMessage());
+		}
+		limit = newLimit;
+	}
+	
+	/** Write the new high-water mark, and replace the old file atomically. */
+	private void save(long highWaterMark) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		ByteBuffer data = ByteBuffer.wrap( (highWaterMark + "\n").getBytes(StandardCharsets.UTF_8) );
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(data.hasRemaining()) channel.write(data);
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/** Get the first number handed out since this sequence was opened. */
+	public long getStart() {
+		return start;
+	}
+	
+	/** Get the first number that has not been reserved. */
+	public long getLimit() {
+		return limit;
+	}
+}
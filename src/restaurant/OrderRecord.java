@@ -0,0 +1,50 @@
+package restaurant;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+/**
+ * A row in the orders table: the order number, time and total
+ * of a customer order.  The items in the order are saved as
+ * OrderLine objects.
+ * 
+ * The timestamp is saved as epoch milliseconds (UTC-naive) so it
+ * doesn't depend on database support for date types.
+ */
+@DatabaseTable(tableName="orders")
+public class OrderRecord {
+	// names of fields in the orders table, for use in queries
+	public static final String ORDER_NUMBER_FIELD = "order_number";
+	public static final String TIMESTAMP_FIELD = "timestamp";
+	
+	@DatabaseField(id=true, columnName=ORDER_NUMBER_FIELD)
+	private long orderNumber;
+	@DatabaseField(canBeNull=false, index=true, columnName=TIMESTAMP_FIELD)
+	private long timestamp;
+	/** total price in minor units. */
+	@DatabaseField(canBeNull=false)
+	private long total;
+	
+	/** Default constructor for use by ORM framework. */
+	OrderRecord() {
+		this(0L, 0L, 0L);
+	}
+	
+	public OrderRecord(long orderNumber, long timestamp, long total) {
+		this.orderNumber = orderNumber;
+		this.timestamp = timestamp;
+		this.total = total;
+	}
+
+	public long getOrderNumber() {
+		return orderNumber;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+}
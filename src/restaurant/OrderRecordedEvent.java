@@ -0,0 +1,43 @@
+package restaurant;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import order.Order;
+
+/**
+ * JFR event for recordOrder: how long it took to record an order.
+ * Like all JFR events, it costs almost nothing unless a recording is running.
+ */
+@Name("ske.restaurant.OrderRecorded")
+@Label("Order Recorded")
+@Category("SKE Restaurant")
+@Description("An order was recorded by the RestaurantManager")
+@StackTrace(false)
+class OrderRecordedEvent extends Event {
+	@Label("Order Number")
+	long orderNumber;
+	@Label("Terminal")
+	String terminal;
+	@Label("Lines")
+	int lines;
+	@Label("Total")
+	@Description("Total price in minor units")
+	long total;
+	@Label("Menu Version")
+	long menuVersion;
+	
+	/** Set the fields and commit the event, if it is enabled. */
+	void commit(Order order) {
+		if (! shouldCommit()) return;
+		orderNumber = order.getOrderNumber();
+		terminal = order.getTerminal();
+		lines = order.getOrderItems().size();
+		total = order.getTotal();
+		menuVersion = order.getMenuVersion();
+		commit();
+	}
+}
@@ -0,0 +1,580 @@
+package restaurant;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import menu.MenuSnapshot;
+import order.Order;
+import order.OrderItem;
+
+/**
+ * A binary store of orders in memory-mapped segment files, 
+ * with an index for finding orders by order number or by time.
+ * 
+ * Each record has this layout (all numbers are big-endian):
+ * <pre>
+ * int  length      total length of the record in bytes, 0 means end of data
+ * long orderNumber
+ * long timestamp   date and time the order was recorded, as epoch millis (UTC-naive)
+ * int  lineCount
+ * lineCount times:
+ *   int  itemId
+ *   int  quantity
+ *   long unitPrice in minor units (satang or cents)
+ * lineCount-1 or lineCount times, one for each line except the discount:
+ *   short length of the item name in bytes
+ *   byte[] item name in UTF-8
+ * </pre>
+ * If the order has a discount, the last line has item id DISCOUNT_ID, 
+ * quantity 1, and minus the discount as its price, so an order read
+ * from the store has the discount it was given, even if the promotions change.
+ * The item names are the names when the order was saved, so an order read
+ * after the menu changed still has the names it was sold with.  Records
+ * saved before names were stored end after the lines; their items are
+ * named from the current menu.
+ * Records are appended to the last segment file.  When a segment
+ * is full a new segment file is created.  A record never spans two segments.
+ * 
+ * The index is sparse: it has one entry for every INDEX_INTERVAL records.
+ * Orders must be appended in order of increasing order number.
+ * To find an order we binary search the index and then scan at most 
+ * INDEX_INTERVAL records, so lookup is O(log n).
+ * 
+ * Appending is not thread-safe. Only one thread at a time may append. 
+ * Reading can be done by any thread.
+ * 
+ * To open quickly, the index and end of data can be saved in a checkpoint
+ * (see getState) and given to the constructor, so that only records
+ * after the checkpoint are scanned.
+ */
+public class OrderStore implements AutoCloseable {
+	/** First 8 bytes of each segment file. */
+	static final long MAGIC = 0x534B454F52440001L; // "SKEORD" version 1
+	/** Size of the segment file header. */
+	static final int SEGMENT_HEADER = 16;
+	/** Size of the fixed part of a record. */
+	static final int RECORD_HEADER = 24;
+	/** Size of each order line in a record. */
+	static final int LINE_SIZE = 16;
+	/** Longest item name saved, in UTF-8 bytes. Longer names are not saved. */
+	static final int MAX_NAME = 0xFFFF;
+	/** Item id of the line that has the discount of an order. */
+	static final int DISCOUNT_ID = -1;
+	/** Number of records per index entry. */
+	static final int INDEX_INTERVAL = 64;
+	/** Default size of each segment file. */
+	static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+	private static final byte[] NO_NAME = new byte[0];
+	
+	private final File directory;
+	private final int segmentSize;
+	/** Mapped segments. Only the last one is written to. */
+	private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+	/** 
+	 * Position where the next record will be written.  A position is the
+	 * segment number in the high 32 bits and the offset in the low 32 bits,
+	 * so positions increase as records are appended.
+	 */
+	private volatile long writePosition;
+	private long recordCount = 0;
+	
+	// The sparse index, as parallel arrays.  Entry k describes records
+	// k*INDEX_INTERVAL to (k+1)*INDEX_INTERVAL-1.
+	private volatile int indexSize = 0;
+	/** Order number of the first record in each block. */
+	private long[] indexOrder = new long[1024];
+	/** Position of the first record in each block. */
+	private long[] indexPosition = new long[1024];
+	/** Max timestamp of all records up to end of each block. Never decreases. */
+	private long[] indexMaxTime = new long[1024];
+	/** True if records have been appended in order of time. */
+	private volatile boolean timeOrdered = true;
+	private long lastOrderNumber = 0;
+	
+	/** Position after the records restored from a checkpoint. */
+	private long restoredPosition;
+	/** True if the index was restored from a checkpoint. */
+	private boolean restored = false;
+	
+	/**
+	 * The index and end of data of a store, saved in a checkpoint.
+	 * Immutable.
+	 */
+	public static class State {
+		final long writePosition;
+		final long recordCount;
+		final long lastOrderNumber;
+		final boolean timeOrdered;
+		final long[] indexOrder;
+		final long[] indexPosition;
+		final long[] indexMaxTime;
+		
+		State(long writePosition, long recordCount, long lastOrderNumber, boolean timeOrdered,
+				long[] indexOrder, long[] indexPosition, long[] indexMaxTime) {
+			this.writePosition = writePosition;
+			this.recordCount = recordCount;
+			this.lastOrderNumber = lastOrderNumber;
+			this.timeOrdered = timeOrdered;
+			this.indexOrder = indexOrder;
+			this.indexPosition = indexPosition;
+			this.indexMaxTime = indexMaxTime;
+		}
+		
+		/** Get the order number of the last order saved in the store at this state. */
+		public long getLastOrderNumber() {
+			return lastOrderNumber;
+		}
+		
+		public void writeTo(DataOutput out) throws IOException {
+			out.writeLong(writePosition);
+			out.writeLong(recordCount);
+			out.writeLong(lastOrderNumber);
+			out.writeBoolean(timeOrdered);
+			out.writeInt(indexOrder.length);
+			for(int k=0; k<indexOrder.length; k++) {
+				out.writeLong(indexOrder[k]);
+				out.writeLong(indexPosition[k]);
+				out.writeLong(indexMaxTime[k]);
+			}
+		}
+		
+		public static State readFrom(DataInput in) throws IOException {
+			long writePosition = in.readLong();
+			long recordCount = in.readLong();
+			long lastOrderNumber = in.readLong();
+			boolean timeOrdered = in.readBoolean();
+			int n = in.readInt();
+			if (n < 0 || n > recordCount / INDEX_INTERVAL + 1) throw new IOException("Invalid index size "+n);
+			long[] order = new long[n];
+			long[] position = new long[n];
+			long[] maxTime = new long[n];
+			for(int k=0; k<n; k++) {
+				order[k] = in.readLong();
+				position[k] = in.readLong();
+				maxTime[k] = in.readLong();
+			}
+			return new State(writePosition, recordCount, lastOrderNumber, timeOrdered, order, position, maxTime);
+		}
+	}
+	
+	/**
+	 * Open an order store in a directory, creating it if necessary.
+	 * Existing segments are scanned to rebuild the index.
+	 * @param directory directory for the segment files
+	 * @param segmentSize size of each segment file, in bytes
+	 * @throws IOException if segment files cannot be created or read
+	 */
+	public OrderStore(File directory, int segmentSize) throws IOException {
+		this(directory, segmentSize, null);
+	}
+	
+	/**
+	 * Open an order store using the index saved in a checkpoint.
+	 * Only records after the checkpoint are scanned.  If the checkpoint
+	 * doesn't match the segment files, all records are scanned.
+	 * @param directory directory for the segment files
+	 * @param segmentSize size of each segment file, in bytes
+	 * @param state state saved by getState, or null to scan all records
+	 * @throws IOException if segment files cannot be created or read
+	 */
+	public OrderStore(File directory, int segmentSize, State state) throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		if (! directory.exists()) directory.mkdirs();
+		for(int n=0; segmentFile(n).exists(); n++) {
+			segments.add( map(segmentFile(n), false) );
+		}
+		if (segments.isEmpty()) segments.add( map(segmentFile(0), true) );
+		long start = position(0, SEGMENT_HEADER);
+		if (state != null && matches(state)) {
+			restore(state);
+			restored = true;
+			start = state.writePosition;
+		}
+		else if (state != null) {
+			System.err.println("Order store checkpoint doesn't match "+directory+", scanning all orders");
+		}
+		restoredPosition = start;
+		recover(start);
+	}
+	
+	private File segmentFile(int n) {
+		return new File(directory, String.format("orders-%05d.seg", n));
+	}
+	
+	/** Memory map a segment file, and write the header if it is new. */
+	private MappedByteBuffer map(File file, boolean create) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			 FileChannel channel = raf.getChannel()) {
+			long size = create ? segmentSize : Math.max(raf.length(), SEGMENT_HEADER);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (create) {
+				buffer.putLong(0, MAGIC);
+				buffer.putInt(8, segmentSize);
+			}
+			else if (buffer.getLong(0) != MAGIC) {
+				throw new IOException("Not an order segment file: "+file);
+			}
+			return buffer;
+		}
+	}
+	
+	/** Test if a saved state agrees with the segment files. */
+	private boolean matches(State state) {
+		int n = state.indexOrder.length;
+		if (n == 0) return state.recordCount == 0;
+		int seg = segmentOf(state.writePosition);
+		int offset = offsetOf(state.writePosition);
+		if (seg >= segments.size() || offset < SEGMENT_HEADER || offset > segments.get(seg).capacity()) return false;
+		// the first record of the last index block must still be there
+		long pos = state.indexPosition[n-1];
+		if (segmentOf(pos) >= segments.size()) return false;
+		MappedByteBuffer buffer = segments.get(segmentOf(pos));
+		int off = offsetOf(pos);
+		if (off < SEGMENT_HEADER || off + RECORD_HEADER > buffer.capacity()) return false;
+		return buffer.getInt(off) >= RECORD_HEADER && buffer.getLong(off+4) == state.indexOrder[n-1];
+	}
+	
+	private void restore(State state) {
+		int n = state.indexOrder.length;
+		int capacity = Math.max(1024, Integer.highestOneBit(n) * 2);
+		indexOrder = Arrays.copyOf(state.indexOrder, capacity);
+		indexPosition = Arrays.copyOf(state.indexPosition, capacity);
+		indexMaxTime = Arrays.copyOf(state.indexMaxTime, capacity);
+		recordCount = state.recordCount;
+		lastOrderNumber = state.lastOrderNumber;
+		timeOrdered = state.timeOrdered;
+		indexSize = n;
+	}
+	
+	/**
+	 * Get the index and end of data, to save in a checkpoint.  Only call 
+	 * this from the thread that appends, so no order is half added.
+	 * @return the current state of the store
+	 */
+	public State getState() {
+		int n = indexSize;
+		return new State(writePosition, recordCount, lastOrderNumber, timeOrdered,
+				Arrays.copyOf(indexOrder, n), Arrays.copyOf(indexPosition, n), Arrays.copyOf(indexMaxTime, n));
+	}
+	
+	/**
+	 * Scan records from a position to rebuild the rest of the index 
+	 * and find the end of data.
+	 */
+	private void recover(long start) {
+		long pos = start;
+		for(int seg=segmentOf(start); seg<segments.size(); seg++) {
+			MappedByteBuffer buffer = segments.get(seg);
+			int offset = (seg == segmentOf(start)) ? offsetOf(start) : SEGMENT_HEADER;
+			pos = position(seg, offset);
+			while(offset + RECORD_HEADER <= buffer.capacity()) {
+				int length = buffer.getInt(offset);
+				if (length < RECORD_HEADER || offset + length > buffer.capacity()) break;
+				pos = position(seg, offset);
+				addToIndex(buffer.getLong(offset+4), buffer.getLong(offset+12), pos);
+				offset += length;
+				pos = position(seg, offset);
+			}
+		}
+		writePosition = pos;
+	}
+	
+	private static long position(int segment, int offset) {
+		return ((long)segment << 32) | offset;
+	}
+	
+	private static int segmentOf(long position) {
+		return (int)(position >>> 32);
+	}
+	
+	private static int offsetOf(long position) {
+		return (int) position;
+	}
+	
+	/**
+	 * Append an order.  The order must have an order number and timestamp,
+	 * and the order number must be greater than the last order appended.
+	 * Only one thread at a time may call this.
+	 * @param order the order to save
+	 * @throws IOException if a new segment file cannot be created
+	 */
+	public void append(Order order) throws IOException {
+		List<OrderItem> items = order.getOrderItems();
+		long discount = order.getDiscount();
+		int lineCount = items.size() + ((discount != 0) ? 1 : 0);
+		byte[][] names = new byte[items.size()][];
+		int namesLength = 0;
+		for(int k=0; k<names.length; k++) {
+			String name = items.get(k).getName();
+			byte[] bytes = (name != null) ? name.getBytes(StandardCharsets.UTF_8) : NO_NAME;
+			names[k] = (bytes.length <= MAX_NAME) ? bytes : NO_NAME;
+			namesLength += 2 + names[k].length;
+		}
+		int length = RECORD_HEADER + lineCount*LINE_SIZE + namesLength;
+		if (length > segmentSize - SEGMENT_HEADER) 
+			throw new IOException("Order too large for segment: "+order.getOrderNumber());
+		int seg = segmentOf(writePosition);
+		int offset = offsetOf(writePosition);
+		if (offset + length > segments.get(seg).capacity()) {
+			// start a new segment
+			seg++;
+			offset = SEGMENT_HEADER;
+			segments.add( map(segmentFile(seg), true) );
+		}
+		MappedByteBuffer buffer = segments.get(seg);
+		long time = toEpochMillis(order.getTimeStamp());
+		buffer.putLong(offset+4, order.getOrderNumber());
+		buffer.putLong(offset+12, time);
+		buffer.putInt(offset+20, lineCount);
+		int p = offset + RECORD_HEADER;
+		for(OrderItem item: items) {
+			buffer.putInt(p, (int) item.getId());
+			buffer.putInt(p+4, item.getQuantity());
+			buffer.putLong(p+8, item.getPrice());
+			p += LINE_SIZE;
+		}
+		if (discount != 0) {
+			buffer.putInt(p, DISCOUNT_ID);
+			buffer.putInt(p+4, 1);
+			buffer.putLong(p+8, -discount);
+			p += LINE_SIZE;
+		}
+		for(byte[] name: names) {
+			buffer.putShort(p, (short) name.length);
+			buffer.put(p+2, name);
+			p += 2 + name.length;
+		}
+		// write length last, so a partly written record is never seen
+		buffer.putInt(offset, length);
+		addToIndex(order.getOrderNumber(), time, position(seg, offset));
+		writePosition = position(seg, offset + length);
+	}
+	
+	/** Add a record to the sparse index. */
+	private void addToIndex(long orderNumber, long time, long pos) {
+		int k = indexSize - 1;
+		if (recordCount % INDEX_INTERVAL == 0) {
+			k = indexSize;
+			if (k == indexOrder.length) {
+				indexOrder = Arrays.copyOf(indexOrder, 2*k);
+				indexPosition = Arrays.copyOf(indexPosition, 2*k);
+				indexMaxTime = Arrays.copyOf(indexMaxTime, 2*k);
+			}
+			indexOrder[k] = orderNumber;
+			indexPosition[k] = pos;
+			indexMaxTime[k] = (k > 0) ? indexMaxTime[k-1] : Long.MIN_VALUE;
+		}
+		if (time < indexMaxTime[k]) timeOrdered = false;
+		else indexMaxTime[k] = time;
+		recordCount++;
+		lastOrderNumber = orderNumber;
+		indexSize = k + 1;
+	}
+	
+	/** Test if the index was restored from the checkpoint given to the constructor. */
+	public boolean isRestored() {
+		return restored;
+	}
+	
+	/**
+	 * Read the orders that were not in the checkpoint given to the constructor,
+	 * e.g. to update sales figures after a restart.
+	 * @param menu menu used to create the Orders
+	 * @param action called for each order, in the order they were saved
+	 * @return the number of orders
+	 */
+	public int replayAfterCheckpoint(MenuSnapshot menu, Consumer<Order> action) {
+		long end = writePosition;
+		int count = 0;
+		long pos = restoredPosition;
+		// the checkpoint may end exactly at the end of a full segment
+		if (pos < end && offsetOf(pos) + RECORD_HEADER > segments.get(segmentOf(pos)).capacity()) {
+			pos = position(segmentOf(pos)+1, SEGMENT_HEADER);
+		}
+		for( ; pos < end; pos = next(pos)) {
+			if (segments.get(segmentOf(pos)).getInt(offsetOf(pos)) == 0) {
+				// unused end of a segment
+				pos = position(segmentOf(pos)+1, SEGMENT_HEADER);
+				if (pos >= end) break;
+			}
+			action.accept( readOrder(pos, menu) );
+			count++;
+		}
+		return count;
+	}
+	
+	/** Get the order number of the last order appended, or 0 if store is empty. */
+	public long getLastOrderNumber() {
+		return lastOrderNumber;
+	}
+	
+	/** Get the number of orders in the store. */
+	public long size() {
+		return recordCount;
+	}
+	
+	/**
+	 * Find an order by order number.
+	 * @param orderNumber the order to find
+	 * @param menu menu used to create the Order
+	 * @return the order or null if not found
+	 */
+	public Order find(long orderNumber, MenuSnapshot menu) {
+		long end = writePosition;
+		// read indexSize before the arrays, so arrays are at least this long
+		int n = indexSize;
+		long[] indexOrder = this.indexOrder;
+		long[] indexPosition = this.indexPosition;
+		// binary search for last index entry with order number <= orderNumber
+		int low = 0, high = n - 1, k = -1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if (indexOrder[mid] <= orderNumber) {
+				k = mid;
+				low = mid + 1;
+			}
+			else high = mid - 1;
+		}
+		if (k < 0) return null;
+		long pos = indexPosition[k];
+		for(int count=0; count<INDEX_INTERVAL && pos < end; count++) {
+			long number = getOrderNumber(pos);
+			if (number == orderNumber) return readOrder(pos, menu);
+			if (number > orderNumber) break;
+			pos = next(pos);
+		}
+		return null;
+	}
+	
+	/**
+	 * Find all orders with timestamp in a range of time.
+	 * @param from starting date and time, inclusive
+	 * @param to ending date and time, exclusive
+	 * @param menu menu used to create the Orders
+	 * @return list of orders in the time range, may be empty
+	 */
+	public List<Order> findBetween(LocalDateTime from, LocalDateTime to, MenuSnapshot menu) {
+		List<Order> result = new ArrayList<>();
+		long end = writePosition;
+		int n = indexSize;
+		long[] indexMaxTime = this.indexMaxTime;
+		long[] indexPosition = this.indexPosition;
+		long start = toEpochMillis(from);
+		long stop = toEpochMillis(to);
+		// binary search for first block with a time >= start
+		int low = 0, high = n - 1, k = n;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if (indexMaxTime[mid] >= start) {
+				k = mid;
+				high = mid - 1;
+			}
+			else low = mid + 1;
+		}
+		if (k >= n) return result;
+		boolean ordered = timeOrdered;
+		for(long pos = indexPosition[k]; pos < end; pos = next(pos)) {
+			long time = getTime(pos);
+			if (time >= stop) {
+				if (ordered) break;
+			}
+			else if (time >= start) result.add( readOrder(pos, menu) );
+		}
+		return result;
+	}
+	
+	private long getOrderNumber(long pos) {
+		return segments.get(segmentOf(pos)).getLong(offsetOf(pos)+4);
+	}
+	
+	private long getTime(long pos) {
+		return segments.get(segmentOf(pos)).getLong(offsetOf(pos)+12);
+	}
+	
+	/** Get position of the record after the one at pos. */
+	private long next(long pos) {
+		int seg = segmentOf(pos);
+		MappedByteBuffer buffer = segments.get(seg);
+		int offset = offsetOf(pos) + buffer.getInt(offsetOf(pos));
+		if (offset + RECORD_HEADER > buffer.capacity() || buffer.getInt(offset) == 0) {
+			// end of this segment
+			if (seg + 1 < segments.size()) return position(seg+1, SEGMENT_HEADER);
+		}
+		return position(seg, offset);
+	}
+	
+	/** Create an Order from the record at pos. */
+	private Order readOrder(long pos, MenuSnapshot menu) {
+		MappedByteBuffer buffer = segments.get(segmentOf(pos));
+		int offset = offsetOf(pos);
+		Order order = new Order(menu);
+		order.setOrderNumber( buffer.getLong(offset+4) );
+		order.setTimeStamp( fromEpochMillis(buffer.getLong(offset+12)) );
+		int lines = buffer.getInt(offset+20);
+		int p = offset + RECORD_HEADER;
+		int end = offset + buffer.getInt(offset);
+		// item names follow the lines, except in old records
+		int namePos = p + lines*LINE_SIZE;
+		long discount = 0;
+		for(int k=0; k<lines; k++, p+=LINE_SIZE) {
+			int id = buffer.getInt(p);
+			if (id == DISCOUNT_ID) {
+				discount = -buffer.getLong(p+8);
+				continue;
+			}
+			order.addItem(id, buffer.getInt(p+4), buffer.getLong(p+8));
+			if (namePos + 2 <= end) {
+				int n = Short.toUnsignedInt(buffer.getShort(namePos));
+				if (n > 0) {
+					byte[] name = new byte[n];
+					buffer.get(namePos+2, name);
+					setName(order, id, new String(name, StandardCharsets.UTF_8));
+				}
+				namePos += 2 + n;
+			}
+		}
+		// the discount when the order was saved, not the current promotions
+		order.setDiscount(discount);
+		return order;
+	}
+	
+	/** Set the name of the line for an item, instead of the name in the order's menu. */
+	private static void setName(Order order, int id, String name) {
+		for(OrderItem item: order.getOrderItems()) {
+			if (item.getId() == id) item.setName(name);
+		}
+	}
+	
+	static long toEpochMillis(LocalDateTime time) {
+		return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+	}
+	
+	static LocalDateTime fromEpochMillis(long millis) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), 
+				Math.floorMod(millis, 1000)*1_000_000, ZoneOffset.UTC);
+	}
+	
+	/** Force all segments to disk. */
+	public void force() {
+		for(MappedByteBuffer buffer: segments) buffer.force();
+	}
+	
+	/** Force the data to disk.  The store should not be used after this. */
+	@Override
+	public void close() {
+		force();
+	}
+}
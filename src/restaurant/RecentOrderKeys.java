@@ -0,0 +1,139 @@
+package restaurant;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import order.Order;
+
+/**
+ * Idempotency keys of recently recorded orders, and the order number
+ * each key was given, so an order that is submitted again (e.g. a terminal
+ * timed out and retried) gets the same order number instead of a new one.
+ *
+ * Keys are kept in a ConcurrentHashMap, so checking a key is O(1) and
+ * orders with different keys don't wait for each other.  An order with
+ * the same key as an order that is still being recorded waits for that
+ * order.  Keys are removed after a time to live, or when there are too many
+ * keys, oldest first.  Since every key lives for the same time, the oldest
+ * key is always the first to expire, so a queue in the order keys were
+ * added is enough to find the keys to remove.
+ *
+ * Keys are only kept in memory, so an order retried after a restart
+ * is recorded again.
+ */
+class RecentOrderKeys {
+	/** Default time to keep a key, in seconds. */
+	static final int DEFAULT_TTL = 600;
+	/** Default largest number of keys to keep. */
+	static final int DEFAULT_MAX_KEYS = 100_000;
+
+	/** The first order with a key. The result is completed when the order is recorded. */
+	private static class Entry {
+		final String key;
+		final long expires;
+		/** The recorded order, or null if the order could not be recorded. */
+		final CompletableFuture<Order> result = new CompletableFuture<>();
+
+		Entry(String key, long expires) {
+			this.key = key;
+			this.expires = expires;
+		}
+
+		boolean isExpired(long now) {
+			return now - expires > 0;
+		}
+	}
+
+	private final ConcurrentHashMap<String,Entry> keys = new ConcurrentHashMap<>();
+	/** Entries in the order they were added, which is also the order they expire. */
+	private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+	private final long ttlNanos;
+	private final int maxKeys;
+
+	/**
+	 * Create an empty set of keys.
+	 * @param ttlSeconds seconds to keep a key
+	 * @param maxKeys largest number of keys to keep
+	 */
+	RecentOrderKeys(int ttlSeconds, int maxKeys) {
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Create the keys using the settings orders.idempotency.ttl (seconds)
+	 * and orders.idempotency.maxKeys.
+	 */
+	static RecentOrderKeys fromConfig() {
+		return new RecentOrderKeys(RestaurantConfig.getInt("orders.idempotency.ttl", DEFAULT_TTL),
+				RestaurantConfig.getInt("orders.idempotency.maxKeys", DEFAULT_MAX_KEYS));
+	}
+
+	/**
+	 * Check whether an order has the same key as an order recorded before.
+	 * If it does, the order gets the order number and timestamp of the
+	 * earlier order, waiting for the earlier order to be recorded if needed.
+	 * Otherwise the key belongs to this order, and the caller must record
+	 * the order and then call recorded or failed.
+	 * @param order an order to be recorded
+	 * @return true if the order was recorded before and must not be recorded again
+	 */
+	boolean isRetry(Order order) {
+		String key = order.getIdempotencyKey();
+		if (key == null) return false;
+		while(true) {
+			long now = System.nanoTime();
+			Entry entry = keys.get(key);
+			if (entry == null || (entry.isExpired(now) && entry.result.isDone())) {
+				Entry mine = new Entry(key, now + ttlNanos);
+				boolean claimed = (entry == null) ? keys.putIfAbsent(key, mine) == null : keys.replace(key, entry, mine);
+				if (claimed) {
+					added.add(mine);
+					removeOld(now);
+					return false;
+				}
+				continue; // another thread added the key first
+			}
+			Order first = entry.result.join();
+			if (first == null) {
+				// the first order failed, so try to use the key for this order
+				keys.remove(key, entry);
+				continue;
+			}
+			order.setOrderNumber(first.getOrderNumber());
+			order.setTimeStamp(first.getTimeStamp());
+			return true;
+		}
+	}
+
+	/** Called after an order whose key was new has been recorded. */
+	void recorded(Order order) {
+		Entry entry = find(order);
+		if (entry != null) entry.result.complete(order);
+	}
+
+	/** Called if an order whose key was new could not be recorded, so the key can be used again. */
+	void failed(Order order) {
+		Entry entry = find(order);
+		if (entry == null) return;
+		keys.remove(entry.key, entry);
+		entry.result.complete(null);
+	}
+
+	private Entry find(Order order) {
+		String key = order.getIdempotencyKey();
+		return (key == null) ? null : keys.get(key);
+	}
+
+	/** Remove expired keys, and the oldest keys if there are too many. */
+	private void removeOld(long now) {
+		Entry oldest;
+		while((oldest = added.peek()) != null && (oldest.isExpired(now) || keys.size() > maxKeys)) {
+			// a key still being recorded is kept, so its retries still wait for it
+			if (! oldest.result.isDone()) return;
+			if (added.remove(oldest)) keys.remove(oldest.key, oldest);
+		}
+	}
+}
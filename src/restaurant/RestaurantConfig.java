@@ -0,0 +1,75 @@
+package restaurant;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Configuration settings for the RestaurantManager, such as
+ * file names and how orders are saved.
+ * 
+ * Settings are read from the file restaurant.properties (on the
+ * classpath or in the current directory), and any setting can be
+ * overridden by a System property with the same name, e.g.
+ * java -Djournal.durability=ORDER RestaurantApp
+ */
+public class RestaurantConfig {
+	/** Name of the configuration file. */
+	static final String CONFIG_FILE = "restaurant.properties";
+	
+	private static Properties properties = null;
+
+	/** Don't allow instances. */
+	private RestaurantConfig() { }
+	
+	/**
+	 * Get the value of a setting.
+	 * @param key name of the setting
+	 * @param defaultValue value to return if the setting isn't defined
+	 * @return value of the setting or the defaultValue
+	 */
+	public static String get(String key, String defaultValue) {
+		String value = System.getProperty(key);
+		if (value != null) return value.trim();
+		value = getProperties().getProperty(key);
+		return (value != null) ? value.trim() : defaultValue;
+	}
+	
+	/**
+	 * Get the value of a setting as an int.
+	 * @param key name of the setting
+	 * @param defaultValue value to return if the setting isn't defined or invalid
+	 * @return value of the setting or the defaultValue
+	 */
+	public static int getInt(String key, int defaultValue) {
+		String value = get(key, null);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException nfe) {
+			System.err.printf("Invalid value for %s: %s\n", key, value);
+			return defaultValue;
+		}
+	}
+	
+	/** Load the properties file, only once. */
+	private static synchronized Properties getProperties() {
+		if (properties != null) return properties;
+		properties = new Properties();
+		ClassLoader loader = RestaurantConfig.class.getClassLoader();
+		InputStream in = loader.getResourceAsStream( CONFIG_FILE );
+		if (in == null) try {
+			in = new FileInputStream( CONFIG_FILE );
+		} catch(FileNotFoundException nfe) {
+			// no config file. Use the defaults.
+			return properties;
+		}
+		try (InputStream input = in) {
+			properties.load(input);
+		} catch (IOException ex) {
+			System.err.println("Error reading "+CONFIG_FILE+": "+ex.getMessage());
+		}
+		return properties;
+	}
+}
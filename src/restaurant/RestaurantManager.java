@@ -1,10 +1,19 @@
 package restaurant;
+import java.io.File;
+import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.concurrent.atomic.AtomicLong;
-
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import menu.MenuSnapshot;
+import order.Money;
 import order.Order;
+import promo.Promotion;
+import promo.PromotionReader;
+import sales.SalesAggregator;
 
 /**
  * RestaurantManager provides behavior that a restaurant
@@ -26,6 +35,9 @@ import order.Order;
  * b) RestaurantManagerORM - uses a database for data
  * 
  * the getIntance() method creates the real RestaurantManager.
+ * 
+ * To host several restaurant locations in one application, use
+ * a LocationRegistry, which has one RestaurantManager per Location.
  *
  * @author Fatalai Jon
  */
@@ -33,11 +45,23 @@ import order.Order;
 public class RestaurantManager {
 	/** Name of the restaurant displayed in UI and on receipts. */
 	static final String restaurantName = "SKE Object Cafe";
+	/** Default file of promotions, see promo.PromotionReader. */
+	static final String PROMOTIONS_FILE = "data/promotions.txt";
 	
-	/** Singleton instance of this class. */
-	private static RestaurantManager instance = null;
-	/** Next available order number. */
-	protected AtomicLong nextOrderNumber;;
+	/** Singleton instance of this class. Volatile for double-checked locking in getInstance. */
+	private static volatile RestaurantManager instance = null;
+	/** The location of this restaurant, which is part of its order numbers. */
+	protected final Location location;
+	/** Source of order numbers. */
+	protected OrderNumberSequence orderNumbers;
+	/** Listeners notified after each order is recorded. */
+	private final List<OrderListener> orderListeners = new CopyOnWriteArrayList<>();
+	/** Live sales figures. Updated as a listener of recorded orders. */
+	protected final SalesAggregator sales = new SalesAggregator();
+	/** Statistics published as a RestaurantManagerMXBean. */
+	protected final RestaurantStats stats = new RestaurantStats(this);
+	/** Idempotency keys of recent orders, so a retried order isn't recorded twice. */
+	final RecentOrderKeys recentKeys = RecentOrderKeys.fromConfig();
 	/** Logger for messages such as exceptions and unusual conditions. */
 	protected static Logger logger = null;
 	
@@ -46,12 +70,34 @@ public class RestaurantManager {
 	 * Constructor is protected to allow creating subclasses.
 	 */
 	protected RestaurantManager() {
-	    nextOrderNumber = new AtomicLong(1L);
+		this(Location.DEFAULT);
+	}
+	
+	/**
+	 * Create a manager for one location.
+	 * Constructor is protected to allow creating subclasses.
+	 * @param location the restaurant location
+	 */
+	protected RestaurantManager(Location location) {
+		this.location = location;
+	    orderNumbers = new OrderNumberSequence(1L);
+	    addOrderListener(sales);
+	}
+	
+	/**
+	 * Register the statistics MBean, unless the monitor.jmx setting is false.
+	 * Called after the manager is constructed, so the MBean never sees 
+	 * a subclass that is not initialized yet.
+	 */
+	void registerMBean() {
+		if (Boolean.parseBoolean(RestaurantConfig.get("monitor.jmx", "true"))) stats.register();
 	}
 
 	/**
 	 * Get an instance of RestaurantManager.
 	 * Returned object may be a singleton or subclass object.
+	 * The kind of RestaurantManager is chosen by the "manager" setting
+	 * in restaurant.properties: "file" (default) or "orm" for a database.
 	 *
 	 * @return instance of RestaurantManager
 	 */
@@ -60,30 +106,80 @@ public class RestaurantManager {
 			// If it doesn't exist, then create it now (only once).
 			// This synchronized block and redundant test prevent double object creation.
 			synchronized(RestaurantManager.class) {
-				if (instance == null) instance = new FileBackedRestaurantManager();
+				if (instance == null) {
+					RestaurantManager manager = createManager( RestaurantConfig.get("manager", "file") );
+					manager.registerMBean();
+					instance = manager;
+				}
 			}
 		}
 		return instance;
 	}	
 	
+	/** Create the kind of RestaurantManager named in the configuration. */
+	private static RestaurantManager createManager(String kind) {
+		switch(kind.toLowerCase()) {
+		case "orm":
+		case "database":
+			return new RestaurantManagerORM();
+		case "file":
+			return new FileBackedRestaurantManager();
+		default:
+			getLogger().warning("Unknown manager "+kind+", using file");
+			return new FileBackedRestaurantManager();
+		}
+	}
+	
+	/**
+	 * Return the current menu.  The snapshot never changes; if the
+	 * menu is changed, later calls return a new snapshot.
+	 * 
+	 * @return the current menu
+	 */
+	public MenuSnapshot getMenu() {
+		// subclass should override this and return actual menu
+		return MenuSnapshot.EMPTY;
+	}
+	
+	/** Get the name of the promotions file, from the promotions.file setting. */
+	protected String getPromotionsFile() {
+		return RestaurantConfig.get("promotions.file", PROMOTIONS_FILE);
+	}
+	
+	/**
+	 * Add the promotions in the promotions file (the promotions.file setting)
+	 * to a new menu.  The promotions are compiled for the menu's items, 
+	 * so pricing an order only looks at promotions for items in the order.
+	 * Subclasses call this each time they load a menu.
+	 * @param menu the new menu
+	 * @return the menu with promotions, or the same menu if there are none
+	 */
+	protected MenuSnapshot addPromotions(MenuSnapshot menu) {
+		List<Promotion> promotions = PromotionReader.read(getPromotionsFile());
+		if (promotions.isEmpty()) return menu;
+		MenuSnapshot withPromotions = menu.withPromotions(promotions);
+		int unused = promotions.size() - withPromotions.getPromotions().size();
+		getLogger().info(String.format("Using %d promotions%s", withPromotions.getPromotions().size(),
+				(unused > 0) ? ", "+unused+" have items not on the menu" : ""));
+		return withPromotions;
+	}
+	
 	/** 
 	 * Return the menu items as an array of menu item names.
 	 * 
-	 * @return the menu item names
+	 * @return the menu item names, a copy of the current menu
 	 */
 	public String[] getMenuItems() {
-		// subclass should override this and return actual menu
-		return new String[0];
+		return getMenu().getNames();
 	}
 
 	/** 
-	 * Return the prices of the menu items
+	 * Return the prices of the menu items, in minor units (see Money).
 	 * 
-	 * @return the menu item prices
+	 * @return the menu item prices, a copy of the current menu
 	 */
-	public double[] getPrices() {
-		// subclass should override this and return actual prices
-		return new double[0];
+	public long[] getPrices() {
+		return getMenu().getPrices();
 	}
 
 
@@ -91,37 +187,188 @@ public class RestaurantManager {
 	public static void main(String[] args) {
 		RestaurantManager rm = getInstance();
 		String[] menu = rm.getMenuItems();
-		double[] prices = rm.getPrices();
+		long[] prices = rm.getPrices();
 
 		for(int k=0; k<menu.length; k++) {
-			System.out.printf("%-24.24s  %,7.2f\n", menu[k], prices[k]);
+			System.out.printf("%-24.24s  %7s\n", menu[k], Money.format(prices[k]));
 		}
 	}
 	
 	/**
-	 * Record an order.  Set the order number and timestamp.
+	 * Record an order.  Set the order number, and the timestamp
+	 * unless the order already has one (e.g. an imported order).
 	 * @param order
 	 */
 	public void recordOrder(Order order) {
 		// assign order number
 		order.setOrderNumber( getNextOrderNumber() );
-		order.setTimeStamp( LocalDateTime.now() );
+		if (order.getTimeStamp() == null) order.setTimeStamp( LocalDateTime.now() );
 		
 		// subclass is responsible for actually saving the order.
 	}
 	
 	/**
-	 * Return a unique order number.
-	 * Uses AtomicLong to avoid possible inconsistencies
-	 * if using threads.
+	 * Check whether an order is a retry of an order recorded recently,
+	 * using the order's idempotency key.  If it is, the order gets the
+	 * order number and timestamp of the earlier order and must not be
+	 * recorded again.  Otherwise, the subclass records the order and then
+	 * calls keyRecorded, or keyFailed if the order could not be recorded.
+	 * Subclasses call this at the start of recordOrder.
+	 * @param order the order to record
+	 * @return true if the order was already recorded
+	 */
+	protected boolean isRetry(Order order) {
+		if (! recentKeys.isRetry(order)) return false;
+		stats.orderRetried();
+		return true;
+	}
+	
+	/** Called after recording an order that was not a retry. */
+	protected void keyRecorded(Order order) {
+		recentKeys.recorded(order);
+	}
+	
+	/** Called if an order that was not a retry could not be recorded, so it can be retried. */
+	protected void keyFailed(Order order) {
+		recentKeys.failed(order);
+	}
+	
+	/**
+	 * Record many orders, such as orders imported from a file.
+	 * The orders are recorded in the order of the list, and keep their
+	 * timestamps if they have one.  Subclasses may record the orders
+	 * faster than calling recordOrder for each one.
+	 * @param orders the orders to record
+	 */
+	public void recordOrders(List<Order> orders) {
+		for(Order order: orders) recordOrder(order);
+	}
+	
+	/**
+	 * Called when a terminal's session ends, so resources kept for the
+	 * terminal (such as its order queue) can be released.
+	 * The default does nothing.
+	 * @param terminal the terminal name used in its orders
+	 */
+	public void terminalClosed(String terminal) {
+		// subclasses that keep something for each terminal override this
+	}
+	
+	/**
+	 * Get the live sales figures of orders recorded by this manager.
+	 * @return the sales figures
+	 */
+	public SalesAggregator getSales() {
+		return sales;
+	}
+	
+	/**
+	 * Add a listener to be notified after each order is recorded.
+	 * @param listener the listener to add
+	 */
+	public void addOrderListener(OrderListener listener) {
+		orderListeners.add(listener);
+	}
+	
+	/**
+	 * Remove a listener added by addOrderListener.
+	 * @param listener the listener to remove
+	 */
+	public void removeOrderListener(OrderListener listener) {
+		orderListeners.remove(listener);
+	}
+	
+	/**
+	 * Notify listeners that an order was recorded. Subclasses call this
+	 * after saving an order, always from the same thread, in the
+	 * order the orders were saved.  An exception thrown by a listener is 
+	 * logged and doesn't stop other listeners.
+	 * @param order the order that was recorded
+	 */
+	protected void fireOrderRecorded(Order order) {
+		for(OrderListener listener: orderListeners) {
+			try {
+				listener.orderRecorded(order);
+			} catch (RuntimeException ex) {
+				getLogger().log(Level.WARNING, "Order listener failed for order "+order.getOrderNumber(), ex);
+			}
+		}
+	}
+	
+	/**
+	 * Find an order that was recorded earlier, e.g. to reprint a receipt.
+	 * @param orderNumber the order number of the order
+	 * @return the order, or null if there is no order with that number
+	 */
+	public Order findOrder(long orderNumber) {
+		// subclass should override this
+		return null;
+	}
+	
+	/**
+	 * Find all orders recorded during a period of time.
+	 * @param from starting date and time, inclusive
+	 * @param to ending date and time, exclusive
+	 * @return list of orders with timestamp in the given period. May be empty.
+	 */
+	public List<Order> ordersBetween(LocalDateTime from, LocalDateTime to) {
+		// subclass should override this
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Return a unique order number, with the location number in the high bits.
+	 * Uses OrderNumberSequence, which is thread-safe and doesn't lock
+	 * except when it reserves a new block of numbers.
 	 * @return next available order number
 	 */
 	protected long getNextOrderNumber() {
-		return nextOrderNumber.getAndIncrement();	
+		return location.orderNumber(orderNumbers.next());
+	}
+	
+	/**
+	 * Open the order number sequence saved in a file, so order numbers
+	 * continue after a restart.  If numbers between the last saved order
+	 * and the first new order number were never used, orderNumberGap is called.
+	 * If the file cannot be used, an in-memory sequence is used instead.
+	 * @param filename the sequence file
+	 * @param lastSaved the last order number actually saved, or 0 if none
+	 * @return an order number sequence
+	 */
+	protected OrderNumberSequence openOrderNumbers(String filename, long lastSaved) {
+		// the sequence doesn't include the location number
+		lastSaved = Location.sequenceOf(lastSaved);
+		int blockSize = RestaurantConfig.getInt("orders.sequenceBlock", OrderNumberSequence.DEFAULT_BLOCK_SIZE);
+		try {
+			OrderNumberSequence sequence = new OrderNumberSequence(new File(filename), blockSize, lastSaved + 1);
+			if (sequence.getStart() > lastSaved + 1) 
+				orderNumberGap(location.orderNumber(lastSaved + 1), location.orderNumber(sequence.getStart() - 1));
+			return sequence;
+		} catch (IOException ex) {
+			getLogger().severe("Could not open order number sequence: "+ex.getMessage());
+			return new OrderNumberSequence(lastSaved + 1);
+		}
+	}
+	
+	/**
+	 * Called when a range of order numbers was reserved but never used,
+	 * such as the unused part of the last block before a restart.
+	 * The default is to log the gap. Subclasses can override this to 
+	 * record the gap, e.g. for auditing.
+	 * @param first the first unused order number
+	 * @param last the last unused order number
+	 */
+	protected void orderNumberGap(long first, long last) {
+		getLogger().info(String.format("Order numbers %d to %d were not used", first, last));
 	}
 
 	public String getRestaurantName() {
-		return restaurantName;
+		return location.getName();
+	}
+	
+	/** Get the location of this restaurant. */
+	public Location getLocation() {
+		return location;
 	}
 	
 	protected static Logger getLogger() {
@@ -129,6 +376,37 @@ public class RestaurantManager {
 		return logger;
 	}
 	
-	/** Prepare for exit. Close files or database connection. */
-	public void shutdown() {  }
+	/** 
+	 * Get the number of orders waiting to be recorded. 
+	 * Subclasses that queue orders should override this.
+	 */
+	int getIntakeQueueDepth() {
+		return 0;
+	}
+	
+	/** 
+	 * Get the number of orders waiting to be written to a file or database. 
+	 * Subclasses that write in the background should override this.
+	 */
+	int getWriteQueueDepth() {
+		return 0;
+	}
+	
+	/** Get the cache of menu items read from a database, or null if there is none. */
+	MenuItemCache getMenuItemCache() {
+		return null;
+	}
+	
+	/** Get the number of bytes written to the order journal, or 0 if there is none. */
+	long getJournalBytesWritten() {
+		return 0;
+	}
+	
+	/** 
+	 * Prepare for exit. Close files or database connection. 
+	 * Subclasses should call super.shutdown() after closing their files.
+	 */
+	public void shutdown() {
+		stats.unregister();
+	}
 }
@@ -0,0 +1,65 @@
+package restaurant;
+
+/**
+ * Management interface of a RestaurantManager, for JConsole or other JMX clients.
+ * Each manager is registered as 
+ * ske.restaurant:type=RestaurantManager,name=(class name)-(number).
+ * Times are in microseconds.
+ */
+public interface RestaurantManagerMXBean {
+	
+	/** Get the kind of RestaurantManager. */
+	String getManagerType();
+	
+	/** Get the number of orders recorded since start. */
+	long getOrderCount();
+	
+	/** Get the number of orders submitted again with the same idempotency key, which were not recorded again. */
+	long getRetriedOrderCount();
+	
+	/** Get the average number of orders recorded per second, over the last 10 seconds. */
+	double getOrdersPerSecond();
+	
+	/** Get the median time to record an order. */
+	long getRecordLatencyP50();
+	
+	/** Get the 99th percentile time to record an order. */
+	long getRecordLatencyP99();
+	
+	/** Get the 99.9th percentile time to record an order. */
+	long getRecordLatencyP999();
+	
+	/** Get the longest time to record an order. */
+	long getRecordLatencyMax();
+	
+	/**
+	 * Get the histogram of times to record an order.  Element k is the
+	 * number of orders that took less than 2^k microseconds 
+	 * (and at least 2^(k-1)).
+	 */
+	long[] getRecordLatencyHistogram();
+	
+	/** Clear the latency histogram. */
+	void resetLatency();
+	
+	/** Get the number of orders waiting to be recorded. */
+	int getIntakeQueueDepth();
+	
+	/** Get the number of orders or records waiting to be written to the journal or database. */
+	int getWriteQueueDepth();
+	
+	/** Get the version of the current menu. */
+	long getMenuVersion();
+	
+	/** Get the number of bytes written to the order journal since start. */
+	long getJournalBytesWritten();
+	
+	/** Get the number of menu item lookups found in the menu item cache, or 0 if there is no database. */
+	long getMenuCacheHits();
+	
+	/** Get the number of menu item lookups that queried the database. */
+	long getMenuCacheMisses();
+	
+	/** Get the number of entries removed from the menu item cache because it was full. */
+	long getMenuCacheEvictions();
+}
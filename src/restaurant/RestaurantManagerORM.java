@@ -0,0 +1,350 @@
+package restaurant;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.logger.LogBackendType;
+import com.j256.ormlite.logger.LoggerFactory;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.table.TableUtils;
+
+import menu.MenuReader;
+import menu.MenuSnapshot;
+import order.Order;
+import order.OrderItem;
+
+/**
+ * RestaurantManager that uses an embedded database for the menu
+ * and orders.  The default database is an H2 database file in the
+ * data directory, so no database server is needed.
+ * 
+ * Connections come from a connection pool.  Orders are saved by
+ * an OrderBatchWriter, which saves many orders in one transaction.
+ * An order may not be visible to findOrder until its batch is saved.
+ * 
+ * Menu items are kept in a MenuItemCache, which is filled when the menu
+ * is loaded, so finding a menu item seldom needs a query.  Orders are
+ * priced using the MenuSnapshot, which never needs a query.
+ * Changing an item with updateMenuItem saves it to the database and
+ * the cache, and replaces the snapshot.
+ * 
+ * To use this RestaurantManager, set manager=orm in restaurant.properties.
+ */
+public class RestaurantManagerORM extends RestaurantManager {
+	/** Default database URL. */
+	static final String DATABASE_URL = "jdbc:h2:./data/ske_restaurant";
+	static final String ORDERS_SEQUENCE = "data/ske_restaurant.seq";
+	
+	private JdbcPooledConnectionSource connectionSource;
+	private Dao<MenuItem,Long> menuDao;
+	private Dao<OrderRecord,Long> orderDao;
+	private Dao<OrderLine,Long> lineDao;
+	private OrderBatchWriter writer;
+	/** 
+	 * Held while an order gets its number and is queued for the writer, so 
+	 * orders are saved, and listeners notified, in order of order number.
+	 */
+	private final Object submitLock = new Object();
+	/** Menu items by id and name. Null if there is no database. */
+	private MenuItemCache menuItems;
+	
+	/** The current menu. Replaced (never modified) when a menu item is changed. */
+	private volatile MenuSnapshot menu = MenuSnapshot.EMPTY;
+	/** 
+	 * Index in the menu of each item, by database id.  Items are in the
+	 * menu in order of id, but ids may have gaps.  Only changed with the menu.
+	 */
+	private Map<Long,Integer> menuIndex = Collections.emptyMap();
+	
+	/**
+	 * Don't allow direct instantiation of this class.
+	 * Constructor is protected to allow defining subclasses.
+	 */
+	protected RestaurantManagerORM() {
+		// send ORMLite messages to java.util.logging, like our own Logger
+		LoggerFactory.setLogBackendFactory(LogBackendType.JAVA_UTIL);
+		String url = RestaurantConfig.get("db.url", DATABASE_URL);
+		try {
+			connectionSource = new JdbcPooledConnectionSource(url, 
+					RestaurantConfig.get("db.user", null), RestaurantConfig.get("db.password", null));
+			connectionSource.setMaxConnectionsFree( RestaurantConfig.getInt("db.maxConnectionsFree", 5) );
+			// test pooled connections that have been idle, and close old ones
+			connectionSource.setTestBeforeGet(true);
+			connectionSource.setMaxConnectionAgeMillis(30*60*1000L);
+			
+			TableUtils.createTableIfNotExists(connectionSource, MenuItem.class);
+			TableUtils.createTableIfNotExists(connectionSource, OrderRecord.class);
+			TableUtils.createTableIfNotExists(connectionSource, OrderLine.class);
+			menuDao = DaoManager.createDao(connectionSource, MenuItem.class);
+			orderDao = DaoManager.createDao(connectionSource, OrderRecord.class);
+			lineDao = DaoManager.createDao(connectionSource, OrderLine.class);
+			menuItems = new MenuItemCache(menuDao, RestaurantConfig.getInt("db.menuCache.size", MenuItemCache.DEFAULT_SIZE));
+			
+			loadMenu();
+			long lastOrder = orderDao.queryRawValue(
+					"SELECT MAX(" + OrderRecord.ORDER_NUMBER_FIELD + ") FROM orders");
+			orderNumbers = openOrderNumbers( RestaurantConfig.get("db.sequence", ORDERS_SEQUENCE), lastOrder );
+			writer = new OrderBatchWriter(orderDao, lineDao, this::fireOrderRecorded);
+		} catch (SQLException ex) {
+			getLogger().severe("Could not open database "+url+": "+ex.getMessage());
+		}
+	}
+	
+	/** Load the menu from the database. If the menu table is empty, add items from the menu file. */
+	private void loadMenu() throws SQLException {
+		MenuLoadEvent event = new MenuLoadEvent();
+		event.begin();
+		List<MenuItem> items = menuDao.queryBuilder().orderBy("id", true).query();
+		if (items.isEmpty()) {
+			MenuReader reader = FileBackedRestaurantManager.createMenuReader(FileBackedRestaurantManager.MENU_FILE);
+			reader.read();
+			for(int k=0; k<reader.size(); k++) {
+				MenuItem item = new MenuItem(reader.getName(k), reader.getPrice(k));
+				// use same item ids as the menu file
+				item.setId( (long)(k+1) );
+				items.add(item);
+			}
+			menuDao.create(items);
+		}
+		menuItems.preload(items);
+		// item 0 is not used, so that item numbers start at 1
+		String[] names = new String[items.size() + 1];
+		long[] prices = new long[items.size() + 1];
+		Map<Long,Integer> index = new HashMap<>(2*items.size());
+		names[0] = "No item";
+		for(int k=0; k<items.size(); k++) {
+			names[k+1] = items.get(k).getName();
+			prices[k+1] = items.get(k).getPrice();
+			index.put(items.get(k).getId(), k+1);
+		}
+		menuIndex = index;
+		menu = addPromotions(new MenuSnapshot(1L, names, prices));
+		menu.getSearchIndex();
+		event.source = "database";
+		event.items = items.size();
+		event.version = menu.getVersion();
+		event.changed = true;
+		event.commit();
+	}
+
+	/**
+	 * @see RestaurantManager#getMenu()
+	 */
+	@Override
+	public MenuSnapshot getMenu() {
+		return menu;
+	}
+	
+	/**
+	 * Record an order.  Set the order number and timestamp, and wait
+	 * while the order is saved in the database with other queued orders.
+	 * Listeners are notified by the writer thread after the order is saved,
+	 * in order of order number.
+	 * An order with the same idempotency key as a recent order is
+	 * not recorded again; it gets the earlier order's number.
+	 * @param order the order to record
+	 * @throws IllegalStateException if there is no database or the order could not be saved
+	 */
+	@Override
+	public void recordOrder(Order order) {
+		if (writer == null) throw new IllegalStateException("No database, order not recorded");
+		if (isRetry(order)) return;
+		OrderRecordedEvent event = new OrderRecordedEvent();
+		event.begin();
+		long start = System.nanoTime();
+		try {
+			submit(order).await();
+		} catch (RuntimeException ex) {
+			keyFailed(order);
+			throw ex;
+		}
+		keyRecorded(order);
+		stats.orderRecorded(start);
+		event.commit(order);
+	}
+	
+	/**
+	 * Record many orders, in the order of the list.  All the orders are
+	 * queued for the writer together, so they are saved in a few batches
+	 * and this only waits for the last ones.
+	 * @param orders the orders to record
+	 * @throws IllegalStateException if there is no database or an order could not be saved
+	 */
+	@Override
+	public void recordOrders(List<Order> orders) {
+		if (writer == null) throw new IllegalStateException("No database, orders not recorded");
+		List<OrderBatchWriter.PendingOrder> pending = new ArrayList<>(orders.size());
+		for(Order order: orders) pending.add( submit(order) );
+		for(OrderBatchWriter.PendingOrder saving: pending) saving.await();
+	}
+	
+	/** Set the order number and timestamp, and queue the order for the writer. */
+	private OrderBatchWriter.PendingOrder submit(Order order) {
+		synchronized(submitLock) {
+			super.recordOrder(order);
+			long orderNumber = order.getOrderNumber();
+			List<OrderItem> items = order.getOrderItems();
+			List<OrderLine> lines = new ArrayList<>(items.size());
+			for(OrderItem item: items) {
+				lines.add( new OrderLine(orderNumber, (int) item.getId(), item.getQuantity(), item.getPrice()) );
+			}
+			OrderRecord record = new OrderRecord(orderNumber, OrderStore.toEpochMillis(order.getTimeStamp()), order.getTotal());
+			return writer.submit(order, record, lines);
+		}
+	}
+	
+	/**
+	 * Get a menu item by id.
+	 * @param id the item's database id, which may differ from its number in the menu
+	 * @return the item, or null if there is no such item or no database
+	 */
+	public MenuItem getMenuItem(long id) {
+		if (menuItems == null) return null;
+		try {
+			return menuItems.get(id);
+		} catch (SQLException ex) {
+			getLogger().warning("getMenuItem "+id+": "+ex.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Find a menu item by its exact name.
+	 * @param name the name of the item
+	 * @return the item, or null if there is no such item or no database
+	 */
+	public MenuItem findMenuItem(String name) {
+		if (menuItems == null) return null;
+		try {
+			return menuItems.findByName(name);
+		} catch (SQLException ex) {
+			getLogger().warning("findMenuItem "+name+": "+ex.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Save a changed menu item, such as a new price or name, and use it 
+	 * for new orders.  The item is saved to the database and the cache,
+	 * and then the menu is replaced by a new version with the changed item.
+	 * @param item a menu item, e.g. from getMenuItem, after calling setPrice or setName
+	 * @throws IllegalStateException if the item could not be saved
+	 */
+	public void updateMenuItem(MenuItem item) {
+		if (menuItems == null) throw new IllegalStateException("No database");
+		try {
+			menuItems.update(item);
+		} catch (SQLException ex) {
+			throw new IllegalStateException("Could not update menu item "+item.getId()+": "+ex.getMessage(), ex);
+		}
+		synchronized(this) {
+			MenuSnapshot old = menu;
+			Integer id = menuIndex.get(item.getId());
+			if (id == null) return; // not in the menu
+			String[] names = old.getNames();
+			long[] prices = old.getPrices();
+			names[id] = item.getName();
+			prices[id] = item.getPrice();
+			// the same promotions, compiled for the changed item
+			menu = new MenuSnapshot(old.getVersion() + 1, names, prices)
+					.withPromotions(old.getPromotions().getPromotions());
+		}
+	}
+	
+	/**
+	 * @see RestaurantManager#findOrder(long)
+	 */
+	@Override
+	public Order findOrder(long orderNumber) {
+		if (orderDao == null) return null;
+		try {
+			OrderRecord record = orderDao.queryForId(orderNumber);
+			if (record == null) return null;
+			return toOrder(record, lineDao.queryForEq(OrderLine.ORDER_NUMBER_FIELD, orderNumber));
+		} catch (SQLException ex) {
+			getLogger().warning("findOrder "+orderNumber+": "+ex.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * The lines of all the orders are read in one query, not one query per order.
+	 * @see RestaurantManager#ordersBetween(LocalDateTime, LocalDateTime)
+	 */
+	@Override
+	public List<Order> ordersBetween(LocalDateTime from, LocalDateTime to) {
+		if (orderDao == null) return Collections.emptyList();
+		try {
+			List<OrderRecord> records = between(orderDao.queryBuilder(), from, to)
+					.orderBy(OrderRecord.ORDER_NUMBER_FIELD, true).query();
+			if (records.isEmpty()) return Collections.emptyList();
+			// lines of the same orders, with the order numbers as a subquery
+			QueryBuilder<OrderRecord,Long> orders = between(orderDao.queryBuilder(), from, to)
+					.selectColumns(OrderRecord.ORDER_NUMBER_FIELD);
+			Map<Long,List<OrderLine>> lines = new HashMap<>(2*records.size());
+			for(OrderLine line: lineDao.queryBuilder().orderBy("id", true)
+					.where().in(OrderLine.ORDER_NUMBER_FIELD, orders).query()) {
+				lines.computeIfAbsent(line.getOrderNumber(), n -> new ArrayList<>()).add(line);
+			}
+			List<Order> result = new ArrayList<>(records.size());
+			for(OrderRecord record: records) {
+				result.add( toOrder(record, lines.getOrDefault(record.getOrderNumber(), Collections.emptyList())) );
+			}
+			return result;
+		} catch (SQLException ex) {
+			getLogger().warning("ordersBetween: "+ex.getMessage());
+			return Collections.emptyList();
+		}
+	}
+	
+	/** Select orders with a timestamp from the start time up to but not including the end time. */
+	private static QueryBuilder<OrderRecord,Long> between(QueryBuilder<OrderRecord,Long> query,
+			LocalDateTime from, LocalDateTime to) throws SQLException {
+		query.where().ge(OrderRecord.TIMESTAMP_FIELD, OrderStore.toEpochMillis(from))
+				.and().lt(OrderRecord.TIMESTAMP_FIELD, OrderStore.toEpochMillis(to));
+		return query;
+	}
+	
+	/** Create an Order from a saved order and its lines. */
+	private Order toOrder(OrderRecord record, List<OrderLine> lines) {
+		Order order = new Order(menu);
+		order.setOrderNumber(record.getOrderNumber());
+		order.setTimeStamp( OrderStore.fromEpochMillis(record.getTimestamp()) );
+		for(OrderLine line: lines) {
+			order.addItem(line.getItemId(), line.getQuantity(), line.getUnitPrice());
+		}
+		// the saved total includes the discount
+		order.setDiscount(order.getSubtotal() - record.getTotal());
+		return order;
+	}
+	
+	/** Save queued orders and close the database connections. */
+	@Override
+	public void shutdown() {
+		if (writer != null) writer.close();
+		if (connectionSource != null) try {
+			connectionSource.close();
+		} catch (IOException ex) {
+			getLogger().warning("Error closing database: "+ex.getMessage());
+		}
+		super.shutdown();
+	}
+	
+	@Override
+	MenuItemCache getMenuItemCache() {
+		return menuItems;
+	}
+	
+	@Override
+	int getWriteQueueDepth() {
+		return (writer != null) ? writer.size() : 0;
+	}
+}
@@ -0,0 +1,209 @@
+package restaurant;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a RestaurantManager, published as a RestaurantManagerMXBean.
+ * Recording an order only increments a few LongAdders, so the
+ * statistics can always be on.  Latencies are counted in buckets
+ * that are powers of 2 microseconds, so percentiles are approximate 
+ * (the upper bound of the bucket).
+ */
+class RestaurantStats implements RestaurantManagerMXBean {
+	/** Number of latency buckets. The last bucket is for anything over 2^(BUCKETS-2) usec. */
+	static final int BUCKETS = 32;
+	/** Number of seconds used to compute orders per second. */
+	static final int RATE_SECONDS = 10;
+	/** Slots in the ring of per-second counts. Must be a power of 2 greater than RATE_SECONDS. */
+	static final int RATE_SLOTS = 16;
+	private static final AtomicInteger count = new AtomicInteger();
+	
+	private final RestaurantManager rm;
+	private final LongAdder orders = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder[] latency = new LongAdder[BUCKETS];
+	private final AtomicLong maxLatency = new AtomicLong();
+	/** The second of each slot, and the number of orders recorded in that second. */
+	private final AtomicLongArray rateSecond = new AtomicLongArray(RATE_SLOTS);
+	private final AtomicLongArray rateCount = new AtomicLongArray(RATE_SLOTS);
+	private ObjectName name;
+	
+	RestaurantStats(RestaurantManager rm) {
+		this.rm = rm;
+		for(int k=0; k<BUCKETS; k++) latency[k] = new LongAdder();
+	}
+	
+	/** Register as an MBean. Failure is logged and ignored. */
+	void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			String location = (rm.getLocation() == Location.DEFAULT) ? "" : ",location=" + rm.getLocation().getId();
+			name = new ObjectName("ske.restaurant:type=RestaurantManager,name="
+					+ getManagerType() + "-" + count.incrementAndGet() + location);
+			server.registerMBean(this, name);
+		} catch (JMException|SecurityException ex) {
+			RestaurantManager.getLogger().warning("Could not register RestaurantManager MBean: "+ex.getMessage());
+			name = null;
+		}
+	}
+	
+	/** Unregister the MBean. */
+	void unregister() {
+		if (name == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException ex) {
+			// already gone
+		}
+		name = null;
+	}
+	
+	/**
+	 * Count an order that was recorded.
+	 * @param startNanos System.nanoTime when recordOrder started
+	 */
+	void orderRecorded(long startNanos) {
+		long now = System.nanoTime();
+		long micros = (now - startNanos) / 1000;
+		orders.increment();
+		latency[bucket(micros)].increment();
+		if (micros > maxLatency.get()) maxLatency.accumulateAndGet(micros, Math::max);
+		long second = TimeUnit.NANOSECONDS.toSeconds(now);
+		int slot = (int) second & (RATE_SLOTS - 1);
+		long old = rateSecond.get(slot);
+		if (old != second && rateSecond.compareAndSet(slot, old, second)) rateCount.set(slot, 0);
+		rateCount.incrementAndGet(slot);
+	}
+	
+	/** Count an order that was a retry of an order already recorded. */
+	void orderRetried() {
+		retries.increment();
+	}
+	
+	/** Get the bucket for a latency: the number of bits needed for micros. */
+	static int bucket(long micros) {
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+	}
+	
+	@Override
+	public String getManagerType() {
+		return rm.getClass().getSimpleName().isEmpty() ? rm.getClass().getSuperclass().getSimpleName()
+				: rm.getClass().getSimpleName();
+	}
+	
+	@Override
+	public long getOrderCount() {
+		return orders.sum();
+	}
+	
+	@Override
+	public long getRetriedOrderCount() {
+		return retries.sum();
+	}
+	
+	@Override
+	public double getOrdersPerSecond() {
+		long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+		long sum = 0;
+		// complete seconds only
+		for(long second=now-RATE_SECONDS; second<now; second++) {
+			int slot = (int) second & (RATE_SLOTS - 1);
+			if (rateSecond.get(slot) == second) sum += rateCount.get(slot);
+		}
+		return (double) sum / RATE_SECONDS;
+	}
+	
+	@Override
+	public long getRecordLatencyP50() {
+		return percentile(50);
+	}
+	
+	@Override
+	public long getRecordLatencyP99() {
+		return percentile(99);
+	}
+	
+	@Override
+	public long getRecordLatencyP999() {
+		return percentile(99.9);
+	}
+	
+	@Override
+	public long getRecordLatencyMax() {
+		return maxLatency.get();
+	}
+	
+	/** Get the upper bound of the bucket containing a percentile. */
+	private long percentile(double percent) {
+		long[] counts = getRecordLatencyHistogram();
+		long total = 0;
+		for(long c: counts) total += c;
+		if (total == 0) return 0;
+		long target = (long) Math.ceil(total * percent / 100);
+		long sum = 0;
+		for(int k=0; k<counts.length; k++) {
+			sum += counts[k];
+			if (sum >= target) return (k == BUCKETS - 1) ? maxLatency.get() : (1L << k);
+		}
+		return maxLatency.get();
+	}
+	
+	@Override
+	public long[] getRecordLatencyHistogram() {
+		long[] counts = new long[BUCKETS];
+		for(int k=0; k<BUCKETS; k++) counts[k] = latency[k].sum();
+		return counts;
+	}
+	
+	@Override
+	public void resetLatency() {
+		for(LongAdder adder: latency) adder.reset();
+		maxLatency.set(0);
+	}
+	
+	@Override
+	public int getIntakeQueueDepth() {
+		return rm.getIntakeQueueDepth();
+	}
+	
+	@Override
+	public int getWriteQueueDepth() {
+		return rm.getWriteQueueDepth();
+	}
+	
+	@Override
+	public long getMenuVersion() {
+		return rm.getMenu().getVersion();
+	}
+	
+	@Override
+	public long getJournalBytesWritten() {
+		return rm.getJournalBytesWritten();
+	}
+	
+	@Override
+	public long getMenuCacheHits() {
+		MenuItemCache cache = rm.getMenuItemCache();
+		return (cache != null) ? cache.getHits() : 0;
+	}
+	
+	@Override
+	public long getMenuCacheMisses() {
+		MenuItemCache cache = rm.getMenuItemCache();
+		return (cache != null) ? cache.getMisses() : 0;
+	}
+	
+	@Override
+	public long getMenuCacheEvictions() {
+		MenuItemCache cache = rm.getMenuItemCache();
+		return (cache != null) ? cache.getEvictions() : 0;
+	}
+}
@@ -0,0 +1,130 @@
+package restaurant;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses closed journal segments with gzip, and deletes segments
+ * that are older than the retention period.
+ *
+ * Compression is done by one low priority thread, so that it uses
+ * CPU time that order taking doesn't need.  A segment is compressed to
+ * a temporary file, which is renamed when it is complete, and then the
+ * manifest is updated and the uncompressed segment is deleted.
+ * If the application stops first, the segment is compressed the
+ * next time the journal is opened.
+ */
+class SegmentCompressor implements AutoCloseable {
+	private final JournalManifest manifest;
+	/** Days to keep segments, or 0 to keep them forever. */
+	private final int retentionDays;
+	private final BlockingQueue<JournalManifest.Segment> queue = new LinkedBlockingQueue<>();
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	/** Marker that tells the thread to stop. */
+	private static final JournalManifest.Segment END = new JournalManifest.Segment("", null);
+
+	/**
+	 * Start the compression thread, and compress any closed segments
+	 * that were not compressed before.
+	 * @param manifest the journal's manifest
+	 * @param retentionDays business days to keep segments, or 0 to keep them forever
+	 */
+	SegmentCompressor(JournalManifest manifest, int retentionDays) {
+		this.manifest = manifest;
+		this.retentionDays = retentionDays;
+		for(JournalManifest.Segment segment: manifest.getSegments()) {
+			if (segment.getState() == JournalManifest.State.CLOSED) queue.add(segment);
+		}
+		thread = new Thread(this::compressLoop, "OrderJournal-compressor");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Compress a segment later. The segment must be closed. */
+	void compress(JournalManifest.Segment segment) {
+		if (! closed) queue.add(segment);
+	}
+
+	private void compressLoop() {
+		while(true) {
+			JournalManifest.Segment segment;
+			try {
+				segment = queue.take();
+			} catch (InterruptedException e) {
+				continue; // only close() can stop the thread
+			}
+			if (segment == END) return;
+			compressSegment(segment);
+			deleteExpired();
+			manifest.save();
+		}
+	}
+
+	private void compressSegment(JournalManifest.Segment segment) {
+		File source = manifest.getFile(segment);
+		if (! source.exists()) return;
+		String gzName = segment.getFile() + ".gz";
+		File target = new File(source.getParentFile(), gzName);
+		File temp = new File(source.getParentFile(), gzName + ".tmp");
+		try {
+			try (InputStream in = new FileInputStream(source);
+				FileOutputStream fout = new FileOutputStream(temp);
+				GZIPOutputStream out = new GZIPOutputStream(fout, 64*1024)) {
+				byte[] buffer = new byte[64*1024];
+				int n;
+				while((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+				out.finish();
+				// the compressed file must be on disk before the segment can be deleted
+				fout.getChannel().force(true);
+			}
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			manifest.update(segment, gzName, JournalManifest.State.COMPRESSED);
+			// the manifest must point to the compressed file before the segment is deleted
+			manifest.save();
+			Files.delete(source.toPath());
+		} catch (IOException ex) {
+			RestaurantManager.getLogger().warning("Could not compress journal segment "+source+": "+ex.getMessage());
+			temp.delete();
+		}
+	}
+
+	/** Delete segments that were closed before the retention period. */
+	private void deleteExpired() {
+		if (retentionDays <= 0) return;
+		LocalDate oldest = LocalDate.now().minusDays(retentionDays);
+		for(JournalManifest.Segment segment: manifest.removeBefore(oldest)) {
+			File file = manifest.getFile(segment);
+			if (! file.delete() && file.exists()) {
+				RestaurantManager.getLogger().warning("Could not delete old journal segment "+file);
+			}
+		}
+	}
+
+	/**
+	 * Finish compressing the current segment and stop.
+	 * Segments still waiting are compressed the next time the journal is opened.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		queue.clear();
+		queue.add(END);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
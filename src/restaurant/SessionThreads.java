@@ -0,0 +1,40 @@
+package restaurant;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Create executors for running terminal sessions and requests, where
+ * each task mostly waits for input.
+ * 
+ * On Java 21 or newer, each task runs in its own virtual thread, so
+ * thousands of sessions are cheap.  On older Java versions (this project
+ * still compiles for Java 17) a cached pool of daemon platform threads is
+ * used instead.  Reflection is used so the code compiles on both.
+ */
+public final class SessionThreads {
+	
+	/** Don't allow instances. */
+	private SessionThreads() { }
+	
+	/**
+	 * Create an executor that runs each task in a new thread.
+	 * @param name prefix for thread names, used if virtual threads are not available
+	 * @return an executor for tasks that block on I/O
+	 */
+	public static ExecutorService newExecutor(String name) {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			// Java before 21. Use platform threads.
+		}
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool( task -> {
+			Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
@@ -0,0 +1,37 @@
+package sales;
+import order.Money;
+
+/**
+ * Sales of one menu item during some period: quantity sold and revenue.
+ * Revenue is in minor units (see order.Money). This is an immutable result
+ * of a query, not a live counter.
+ */
+public class ItemSales {
+	private final String name;
+	private final long quantity;
+	private final long revenue;
+	
+	public ItemSales(String name, long quantity, long revenue) {
+		this.name = name;
+		this.quantity = quantity;
+		this.revenue = revenue;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long getQuantity() {
+		return quantity;
+	}
+	
+	/** Get the revenue in minor units. */
+	public long getRevenue() {
+		return revenue;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%-24.24s %6d %10s", name, quantity, Money.format(revenue));
+	}
+}
@@ -0,0 +1,377 @@
+package sales;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import order.Order;
+import order.OrderItem;
+import restaurant.OrderListener;
+
+/**
+ * Live sales figures: quantity and revenue of each menu item since 
+ * start, and in sliding windows of the last 15 minutes, hour, or day.
+ * 
+ * Add this as an OrderListener of the RestaurantManager.  Counters are 
+ * LongAdders, so recording never waits for a query, and queries only 
+ * read the counters and never block recording.
+ * 
+ * Sales in the windows are kept in a ring of one bucket per minute for
+ * the last day.  When a minute comes around again, its bucket is replaced
+ * by a new one, so memory doesn't grow with uptime.  Items are counted by 
+ * name, so figures stay correct when the menu is reloaded and item numbers change.
+ * Minutes are taken from the order timestamps.
+ * The discount of an order is shared among its items in proportion to
+ * their prices, so the revenue of the items adds up to the order total.
+ * 
+ * The figures can be saved in a checkpoint (see snapshot and restore),
+ * so they don't have to be rebuilt from all orders after a restart.
+ */
+public class SalesAggregator implements OrderListener {
+	/** Number of per-minute buckets: one day. */
+	static final int MINUTES = 24*60;
+	
+	/** Sliding windows for sales queries. */
+	public enum Window {
+		LAST_15_MINUTES(15), LAST_HOUR(60), LAST_DAY(MINUTES);
+		
+		final int minutes;
+		
+		Window(int minutes) {
+			this.minutes = minutes;
+		}
+		
+		public int getMinutes() {
+			return minutes;
+		}
+	}
+	
+	/** Live counters for one item. */
+	static class Counter {
+		final LongAdder quantity = new LongAdder();
+		final LongAdder revenue = new LongAdder();
+		
+		void add(long qty, long amount) {
+			quantity.add(qty);
+			revenue.add(amount);
+		}
+	}
+	
+	/** Sales during one minute. */
+	static class Bucket {
+		/** Minutes since the epoch. */
+		final long minute;
+		final Map<String,Counter> items = new ConcurrentHashMap<>();
+		final LongAdder orders = new LongAdder();
+		final LongAdder revenue = new LongAdder();
+		
+		Bucket(long minute) {
+			this.minute = minute;
+		}
+	}
+	
+	/**
+	 * A copy of all the figures, for saving in a checkpoint. Immutable.
+	 * Item sales are stored as parallel arrays, since there may be many.
+	 */
+	public static class Snapshot {
+		final long orders;
+		final long revenue;
+		final ItemSales[] totals;
+		final long[] minutes;
+		final long[] minuteOrders;
+		final long[] minuteRevenue;
+		final ItemSales[][] minuteItems;
+		
+		Snapshot(long orders, long revenue, ItemSales[] totals, long[] minutes, 
+				long[] minuteOrders, long[] minuteRevenue, ItemSales[][] minuteItems) {
+			this.orders = orders;
+			this.revenue = revenue;
+			this.totals = totals;
+			this.minutes = minutes;
+			this.minuteOrders = minuteOrders;
+			this.minuteRevenue = minuteRevenue;
+			this.minuteItems = minuteItems;
+		}
+		
+		public void writeTo(DataOutput out) throws IOException {
+			out.writeLong(orders);
+			out.writeLong(revenue);
+			writeItems(out, totals);
+			out.writeInt(minutes.length);
+			for(int k=0; k<minutes.length; k++) {
+				out.writeLong(minutes[k]);
+				out.writeLong(minuteOrders[k]);
+				out.writeLong(minuteRevenue[k]);
+				writeItems(out, minuteItems[k]);
+			}
+		}
+		
+		public static Snapshot readFrom(DataInput in) throws IOException {
+			long orders = in.readLong();
+			long revenue = in.readLong();
+			ItemSales[] totals = readItems(in);
+			int n = in.readInt();
+			if (n < 0 || n > MINUTES) throw new IOException("Invalid number of minutes "+n);
+			long[] minutes = new long[n];
+			long[] minuteOrders = new long[n];
+			long[] minuteRevenue = new long[n];
+			ItemSales[][] minuteItems = new ItemSales[n][];
+			for(int k=0; k<n; k++) {
+				minutes[k] = in.readLong();
+				minuteOrders[k] = in.readLong();
+				minuteRevenue[k] = in.readLong();
+				minuteItems[k] = readItems(in);
+			}
+			return new Snapshot(orders, revenue, totals, minutes, minuteOrders, minuteRevenue, minuteItems);
+		}
+		
+		private static void writeItems(DataOutput out, ItemSales[] items) throws IOException {
+			out.writeInt(items.length);
+			for(ItemSales item: items) {
+				out.writeUTF(item.getName());
+				out.writeLong(item.getQuantity());
+				out.writeLong(item.getRevenue());
+			}
+		}
+		
+		private static ItemSales[] readItems(DataInput in) throws IOException {
+			int n = in.readInt();
+			if (n < 0 || n > 10_000_000) throw new IOException("Invalid number of items "+n);
+			ItemSales[] items = new ItemSales[n];
+			for(int k=0; k<n; k++) items[k] = new ItemSales(in.readUTF(), in.readLong(), in.readLong());
+			return items;
+		}
+	}
+	
+	/** Sales since start, by item name. */
+	private final Map<String,Counter> totals = new ConcurrentHashMap<>();
+	private final LongAdder totalOrders = new LongAdder();
+	private final LongAdder totalRevenue = new LongAdder();
+	private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(MINUTES);
+	
+	/**
+	 * Add an order to the sales figures.
+	 * @see OrderListener#orderRecorded(Order)
+	 */
+	@Override
+	public void orderRecorded(Order order) {
+		LocalDateTime time = order.getTimeStamp();
+		Bucket bucket = (time != null) ? bucketFor(toMinute(time)) : null;
+		long total = order.getTotal();
+		long subtotal = order.getSubtotal();
+		long discount = subtotal - total;
+		// price of the items so far, and the discount shared out to them
+		long sum = 0;
+		long shared = 0;
+		for(OrderItem item: order.getOrderItems()) {
+			long amount = item.getTotal();
+			if (discount != 0 && subtotal > 0) {
+				// each item's share is at most its price, and the shares add up to the discount
+				sum += amount;
+				long upTo = Math.multiplyExact(sum, discount) / subtotal;
+				amount -= upTo - shared;
+				shared = upTo;
+			}
+			counter(totals, item.getName()).add(item.getQuantity(), amount);
+			if (bucket != null) counter(bucket.items, item.getName()).add(item.getQuantity(), amount);
+		}
+		totalOrders.increment();
+		totalRevenue.add(total);
+		if (bucket != null) {
+			bucket.orders.increment();
+			bucket.revenue.add(total);
+		}
+	}
+	
+	private static Counter counter(Map<String,Counter> map, String name) {
+		Counter counter = map.get(name);
+		if (counter != null) return counter;
+		return map.computeIfAbsent(name, n -> new Counter());
+	}
+	
+	/**
+	 * Get the bucket for a minute, replacing the bucket of a minute a day earlier.
+	 * @return the bucket, or null if the minute is more than a day older than the bucket's
+	 */
+	private Bucket bucketFor(long minute) {
+		int slot = (int) Math.floorMod(minute, (long) MINUTES);
+		while(true) {
+			Bucket bucket = buckets.get(slot);
+			if (bucket != null && bucket.minute == minute) return bucket;
+			if (bucket != null && bucket.minute > minute) return null;  // too old for the windows
+			Bucket newBucket = new Bucket(minute);
+			if (buckets.compareAndSet(slot, bucket, newBucket)) return newBucket;
+		}
+	}
+	
+	/**
+	 * Copy all the figures, to save in a checkpoint.  To get figures that 
+	 * match a position in the order store, call this from the thread that
+	 * notifies listeners, so no order is half counted.
+	 * @return a copy of the figures
+	 */
+	public Snapshot snapshot() {
+		List<Bucket> used = new ArrayList<>();
+		for(int k=0; k<MINUTES; k++) {
+			Bucket bucket = buckets.get(k);
+			if (bucket != null) used.add(bucket);
+		}
+		int n = used.size();
+		long[] minutes = new long[n];
+		long[] minuteOrders = new long[n];
+		long[] minuteRevenue = new long[n];
+		ItemSales[][] minuteItems = new ItemSales[n][];
+		for(int k=0; k<n; k++) {
+			Bucket bucket = used.get(k);
+			minutes[k] = bucket.minute;
+			minuteOrders[k] = bucket.orders.sum();
+			minuteRevenue[k] = bucket.revenue.sum();
+			minuteItems[k] = toArray(bucket.items);
+		}
+		return new Snapshot(totalOrders.sum(), totalRevenue.sum(), toArray(totals),
+				minutes, minuteOrders, minuteRevenue, minuteItems);
+	}
+	
+	private static ItemSales[] toArray(Map<String,Counter> counters) {
+		List<ItemSales> items = new ArrayList<>(counters.size());
+		counters.forEach( (name, c) -> items.add(new ItemSales(name, c.quantity.sum(), c.revenue.sum())) );
+		return items.toArray(new ItemSales[0]);
+	}
+	
+	/**
+	 * Add the figures from a snapshot, e.g. after a restart.
+	 * Call this before any orders are recorded.
+	 * @param snapshot figures saved by snapshot()
+	 */
+	public void restore(Snapshot snapshot) {
+		totalOrders.add(snapshot.orders);
+		totalRevenue.add(snapshot.revenue);
+		for(ItemSales item: snapshot.totals) counter(totals, item.getName()).add(item.getQuantity(), item.getRevenue());
+		for(int k=0; k<snapshot.minutes.length; k++) {
+			Bucket bucket = bucketFor(snapshot.minutes[k]);
+			if (bucket == null) continue;
+			bucket.orders.add(snapshot.minuteOrders[k]);
+			bucket.revenue.add(snapshot.minuteRevenue[k]);
+			for(ItemSales item: snapshot.minuteItems[k]) {
+				counter(bucket.items, item.getName()).add(item.getQuantity(), item.getRevenue());
+			}
+		}
+	}
+	
+	static long toMinute(LocalDateTime time) {
+		return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 60L);
+	}
+	
+	/** Get the number of orders since start. */
+	public long getOrderCount() {
+		return totalOrders.sum();
+	}
+	
+	/** Get the revenue since start, in minor units. */
+	public long getRevenue() {
+		return totalRevenue.sum();
+	}
+	
+	/** Get the number of orders in a window ending now. */
+	public long getOrderCount(Window window) {
+		long count = 0;
+		for(Bucket bucket: bucketsInWindow(window.minutes, LocalDateTime.now())) count += bucket.orders.sum();
+		return count;
+	}
+	
+	/** Get the revenue in a window ending now, in minor units. */
+	public long getRevenue(Window window) {
+		long revenue = 0;
+		for(Bucket bucket: bucketsInWindow(window.minutes, LocalDateTime.now())) revenue += bucket.revenue.sum();
+		return revenue;
+	}
+	
+	/** Get the sales of every item since start. */
+	public List<ItemSales> getItemSales() {
+		List<ItemSales> result = new ArrayList<>(totals.size());
+		totals.forEach( (name, c) -> result.add(new ItemSales(name, c.quantity.sum(), c.revenue.sum())) );
+		return result;
+	}
+	
+	/** Get the sales of every item sold in a window ending now. */
+	public List<ItemSales> getItemSales(Window window) {
+		return getItemSales(window.minutes, LocalDateTime.now());
+	}
+	
+	/**
+	 * Get the sales of every item sold in the minutes before a time.
+	 * @param minutes length of the window, at most one day
+	 * @param end end of the window. The minute containing end is included.
+	 * @return sales of each item sold in the window, in no particular order
+	 */
+	public List<ItemSales> getItemSales(int minutes, LocalDateTime end) {
+		Map<String,long[]> sums = new HashMap<>();
+		for(Bucket bucket: bucketsInWindow(minutes, end)) {
+			bucket.items.forEach( (name, c) -> {
+				long[] sum = sums.computeIfAbsent(name, n -> new long[2]);
+				sum[0] += c.quantity.sum();
+				sum[1] += c.revenue.sum();
+			});
+		}
+		List<ItemSales> result = new ArrayList<>(sums.size());
+		sums.forEach( (name, sum) -> result.add(new ItemSales(name, sum[0], sum[1])) );
+		return result;
+	}
+	
+	/**
+	 * Get the best selling items in a window ending now, by quantity sold.
+	 * @param window the window
+	 * @param n max number of items to return
+	 * @return the best sellers, best first
+	 */
+	public List<ItemSales> topSellers(Window window, int n) {
+		return top(getItemSales(window), n);
+	}
+	
+	/**
+	 * Get the best selling items since start, by quantity sold.
+	 * @param n max number of items to return
+	 * @return the best sellers, best first
+	 */
+	public List<ItemSales> topSellers(int n) {
+		return top(getItemSales(), n);
+	}
+	
+	/** Get the n items with largest quantity, using a heap of size n. Ties are by revenue. */
+	static List<ItemSales> top(List<ItemSales> sales, int n) {
+		if (n <= 0) return new ArrayList<>();
+		Comparator<ItemSales> byQuantity = Comparator.comparingLong(ItemSales::getQuantity)
+				.thenComparingLong(ItemSales::getRevenue);
+		PriorityQueue<ItemSales> heap = new PriorityQueue<>(n + 1, byQuantity);
+		for(ItemSales item: sales) {
+			heap.add(item);
+			if (heap.size() > n) heap.poll();
+		}
+		List<ItemSales> result = new ArrayList<>(heap);
+		result.sort(byQuantity.reversed());
+		return result;
+	}
+	
+	/** Get the buckets for the minutes in (end - minutes, end]. */
+	private List<Bucket> bucketsInWindow(int minutes, LocalDateTime end) {
+		minutes = Math.min(minutes, MINUTES);
+		long last = toMinute(end);
+		List<Bucket> result = new ArrayList<>(minutes);
+		for(long minute=last-minutes+1; minute<=last; minute++) {
+			Bucket bucket = buckets.get((int) Math.floorMod(minute, (long) MINUTES));
+			if (bucket != null && bucket.minute == minute) result.add(bucket);
+		}
+		return result;
+	}
+}